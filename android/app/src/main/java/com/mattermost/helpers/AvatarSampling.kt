@@ -0,0 +1,17 @@
+package com.mattermost.helpers
+
+object AvatarSampling {
+    /**
+     * The inSampleSize to decode an avatar of [width] x [height] pixels with for an icon of [size]
+     * pixels, the largest power of two that keeps the shorter side at least [size] pixels long.
+     */
+    @JvmStatic
+    fun sampleSize(width: Int, height: Int, size: Int): Int {
+        var sampleSize = 1
+        val side = minOf(width, height)
+        while (side / (sampleSize * 2) >= size) {
+            sampleSize *= 2
+        }
+        return sampleSize
+    }
+}
@@ -1,12 +1,35 @@
 package com.mattermost.helpers
 
+import android.content.Context
 import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import android.util.LruCache
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
 
 class BitmapCache {
     private var memoryCache: LruCache<String, Bitmap>
     private var keysCache: LruCache<String, String>
 
+    // The disk tier survives process restarts, which is the common case when handling a push
+    private var diskDir: File? = null
+    private val diskLock = Any()
+
+    private val memoryHitCount = AtomicLong()
+    private val diskHitCount = AtomicLong()
+    private val missCount = AtomicLong()
+
+    val memoryHits: Long
+        get() = memoryHitCount.get()
+
+    val diskHits: Long
+        get() = diskHitCount.get()
+
+    val misses: Long
+        get() = missCount.get()
+
     init {
         val maxMemory = (Runtime.getRuntime().maxMemory() / 1024).toInt()
         val cacheSize = maxMemory / 8
@@ -18,19 +41,46 @@ class BitmapCache {
         keysCache = LruCache<String, String>(50)
     }
 
+    fun init(context: Context) {
+        synchronized(diskLock) {
+            if (diskDir == null) {
+                val dir = File(context.cacheDir, DISK_CACHE_DIR)
+                if (dir.exists() || dir.mkdirs()) {
+                    diskDir = dir
+                }
+            }
+        }
+    }
+
     fun bitmap(userId: String, updatedAt: Double, serverUrl: String): Bitmap? {
         val key = "$serverUrl-$userId-$updatedAt"
-        return memoryCache.get(key)
+        memoryCache.get(key)?.let {
+            memoryHitCount.incrementAndGet()
+            return it
+        }
+
+        val bitmap = readFromDisk(userId, updatedAt, serverUrl)
+        if (bitmap != null) {
+            diskHitCount.incrementAndGet()
+            keysCache.put("$serverUrl-$userId", key)
+            memoryCache.put(key, bitmap)
+            return bitmap
+        }
+
+        missCount.incrementAndGet()
+        return null
     }
 
     fun insertBitmap(bitmap: Bitmap?, userId: String, updatedAt: Double, serverUrl: String) {
         if (bitmap == null) {
             removeBitmap(userId, serverUrl)
+            return
         }
         val key = "$serverUrl-$userId-$updatedAt"
         val cachedKey = "$serverUrl-$userId"
         keysCache.put(cachedKey, key)
         memoryCache.put(key, bitmap)
+        writeToDisk(bitmap, userId, updatedAt, serverUrl)
     }
 
     fun removeBitmap(userId: String, serverUrl: String) {
@@ -40,10 +90,98 @@ class BitmapCache {
             memoryCache.remove(key)
             keysCache.remove(cachedKey)
         }
+        removeFromDisk(userId, serverUrl)
     }
 
     fun removeAllBitmaps() {
         memoryCache.evictAll()
         keysCache.evictAll()
+        synchronized(diskLock) {
+            diskDir?.listFiles()?.forEach { it.delete() }
+        }
+    }
+
+    private fun diskPrefix(userId: String, serverUrl: String): String {
+        val digest = MessageDigest.getInstance("SHA-1").digest(serverUrl.toByteArray())
+        val server = digest.joinToString("") { "%02x".format(it) }
+        return "${server}_${userId}_"
+    }
+
+    private fun diskFile(dir: File, userId: String, updatedAt: Double, serverUrl: String): File {
+        return File(dir, "${diskPrefix(userId, serverUrl)}${updatedAt.toLong()}.png")
+    }
+
+    private fun readFromDisk(userId: String, updatedAt: Double, serverUrl: String): Bitmap? {
+        synchronized(diskLock) {
+            val dir = diskDir ?: return null
+            try {
+                val file = diskFile(dir, userId, updatedAt, serverUrl)
+                if (!file.exists()) {
+                    return null
+                }
+                val bitmap = BitmapFactory.decodeFile(file.path)
+                if (bitmap == null) {
+                    file.delete()
+                    return null
+                }
+                // Keep the file at the end of the eviction order
+                file.setLastModified(System.currentTimeMillis())
+                return bitmap
+            } catch (e: Exception) {
+                e.printStackTrace()
+                return null
+            }
+        }
+    }
+
+    private fun writeToDisk(bitmap: Bitmap, userId: String, updatedAt: Double, serverUrl: String) {
+        synchronized(diskLock) {
+            val dir = diskDir ?: return
+            try {
+                removeFromDisk(userId, serverUrl)
+                val file = diskFile(dir, userId, updatedAt, serverUrl)
+                val tmp = File(dir, "${file.name}.tmp")
+                FileOutputStream(tmp).use { out ->
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)
+                    out.fd.sync()
+                }
+                if (!tmp.renameTo(file)) {
+                    tmp.delete()
+                    return
+                }
+                trimDisk(dir)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    private fun removeFromDisk(userId: String, serverUrl: String) {
+        synchronized(diskLock) {
+            val dir = diskDir ?: return
+            val prefix = diskPrefix(userId, serverUrl)
+            dir.listFiles { _, name -> name.startsWith(prefix) }?.forEach { it.delete() }
+        }
+    }
+
+    private fun trimDisk(dir: File) {
+        val files = dir.listFiles() ?: return
+        var size = files.sumOf { it.length() }
+        if (size <= MAX_DISK_CACHE_BYTES) {
+            return
+        }
+
+        for (file in files.sortedBy { it.lastModified() }) {
+            size -= file.length()
+            file.delete()
+            if (size <= MAX_DISK_CACHE_BYTES) {
+                break
+            }
+        }
+    }
+
+    companion object {
+        private const val DISK_CACHE_DIR = "notification_avatars"
+        private const val MAX_DISK_CACHE_BYTES = 10L * 1024 * 1024
     }
 }
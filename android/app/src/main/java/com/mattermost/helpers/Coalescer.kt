@@ -0,0 +1,82 @@
+package com.mattermost.helpers
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Merges concurrent requests for the same key into as few executions as possible.
+ *
+ * The first caller for a key starts the work right away. Callers for the same key that arrive while
+ * it runs may need data it already fetched, so they all wait for a single follow-up execution that
+ * starts once the running one is done, and no earlier than [windowMs] after the first of them
+ * arrived so a burst is merged into it. Every caller receives the result of the execution it joined.
+ */
+class Coalescer<T>(private val windowMs: Long) {
+    private class FollowUp<T>(val work: suspend () -> T, val arrivedAt: Long) {
+        val result = CompletableDeferred<T>()
+    }
+
+    private class Slot<T> {
+        var running = false
+        var next: FollowUp<T>? = null
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val slots = HashMap<String, Slot<T>>()
+
+    suspend fun run(key: String, work: suspend () -> T): T {
+        val deferred = synchronized(slots) {
+            val slot = slots.getOrPut(key) { Slot() }
+            if (!slot.running) {
+                slot.running = true
+                scope.async {
+                    try {
+                        work()
+                    } finally {
+                        finish(key, slot)
+                    }
+                }
+            } else {
+                (slot.next ?: FollowUp(work, System.nanoTime()).also { slot.next = it }).result
+            }
+        }
+
+        return deferred.await()
+    }
+
+    private fun finish(key: String, slot: Slot<T>) {
+        synchronized(slots) {
+            val next = slot.next
+            if (next == null) {
+                slot.running = false
+                slots.remove(key)
+            } else {
+                runFollowUp(key, slot, next)
+            }
+        }
+    }
+
+    private fun runFollowUp(key: String, slot: Slot<T>, followUp: FollowUp<T>) = scope.launch {
+        val remainingMs = windowMs - (System.nanoTime() - followUp.arrivedAt) / 1_000_000
+        if (remainingMs > 0) {
+            delay(remainingMs)
+        }
+
+        // Callers arriving from now on need another execution
+        synchronized(slots) {
+            slot.next = null
+        }
+        try {
+            followUp.result.complete(followUp.work())
+        } catch (e: Throwable) {
+            followUp.result.completeExceptionally(e)
+        } finally {
+            finish(key, slot)
+        }
+    }
+}
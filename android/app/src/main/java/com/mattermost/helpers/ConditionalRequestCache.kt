@@ -0,0 +1,172 @@
+package com.mattermost.helpers
+
+import android.content.Context
+import com.mattermost.turbolog.TurboLog
+import okhttp3.Headers
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * Validators and bodies of the mostly static responses requested by the native push client, used
+ * to send conditional requests so the server can answer 304 instead of sending the same data again.
+ *
+ * Entries are stored in the cache directory, bounded to [MAX_DISK_BYTES] by dropping the least
+ * recently used ones, and the most recently used are also kept in memory so a 304 does not read the
+ * disk either. Only responses with an ETag or a Last-Modified header are kept. The entries of a
+ * server hold the data of the user's session and are cleared when the app logs out of it or
+ * removes it.
+ */
+object ConditionalRequestCache {
+    private const val DIR_NAME = "push_http_cache"
+    private const val FORMAT_VERSION = 1
+    private const val MAX_DISK_BYTES = 4L * 1024 * 1024
+    private const val MAX_MEMORY_ENTRIES = 32
+
+    class Entry(val etag: String?, val lastModified: String?, val body: ByteArray) {
+        /**
+         * Headers that make the request conditional on the response having changed since this entry.
+         */
+        fun validators(): Map<String, String> {
+            val headers = HashMap<String, String>()
+            etag?.let { headers["If-None-Match"] = it }
+            lastModified?.let { headers["If-Modified-Since"] = it }
+            return headers
+        }
+
+        fun text(): String? = if (body.isEmpty()) null else String(body, Charsets.UTF_8)
+    }
+
+    private var dir: File? = null
+    private val memory = object : LinkedHashMap<String, Entry>(MAX_MEMORY_ENTRIES, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?) = size > MAX_MEMORY_ENTRIES
+    }
+
+    @Synchronized
+    fun init(context: Context) {
+        if (dir == null) {
+            val cacheDir = File(context.cacheDir, DIR_NAME)
+            if (cacheDir.exists() || cacheDir.mkdirs()) {
+                dir = cacheDir
+            }
+        }
+    }
+
+    fun get(serverUrl: String, endpoint: String): Entry? {
+        val key = key(serverUrl, endpoint)
+        synchronized(memory) {
+            memory[key]?.let { return it }
+        }
+
+        val entry = read(key) ?: return null
+        synchronized(memory) {
+            memory[key] = entry
+        }
+        return entry
+    }
+
+    /**
+     * Stores the response of [endpoint] when it has validators, otherwise forgets any previous one.
+     */
+    fun put(serverUrl: String, endpoint: String, headers: Headers, body: ByteArray): Entry? {
+        val key = key(serverUrl, endpoint)
+        val etag = headers["ETag"]
+        val lastModified = headers["Last-Modified"]
+        if (etag == null && lastModified == null) {
+            remove(key)
+            return null
+        }
+
+        val entry = Entry(etag, lastModified, body)
+        synchronized(memory) {
+            memory[key] = entry
+        }
+        write(key, entry)
+        return entry
+    }
+
+    /**
+     * Forgets every response cached for [serverUrl].
+     */
+    fun clear(context: Context, serverUrl: String) {
+        init(context)
+        val prefix = serverKey(serverUrl)
+        synchronized(memory) {
+            memory.keys.removeAll { it.startsWith(prefix) }
+        }
+        dir?.listFiles { _, name -> name.startsWith(prefix) }?.forEach { it.delete() }
+    }
+
+    private fun remove(key: String) {
+        synchronized(memory) {
+            memory.remove(key)
+        }
+        dir?.let { File(it, key).delete() }
+    }
+
+    private fun read(key: String): Entry? {
+        val file = File(dir ?: return null, key)
+        if (!file.exists()) {
+            return null
+        }
+
+        return try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    return null
+                }
+                val etag = input.readUTF().ifEmpty { null }
+                val lastModified = input.readUTF().ifEmpty { null }
+                val body = ByteArray(input.readInt())
+                input.readFully(body)
+                file.setLastModified(System.currentTimeMillis())
+                Entry(etag, lastModified, body)
+            }
+        } catch (e: Exception) {
+            file.delete()
+            null
+        }
+    }
+
+    private fun write(key: String, entry: Entry) {
+        val cacheDir = dir ?: return
+        try {
+            val tmp = File(cacheDir, "$key.tmp")
+            DataOutputStream(tmp.outputStream().buffered()).use { output ->
+                output.writeInt(FORMAT_VERSION)
+                output.writeUTF(entry.etag ?: "")
+                output.writeUTF(entry.lastModified ?: "")
+                output.writeInt(entry.body.size)
+                output.write(entry.body)
+            }
+            tmp.renameTo(File(cacheDir, key))
+            trim(cacheDir)
+        } catch (e: Exception) {
+            TurboLog.w("ReactNative", "Unable to store the cached response error=${e.message}")
+        }
+    }
+
+    private fun trim(cacheDir: File) {
+        val files = cacheDir.listFiles()?.sortedByDescending { it.lastModified() } ?: return
+        var total = 0L
+        for (file in files) {
+            total += file.length()
+            if (total > MAX_DISK_BYTES) {
+                file.delete()
+            }
+        }
+    }
+
+    // The key starts with the hash of the server so its entries can be found to clear them
+    private fun key(serverUrl: String, endpoint: String): String {
+        return serverKey(serverUrl) + sha256("$serverUrl|$endpoint").take(24)
+    }
+
+    private fun serverKey(serverUrl: String) = sha256(serverUrl).take(16)
+
+    private fun sha256(value: String): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(value.toByteArray())
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+}
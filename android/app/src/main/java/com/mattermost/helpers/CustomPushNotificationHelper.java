@@ -30,6 +30,8 @@ import androidx.core.graphics.drawable.IconCompat;
 
 import com.mattermost.rnbeta.*;
 import com.mattermost.rnutils.helpers.NotificationHelper;
+import com.mattermost.rnutils.helpers.PushMetrics;
+import com.mattermost.rnshare.helpers.SharedHttpClient;
 import com.nozbe.watermelondb.WMDatabase;
 import com.mattermost.turbolog.TurboLog;
 
@@ -39,12 +41,18 @@ import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Date;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.IncorrectClaimException;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MissingClaimException;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -52,6 +60,7 @@ import static com.mattermost.helpers.database_extension.GeneralKt.getDatabaseFor
 import static com.mattermost.helpers.database_extension.GeneralKt.getDeviceToken;
 import static com.mattermost.helpers.database_extension.GeneralKt.getZeroPersistenceSigningKey;
 import static com.mattermost.helpers.database_extension.GeneralKt.isZeroPersistenceServer;
+import static com.mattermost.helpers.database_extension.GeneralKt.releaseDatabaseForServer;
 import static com.mattermost.helpers.database_extension.SystemKt.queryConfigServerVersion;
 import static com.mattermost.helpers.database_extension.SystemKt.queryConfigSigningKey;
 import static com.mattermost.helpers.database_extension.UserKt.getLastPictureUpdate;
@@ -70,10 +79,31 @@ public class CustomPushNotificationHelper {
     private static NotificationChannel mHighImportanceChannel;
     private static NotificationChannel mMinImportanceChannel;
 
-    private static final OkHttpClient client = new OkHttpClient();
-
     private static final BitmapCache bitmapCache = new BitmapCache();
 
+    // Avatar requests in flight keyed by server and user, concurrent callers share the same request
+    private static final ConcurrentHashMap<String, Future<Bitmap>> avatarRequests = new ConcurrentHashMap<>();
+    private static final ExecutorService avatarExecutor = Executors.newFixedThreadPool(3);
+
+    private static final int UNSIGNED_ALLOWED = 0;
+    private static final int UNSIGNED_INVALID_VERSION = 1;
+    private static final int UNSIGNED_REJECTED = 2;
+
+    // Signature verification state that only changes with the server config or the device token
+    private static final ConcurrentHashMap<String, VerificationContext> verificationContexts = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> unsignedVersionDecisions = new ConcurrentHashMap<>();
+    private static volatile String[] parsedDeviceToken;
+
+    private static class VerificationContext {
+        final String signingKey;
+        final JwtParser parser;
+
+        VerificationContext(String signingKey, JwtParser parser) {
+            this.signingKey = signingKey;
+            this.parser = parser;
+        }
+    }
+
     private static void addMessagingStyleMessages(Context context, NotificationCompat.MessagingStyle messagingStyle, String conversationTitle, Bundle bundle) {
         String message = bundle.getString("message", bundle.getString("body"));
         String senderId = bundle.getString("sender_id");
@@ -199,6 +229,15 @@ public class CustomPushNotificationHelper {
         boolean is_crt_enabled = bundle.containsKey("is_crt_enabled") && Objects.equals(bundle.getString("is_crt_enabled"), "true");
         String groupId = is_crt_enabled && !android.text.TextUtils.isEmpty(rootId) ? rootId : channelId;
 
+        // The sender avatar is used by both the icon and the messaging style, start loading it
+        // right away so it is fetched once and concurrently with the rest of the notification
+        String serverUrl = bundle.getString("server_url");
+        String senderId = bundle.getString("sender_id");
+        String type = bundle.getString("type");
+        if (serverUrl != null && senderId != null && type != null && !type.equals(PUSH_TYPE_SESSION)) {
+            prefetchAvatar(context, serverUrl, senderId, bundle.getString("override_icon_url"));
+        }
+
         addNotificationExtras(notification, bundle);
         setNotificationIcons(context, notification, bundle);
         setNotificationMessagingStyle(context, notification, bundle);
@@ -277,9 +316,17 @@ public class CustomPushNotificationHelper {
                 return false;
             }
             
-            return verifyJwt(dbHelper, signature, ackId, zeroPersistenceSigningKey);
+            return verifyJwt(dbHelper, serverUrl, signature, ackId, zeroPersistenceSigningKey);
+        }
+
+        try {
+            return verifyServerSignature(dbHelper, db, serverUrl, signature, ackId);
+        } finally {
+            releaseDatabaseForServer(dbHelper, serverUrl, db);
         }
+    }
 
+    private static boolean verifyServerSignature(DatabaseHelper dbHelper, WMDatabase db, String serverUrl, String signature, String ackId) {
         if (signature.equals("NO_SIGNATURE")) {
             String version = queryConfigServerVersion(db);
             if (version == null) {
@@ -287,106 +334,139 @@ public class CustomPushNotificationHelper {
                 return false;
             }
 
-            if (!version.matches("[0-9]+(\\.[0-9]+)*")) {
-                TurboLog.Companion.i("Mattermost Notifications Signature verification", "Invalid server version");
-                return false;
+            Integer decision = unsignedVersionDecisions.get(version);
+            if (decision == null) {
+                decision = getUnsignedVersionDecision(version);
+                unsignedVersionDecisions.put(version, decision);
             }
 
-            String[] parts = version.split("\\.");
-            int major = parts.length > 0 ? Integer.parseInt(parts[0]) : 0;
-            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
-            int patch = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
-
-            int[][] targets = {{9,8,0},{9,7,3},{9,6,3},{9,5,5},{8,1,14}};
-            boolean rejected = false;
-            for (int i = 0; i < targets.length; i++) {
-                boolean first = i == 0;
-                int[] targetVersion = targets[i];
-                int majorTarget = targetVersion[0];
-                int minorTarget = targetVersion[1];
-                int patchTarget = targetVersion[2];
-
-                if (major > majorTarget) {
-                    // Only reject if we are considering the first (highest) version.
-                    // Any version in between should be acceptable.
-                    rejected = first;
-                    break;
-                }
+            switch (decision) {
+                case UNSIGNED_INVALID_VERSION:
+                    TurboLog.Companion.i("Mattermost Notifications Signature verification", "Invalid server version");
+                    return false;
+                case UNSIGNED_REJECTED:
+                    TurboLog.Companion.i("Mattermost Notifications Signature verification", "Server version should send signature");
+                    return false;
+                default:
+                    // Version number is below any of the targets, so it should not send the signature
+                    return true;
+            }
+        }
 
-                if (major < majorTarget) {
-                    // Continue to see if it complies with a smaller target
-                    continue;
-                }
+        String signingKey = queryConfigSigningKey(db);
+        if (signingKey == null) {
+            TurboLog.Companion.i("Mattermost Notifications Signature verification", "No signing key");
+            return false;
+        }
 
-                // Same major
-                if (minor > minorTarget) {
-                    // Only reject if we are considering the first (highest) version.
-                    // Any version in between should be acceptable.
-                    rejected = first;
-                    break;
-                }
+        return verifyJwt(dbHelper, serverUrl, signature, ackId, signingKey);
+    }
 
-                if (minor < minorTarget) {
-                    // Continue to see if it complies with a smaller target
-                    continue;
-                }
+    private static int getUnsignedVersionDecision(String version) {
+        if (!version.matches("[0-9]+(\\.[0-9]+)*")) {
+            return UNSIGNED_INVALID_VERSION;
+        }
 
-                // Same major and same minor
-                if (patch >= patchTarget) {
-                    rejected = true;
-                    break;
-                }
+        String[] parts = version.split("\\.");
+        int major = parts.length > 0 ? Integer.parseInt(parts[0]) : 0;
+        int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        int patch = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+
+        int[][] targets = {{9,8,0},{9,7,3},{9,6,3},{9,5,5},{8,1,14}};
+        for (int i = 0; i < targets.length; i++) {
+            boolean first = i == 0;
+            int[] targetVersion = targets[i];
+            int majorTarget = targetVersion[0];
+            int minorTarget = targetVersion[1];
+            int patchTarget = targetVersion[2];
 
-                // Patch is lower than target
-                return true;
+            if (major > majorTarget) {
+                // Only reject if we are considering the first (highest) version.
+                // Any version in between should be acceptable.
+                return first ? UNSIGNED_REJECTED : UNSIGNED_ALLOWED;
             }
 
-            if (rejected) {
-                TurboLog.Companion.i("Mattermost Notifications Signature verification", "Server version should send signature");
-                return false;
+            if (major < majorTarget) {
+                // Continue to see if it complies with a smaller target
+                continue;
             }
 
-            // Version number is below any of the targets, so it should not send the signature
-            return true;
+            // Same major
+            if (minor > minorTarget) {
+                // Only reject if we are considering the first (highest) version.
+                // Any version in between should be acceptable.
+                return first ? UNSIGNED_REJECTED : UNSIGNED_ALLOWED;
+            }
+
+            if (minor < minorTarget) {
+                // Continue to see if it complies with a smaller target
+                continue;
+            }
+
+            // Same major and same minor
+            if (patch >= patchTarget) {
+                return UNSIGNED_REJECTED;
+            }
+
+            // Patch is lower than target
+            return UNSIGNED_ALLOWED;
         }
 
-        String signingKey = queryConfigSigningKey(db);
-        if (signingKey == null) {
-            TurboLog.Companion.i("Mattermost Notifications Signature verification", "No signing key");
-            return false;
+        // Version number is below any of the targets, so it should not send the signature
+        return UNSIGNED_ALLOWED;
+    }
+
+    private static VerificationContext getVerificationContext(String serverUrl, String signingKey) throws Exception {
+        VerificationContext current = verificationContexts.get(serverUrl);
+        if (current != null && current.signingKey.equals(signingKey)) {
+            return current;
         }
 
-        return verifyJwt(dbHelper, signature, ackId, signingKey);
+        byte[] encoded = Base64.decode(signingKey, 0);
+        KeyFactory kf = KeyFactory.getInstance("EC");
+        PublicKey pubKey = kf.generatePublic(new X509EncodedKeySpec(encoded));
+        VerificationContext context = new VerificationContext(signingKey, Jwts.parser().verifyWith(pubKey).build());
+        verificationContexts.put(serverUrl, context);
+        return context;
     }
 
-    private static boolean verifyJwt(DatabaseHelper dbHelper, String signature, String ackId, String signingKey) {
+    private static String getDeviceId(String storedDeviceToken) {
+        String[] cached = parsedDeviceToken;
+        if (cached != null && cached[0].equals(storedDeviceToken)) {
+            return cached[1];
+        }
+
+        String deviceId = null;
+        String[] tokenParts = storedDeviceToken.split(":", 2);
+        if (tokenParts.length == 2) {
+            deviceId = tokenParts[1].substring(0, tokenParts[1].length() -1 );
+        }
+        parsedDeviceToken = new String[]{storedDeviceToken, deviceId};
+        return deviceId;
+    }
+
+    private static boolean verifyJwt(DatabaseHelper dbHelper, String serverUrl, String signature, String ackId, String signingKey) {
         try {
-            byte[] encoded = Base64.decode(signingKey, 0);
-            KeyFactory kf = KeyFactory.getInstance("EC");
-            PublicKey pubKey = (PublicKey) kf.generatePublic(new X509EncodedKeySpec(encoded));
+            VerificationContext verificationContext = getVerificationContext(serverUrl, signingKey);
 
             String storedDeviceToken = getDeviceToken(dbHelper);
             if (storedDeviceToken == null) {
                 TurboLog.Companion.i("Mattermost Notifications Signature verification", "No device token stored");
                 return false;
             }
-            String[] tokenParts = storedDeviceToken.split(":", 2);
-            if (tokenParts.length != 2) {
+            String deviceToken = getDeviceId(storedDeviceToken);
+            if (deviceToken == null) {
                 TurboLog.Companion.i("Mattermost Notifications Signature verification", "Wrong stored device token format");
                 return false;
             }
-            String deviceToken = tokenParts[1].substring(0, tokenParts[1].length() -1 );
             if (deviceToken.isEmpty()) {
                 TurboLog.Companion.i("Mattermost Notifications Signature verification", "Empty stored device token");
                 return false;
             }
 
-            Jwts.parser()
-                    .require("ack_id", ackId)
-                    .require("device_id", deviceToken)
-                    .verifyWith((PublicKey) pubKey)
-                    .build()
-                    .parseSignedClaims(signature);
+            Claims claims = verificationContext.parser.parseSignedClaims(signature).getPayload();
+            requireClaim(claims, "ack_id", ackId);
+            requireClaim(claims, "device_id", deviceToken);
         } catch (MissingClaimException e) {
             TurboLog.Companion.i("Mattermost Notifications Signature verification", String.format("Missing claim: %s", e.getMessage()));
             e.printStackTrace();
@@ -408,29 +488,69 @@ public class CustomPushNotificationHelper {
         return true;
     }
 
-    private static Bitmap getCircleBitmap(Bitmap bitmap) {
-        final Bitmap output = Bitmap.createBitmap(bitmap.getWidth(),
-                bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+    private static void requireClaim(Claims claims, String claimName, String expected) {
+        Object value = claims.get(claimName);
+        if (value == null) {
+            throw new MissingClaimException(null, claims, claimName, expected, String.format("Missing '%s' claim. Expected value: %s", claimName, expected));
+        }
+        if (!expected.equals(value)) {
+            throw new IncorrectClaimException(null, claims, claimName, expected, String.format("Expected %s claim to be: %s, but was: %s.", claimName, expected, value));
+        }
+    }
+
+    private static Bitmap getCircleBitmap(Bitmap bitmap, int size) {
+        final Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
         final Canvas canvas = new Canvas(output);
 
         final int color = Color.RED;
         final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        // Center crop the source into a square so the circle is never distorted
+        final int side = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        final int left = (bitmap.getWidth() - side) / 2;
+        final int top = (bitmap.getHeight() - side) / 2;
+        final Rect src = new Rect(left, top, left + side, top + side);
+        final Rect rect = new Rect(0, 0, size, size);
         final RectF rectF = new RectF(rect);
 
         paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
         canvas.drawARGB(0, 0, 0, 0);
         paint.setColor(color);
         canvas.drawOval(rectF, paint);
 
         paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
+        canvas.drawBitmap(bitmap, src, rect, paint);
 
         bitmap.recycle();
 
         return output;
     }
 
+    /**
+     * Decodes the avatar downsampled to the notification large icon size and cropped to a circle,
+     * the result is immutable once returned and can be shared by every notification.
+     */
+    private static Bitmap decodeAvatar(Context context, byte[] bytes) {
+        final int size = context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = AvatarSampling.sampleSize(options.outWidth, options.outHeight, size);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        // Smaller avatars are not scaled up, the notification scales the icon itself
+        return getCircleBitmap(bitmap, Math.min(size, Math.min(bitmap.getWidth(), bitmap.getHeight())));
+    }
+
     private static String getConversationTitle(Bundle bundle) {
         String title = bundle.getString("channel_name");
 
@@ -458,7 +578,7 @@ public class CustomPushNotificationHelper {
 
         if (serverUrl != null && type != null && !type.equals(CustomPushNotificationHelper.PUSH_TYPE_SESSION)) {
             try {
-                Bitmap avatar = userAvatar(context, serverUrl, "me", urlOverride);
+                Bitmap avatar = myAvatar(context, serverUrl, urlOverride);
                 if (avatar != null) {
                     sender.setIcon(IconCompat.createWithBitmap(avatar));
                 }
@@ -588,30 +708,90 @@ public class CustomPushNotificationHelper {
         }
     }
 
+    /**
+     * Starts loading an avatar in the background, callers of {@link #userAvatar} for the same
+     * avatar join the request instead of issuing a new one.
+     */
+    private static void prefetchAvatar(final Context context, @NonNull final String serverUrl, final String userId, final String urlOverride) {
+        avatarExecutor.execute(() -> {
+            try {
+                userAvatar(context, serverUrl, userId, urlOverride);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Returns the "me" avatar only when it is already cached, otherwise it is fetched in the
+     * background for the next notification so it never delays this one.
+     */
+    private static Bitmap myAvatar(final Context context, @NonNull final String serverUrl, final String urlOverride) throws IOException {
+        if (!TextUtils.isEmpty(urlOverride)) {
+            return userAvatar(context, serverUrl, "me", urlOverride);
+        }
+
+        bitmapCache.init(context);
+        Bitmap cached = bitmapCache.bitmap("me", getLastPictureUpdateAt(context, serverUrl, "me"), serverUrl);
+        if (cached == null) {
+            prefetchAvatar(context, serverUrl, "me", null);
+        }
+        return cached;
+    }
+
     private static Bitmap userAvatar(final Context context, @NonNull final String serverUrl, final String userId, final String urlOverride) throws IOException {
+        final String key = TextUtils.isEmpty(urlOverride) ? String.format("%s-%s", serverUrl, userId) : urlOverride;
+        FutureTask<Bitmap> task = new FutureTask<>(() -> loadUserAvatar(context, serverUrl, userId, urlOverride));
+        Future<Bitmap> inFlight = avatarRequests.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                avatarRequests.remove(key, task);
+            }
+            inFlight = task;
+        }
+
+        try {
+            return inFlight.get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Double getLastPictureUpdateAt(final Context context, @NonNull final String serverUrl, final String userId) {
+        Double lastUpdateAt = null;
+        DatabaseHelper dbHelper = DatabaseHelper.Companion.getInstance();
+        if (dbHelper != null) {
+            WMDatabase db = getDatabaseForServer(dbHelper, context, serverUrl);
+            if (db != null) {
+                try {
+                    lastUpdateAt = getLastPictureUpdate(db, userId);
+                } finally {
+                    releaseDatabaseForServer(dbHelper, serverUrl, db);
+                }
+            }
+        }
+        return lastUpdateAt != null ? lastUpdateAt : 0.0;
+    }
+
+    private static Bitmap loadUserAvatar(final Context context, @NonNull final String serverUrl, final String userId, final String urlOverride) throws IOException {
+        long start = PushMetrics.now();
         try {
             Response response;
             Double lastUpdateAt = 0.0;
             if (!TextUtils.isEmpty(urlOverride)) {
                 Request request = new Request.Builder().url(urlOverride).build();
                 TurboLog.Companion.i("ReactNative", String.format("Fetch override profile image %s", urlOverride));
-                response = client.newCall(request).execute();
+                response = SharedHttpClient.getInstance(context).newCall(request).execute();
             } else {
-                DatabaseHelper dbHelper = DatabaseHelper.Companion.getInstance();
-                if (dbHelper != null) {
-                    WMDatabase db = getDatabaseForServer(dbHelper, context, serverUrl);
-                    if (db != null) {
-                        lastUpdateAt = getLastPictureUpdate(db, userId);
-                        if (lastUpdateAt == null) {
-                            lastUpdateAt = 0.0;
-                        }
-                        db.close();
-                    }
-                }
+                lastUpdateAt = getLastPictureUpdateAt(context, serverUrl, userId);
+                bitmapCache.init(context);
                 Bitmap cached = bitmapCache.bitmap(userId, lastUpdateAt, serverUrl);
                 if (cached != null) {
-                    Bitmap bitmap = cached.copy(cached.getConfig(), false);
-                    return getCircleBitmap(bitmap);
+                    // Cached avatars are already cropped and sized for the notification
+                    return cached;
                 }
 
                 bitmapCache.removeBitmap(userId, serverUrl);
@@ -623,17 +803,19 @@ public class CustomPushNotificationHelper {
             if (response.code() == 200) {
                 assert response.body() != null;
                 byte[] bytes = Objects.requireNonNull(response.body()).bytes();
-                Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                if (TextUtils.isEmpty(urlOverride) && !TextUtils.isEmpty(userId)) {
-                    bitmapCache.insertBitmap(bitmap.copy(bitmap.getConfig(), false), userId, lastUpdateAt, serverUrl);
+                Bitmap avatar = decodeAvatar(context, bytes);
+                if (avatar != null && TextUtils.isEmpty(urlOverride) && !TextUtils.isEmpty(userId)) {
+                    bitmapCache.insertBitmap(avatar, userId, lastUpdateAt, serverUrl);
                 }
-                return getCircleBitmap(bitmap);
+                return avatar;
             }
 
             return null;
         } catch (Exception e) {
             e.printStackTrace();
             return null;
+        } finally {
+            PushMetrics.record(PushMetrics.Stage.AVATAR, start);
         }
     }
 }
@@ -3,6 +3,7 @@ package com.mattermost.helpers
 import android.content.Context
 import android.database.Cursor
 import android.net.Uri
+import android.os.SystemClock
 import com.facebook.react.bridge.WritableMap
 
 import com.nozbe.watermelondb.WMDatabase
@@ -17,14 +18,25 @@ typealias QueryArgs = Array<Any?>
 class DatabaseHelper {
     var defaultDatabase: WMDatabase? = null
 
+    // Values read from the Servers and Global tables of app.db on every push, they are kept
+    // until the database reports a commit through its data_version / total_changes stamp. The
+    // stamp is checked once when a push starts and otherwise when the last check is too old
+    private val lookupCache = HashMap<String, String>()
+    private var lookupStamp: String? = null
+    private var lookupCheckedAt = 0L
+
     val onlyServerUrl: String?
         get() {
             try {
-                val query = "SELECT url FROM Servers WHERE last_active_at != 0 AND identifier != ''"
-                defaultDatabase!!.rawQuery(query).use { cursor ->
-                    if (cursor.count == 1) {
-                        cursor.moveToFirst()
-                        return cursor.getString(0)
+                return cachedLookup("onlyServerUrl") {
+                    val query = "SELECT url FROM Servers WHERE last_active_at != 0 AND identifier != ''"
+                    defaultDatabase!!.rawQuery(query).use { cursor ->
+                        if (cursor.count == 1) {
+                            cursor.moveToFirst()
+                            cursor.getString(0)
+                        } else {
+                            null
+                        }
                     }
                 }
             } catch (e: Exception) {
@@ -46,7 +58,75 @@ class DatabaseHelper {
         defaultDatabase = WMDatabase.getInstance(databasePath, context)
     }
 
-    internal fun JSONObject.toMap(): Map<String, Any?> = keys().asSequence().associateWith { it ->
+    /**
+     * Returns the cached value for [key] or runs [query] and caches its result. Missing values are
+     * not cached so a row written right after a miss is picked up, exceptions thrown by [query]
+     * are propagated.
+     */
+    internal fun cachedLookup(key: String, query: () -> String?): String? {
+        synchronized(lookupCache) {
+            if (SystemClock.elapsedRealtime() - lookupCheckedAt > LOOKUP_CHECK_INTERVAL_MS) {
+                validateLookupCache()
+            }
+            lookupCache[key]?.let { return it }
+        }
+
+        val value = query()
+        synchronized(lookupCache) {
+            if (lookupStamp != null && value != null) {
+                lookupCache[key] = value
+            }
+        }
+        return value
+    }
+
+    /**
+     * Drops the cached values when app.db changed since they were read. Called when a push starts,
+     * the lookups of the push then cost a map read each instead of a query.
+     */
+    fun refreshLookupCache() {
+        synchronized(lookupCache) {
+            validateLookupCache()
+        }
+    }
+
+    fun invalidateLookupCache() {
+        synchronized(lookupCache) {
+            lookupCache.clear()
+            lookupStamp = null
+            lookupCheckedAt = 0L
+        }
+    }
+
+    // The stamp is two queries, checking it for every lookup costs more than the lookup itself
+    private fun validateLookupCache() {
+        val stamp = try {
+            queryLookupStamp()
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+
+        if (stamp == null || stamp != lookupStamp) {
+            lookupCache.clear()
+        }
+        lookupStamp = stamp
+        lookupCheckedAt = if (stamp != null) SystemClock.elapsedRealtime() else 0L
+    }
+
+    private fun queryLookupStamp(): String? {
+        val db = defaultDatabase ?: return null
+        // data_version changes when another connection commits, total_changes when this one does
+        val dataVersion = db.rawQuery("PRAGMA data_version").use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else return null
+        }
+        val totalChanges = db.rawQuery("SELECT total_changes()").use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else return null
+        }
+        return "$dataVersion-$totalChanges"
+    }
+
+    internal fun JSONObject.toMap(): Map<String, Any?> = keyNames().associateWith { it ->
         when (val value = this[it])
         {
             is JSONArray ->
@@ -67,6 +147,9 @@ class DatabaseHelper {
     }
 
     companion object {
+        // Callers outside a push, like the write queue, see a commit made by the app after at most this long
+        private const val LOOKUP_CHECK_INTERVAL_MS = 1_000L
+
         var instance: DatabaseHelper? = null
             get() {
                 if (field == null) {
@@ -0,0 +1,350 @@
+package com.mattermost.helpers
+
+import android.content.Context
+import com.facebook.react.bridge.ReadableMap
+import com.mattermost.helpers.database_extension.decodePostsPage
+import com.mattermost.helpers.database_extension.getDatabaseForServer
+import com.mattermost.helpers.database_extension.mergePostsPages
+import com.mattermost.helpers.database_extension.releaseDatabaseForServer
+import com.mattermost.helpers.database_extension.writeNotificationData
+import com.mattermost.rnutils.helpers.PushMetrics
+import com.mattermost.turbolog.TurboLog
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.json.JSONObject
+import org.json.JSONTokener
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Write-behind queue for the notification data stored by the native layer while React is not running.
+ *
+ * Payloads for the same channel (or thread) are merged by entity id and every server database is
+ * written in a single transaction [FLUSH_DELAY_MS] after the first payload of a burst, or as soon as
+ * [flushAll] is called before the app opens the databases. Each payload is journaled to a file before
+ * being queued and the file is only removed once its data is in the database, journaled payloads left
+ * behind by a process kill are replayed the next time the queue is used. The journal is not synced,
+ * the page cache keeps it through a process kill but a power loss can drop the payloads of the last
+ * seconds, which the app fetches again when it syncs the server. The posts of a payload are kept as
+ * the JSON text they are journaled as and only decoded, straight into rows, when written.
+ *
+ * A payload that fails is retried by the next flush without holding back the others of the server,
+ * the attempts are counted in its journal name and after [MAX_ATTEMPTS] its journal is set aside
+ * next to the queue instead of being replayed.
+ */
+object DatabaseWriteQueue {
+    private const val FLUSH_DELAY_MS = 500L
+    private const val JOURNAL_DIR = "push_write_queue"
+    private const val JOURNAL_EXTENSION = ".json"
+    private const val MAX_ATTEMPTS = 3
+    private val ATTEMPTS_SUFFIX = Regex("""\.a(\d+)\.json$""")
+
+    private class PendingWrite(val teamId: String?, val channelId: String?, val receivingThreads: Boolean, val data: JSONObject, posts: String?) {
+        // The posts of each merged payload as the JSON text they were journaled as, decoded when written
+        val posts = ArrayList<String>().apply { posts?.let { add(it) } }
+        val journal = ArrayList<File>()
+        var attempts = 0
+    }
+
+    private class ServerQueue {
+        val pending = LinkedHashMap<String, PendingWrite>()
+        var flushJob: Job? = null
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val queues = HashMap<String, ServerQueue>()
+    private val flushLocks = StripedMutex()
+    private val flushing = HashSet<String>()
+    @Volatile
+    private var allFlushed: Job? = null
+    private val sequence = AtomicLong()
+    private var appContext: Context? = null
+    private var journalDir: File? = null
+
+    fun init(context: Context) {
+        val replay = synchronized(queues) {
+            if (appContext != null) {
+                return
+            }
+            appContext = context.applicationContext
+            val dir = File(context.filesDir, JOURNAL_DIR)
+            if (dir.exists() || dir.mkdirs()) {
+                journalDir = dir
+            }
+            // journals set aside after failing too many times do not end with the extension
+            journalDir?.listFiles { _, name -> name.endsWith(JOURNAL_EXTENSION) }?.sortedBy { it.name }
+        }
+
+        replay?.forEach { file ->
+            try {
+                val (entry, posts) = readJournal(file.readText())
+                val serverUrl = entry.getString("server_url")
+                val data = entry.getJSONObject("data")
+                val write = PendingWrite(
+                        entry.optString("team_id").ifEmpty { null },
+                        entry.optString("channel_id").ifEmpty { null },
+                        entry.optBoolean("receiving_threads"),
+                        data,
+                        // journals written by earlier versions keep the posts inside the data
+                        posts ?: (data.remove("posts") as? JSONObject)?.toString()
+                )
+                write.attempts = ATTEMPTS_SUFFIX.find(file.name)?.groupValues?.get(1)?.toInt() ?: 0
+                queue(serverUrl, write, file)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                file.delete()
+            }
+        }
+    }
+
+    /**
+     * Queues [data] and the posts response [posts] to be written to the database of [serverUrl], returns
+     * false when the payload could not be journaled and has to be written directly by the caller.
+     */
+    fun enqueue(context: Context, serverUrl: String, data: ReadableMap, posts: String?, teamId: String?, channelId: String?, receivingThreads: Boolean): Boolean {
+        init(context)
+        val dir = journalDir ?: return false
+
+        return try {
+            // The posts are journaled as the server sent them and decoded into rows when written
+            val json = ReadableMapUtils.toJSONObject(data)
+            val entry = JSONObject()
+                    .put("server_url", serverUrl)
+                    .put("team_id", teamId ?: "")
+                    .put("channel_id", channelId ?: "")
+                    .put("receiving_threads", receivingThreads)
+                    .put("data", json)
+
+            val text = StringBuilder(entry.toString())
+            if (posts != null) {
+                text.setLength(text.length - 1)
+                text.append(",\"posts\":").append(posts).append('}')
+            }
+
+            // The file is not synced, the page cache already keeps it when the process is killed
+            val file = File(dir, "${System.currentTimeMillis()}-${sequence.incrementAndGet()}$JOURNAL_EXTENSION")
+            file.writeText(text.toString())
+
+            queue(serverUrl, PendingWrite(teamId, channelId, receivingThreads, json, posts), file)
+            true
+        } catch (e: Exception) {
+            e.printStackTrace()
+            false
+        }
+    }
+
+    suspend fun flush(serverUrl: String) {
+        val context = appContext ?: return
+        flushLocks.withLock(serverUrl) {
+            val writes = synchronized(queues) {
+                // a scheduled flush that finds the queue already gone simply does nothing
+                val pending = queues.remove(serverUrl)?.pending?.values?.toList() ?: return
+                flushing.add(serverUrl)
+                pending
+            }
+
+            try {
+                store(context, serverUrl, writes)
+            } finally {
+                synchronized(queues) {
+                    flushing.remove(serverUrl)
+                }
+            }
+        }
+    }
+
+    private fun store(context: Context, serverUrl: String, writes: List<PendingWrite>) {
+        if (writes.isEmpty()) {
+            return
+        }
+
+        val dbHelper = DatabaseHelper.instance?.also { it.init(context) }
+        if (dbHelper == null) {
+            requeue(serverUrl, writes)
+            return
+        }
+        val db = dbHelper.getDatabaseForServer(context, serverUrl)
+        if (db == null) {
+            // the server was removed, there is nowhere to write its data
+            writes.forEach { write -> write.journal.forEach { it.delete() } }
+            return
+        }
+
+        // A payload that cannot be decoded never will be, it is set aside before the transaction
+        val prepared = writes.mapNotNull { write ->
+            try {
+                val posts = write.posts.map { decodePostsPage(it) }.reduceOrNull { pending, next -> mergePostsPages(pending, next) }
+                Triple(write, ReadableMapUtils.toWritableMap(ReadableMapUtils.toMap(write.data)), posts)
+            } catch (e: Exception) {
+                TurboLog.e("ReactNative", "Unable to decode a queued notification payload error=${e.message}")
+                setAside(write)
+                null
+            }
+        }
+
+        val failed = ArrayList<PendingWrite>()
+        try {
+            PushMetrics.trace(PushMetrics.Stage.SAVE_TO_DATABASE) {
+                db.transaction {
+                    for ((write, data, posts) in prepared) {
+                        try {
+                            dbHelper.writeNotificationData(db, data, write.teamId, write.channelId, write.receivingThreads, posts)
+                        } catch (e: Exception) {
+                            // The rows written before the error are kept, as for the errors the
+                            // handlers swallow, and the payload is written again by the next flush
+                            e.printStackTrace()
+                            failed.add(write)
+                        }
+                    }
+                }
+            }
+            prepared.forEach { (write) ->
+                if (write !in failed) {
+                    write.journal.forEach { it.delete() }
+                }
+            }
+            TurboLog.i("ReactNative", "Stored ${prepared.size - failed.size} queued notification payloads for server=$serverUrl")
+        } catch (e: Exception) {
+            // the whole transaction was rolled back, every payload stays queued
+            e.printStackTrace()
+            TurboLog.e("ReactNative", "Error storing queued notification payloads error=${e.message}")
+            failed.clear()
+            prepared.forEach { (write) -> failed.add(write) }
+        } finally {
+            dbHelper.releaseDatabaseForServer(serverUrl, db)
+        }
+
+        retry(serverUrl, failed)
+    }
+
+    /**
+     * Counts a failed attempt for each of [writes] and queues them again, except the ones that
+     * failed [MAX_ATTEMPTS] times which are set aside.
+     */
+    private fun retry(serverUrl: String, writes: List<PendingWrite>) {
+        val retried = writes.filter { write ->
+            write.attempts++
+            if (write.attempts >= MAX_ATTEMPTS) {
+                TurboLog.e("ReactNative", "Setting aside a notification payload for server=$serverUrl after ${write.attempts} attempts")
+                setAside(write)
+                false
+            } else {
+                // the count is kept in the journal name so a replay does not start it over
+                val journal = write.journal.map { file ->
+                    val renamed = File(file.parentFile, file.name.replace(ATTEMPTS_SUFFIX, "").removeSuffix(JOURNAL_EXTENSION) + ".a${write.attempts}$JOURNAL_EXTENSION")
+                    if (file.renameTo(renamed)) renamed else file
+                }
+                write.journal.clear()
+                write.journal.addAll(journal)
+                true
+            }
+        }
+        if (retried.isNotEmpty()) {
+            requeue(serverUrl, retried)
+        }
+    }
+
+    /**
+     * Moves the journal of [write] aside, it is kept for inspection but never replayed.
+     */
+    private fun setAside(write: PendingWrite) {
+        val now = System.currentTimeMillis()
+        write.journal.forEach { file ->
+            if (!file.renameTo(File(file.parentFile, "${file.name}.failed-$now"))) {
+                file.delete()
+            }
+        }
+    }
+
+    /**
+     * Starts writing every queued payload in the background, waiting for the flushes already running.
+     * Meant to be called before the app opens the server databases, which have to wait for it with
+     * [awaitFlushAll] so they never read stale data or compete with the queue for them.
+     */
+    fun flushAll(context: Context) {
+        init(context)
+        val job = scope.launch {
+            // servers being flushed already are flushed again, once their lock is released
+            val servers = synchronized(queues) { queues.keys + flushing }
+            servers.forEach { flush(it) }
+        }
+        allFlushed = job
+    }
+
+    /**
+     * Blocks the caller until the writes started by the last [flushAll] are done, must not be called
+     * on the main thread.
+     */
+    fun awaitFlushAll() {
+        val job = allFlushed ?: return
+        runBlocking { job.join() }
+    }
+
+    private fun queue(serverUrl: String, write: PendingWrite, journal: File) {
+        synchronized(queues) {
+            val queue = queues.getOrPut(serverUrl) { ServerQueue() }
+            write.journal.add(journal)
+            add(queue, write)
+
+            if (queue.flushJob == null) {
+                queue.flushJob = scope.launch {
+                    delay(FLUSH_DELAY_MS)
+                    flush(serverUrl)
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts back the [writes] of a flush that failed, ahead of the payloads queued since. They are
+     * written by the next flush of the server, scheduled by the next payload or [flushAll].
+     */
+    private fun requeue(serverUrl: String, writes: List<PendingWrite>) {
+        synchronized(queues) {
+            val queue = queues.getOrPut(serverUrl) { ServerQueue() }
+            val newer = queue.pending.values.toList()
+            queue.pending.clear()
+            writes.forEach { add(queue, it) }
+            newer.forEach { add(queue, it) }
+        }
+    }
+
+    private fun add(queue: ServerQueue, write: PendingWrite) {
+        val key = "${write.channelId}-${write.receivingThreads}"
+        val pending = queue.pending[key]
+        if (pending != null) {
+            mergeNotificationData(pending.data, write.data)
+            pending.posts.addAll(write.posts)
+            pending.journal.addAll(write.journal)
+            pending.attempts = maxOf(pending.attempts, write.attempts)
+        } else {
+            queue.pending[key] = write
+        }
+    }
+
+    /**
+     * Splits a journal entry into the entry without its posts and the JSON text of the posts, read
+     * as they are without parsing them.
+     */
+    private fun readJournal(text: String): Pair<JSONObject, String?> {
+        val reader = JsonSliceReader(text)
+        val entry = JSONObject()
+        var posts: String? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            if (name == "posts") {
+                posts = reader.nextRawValue()
+            } else {
+                entry.put(name, JSONTokener(reader.nextRawValue()).nextValue())
+            }
+        }
+        reader.endObject()
+        return Pair(entry, posts)
+    }
+}
@@ -0,0 +1,11 @@
+package com.mattermost.helpers
+
+import org.json.JSONObject
+
+/**
+ * The keys of the object as strings, android-json used by the JVM tests returns a raw iterator.
+ */
+internal fun JSONObject.keyNames(): List<String> {
+    val names = names() ?: return emptyList()
+    return List(names.length()) { names.getString(it) }
+}
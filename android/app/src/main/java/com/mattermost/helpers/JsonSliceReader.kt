@@ -0,0 +1,361 @@
+package com.mattermost.helpers
+
+import org.json.JSONException
+
+/**
+ * Pull reader over a JSON document that decodes values as it goes without building a tree, and can
+ * return any value as the raw slice of the document it spans so nested objects that are stored as
+ * text are never parsed and serialized again.
+ */
+class JsonSliceReader(private val json: String) {
+    enum class Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private var pos = 0
+
+    // Whether each open container is an object, innermost last
+    private val inObject = ArrayList<Boolean>()
+
+    // Whether the next member of the innermost container needs a separating comma
+    private val needsComma = ArrayList<Boolean>()
+    private var expectingName = false
+
+    fun peek(): Token {
+        skipSeparators()
+        if (pos >= json.length) {
+            return Token.END_DOCUMENT
+        }
+        return when (json[pos]) {
+            '{' -> Token.BEGIN_OBJECT
+            '}' -> Token.END_OBJECT
+            '[' -> Token.BEGIN_ARRAY
+            ']' -> Token.END_ARRAY
+            '"' -> if (expectingName) Token.NAME else Token.STRING
+            't', 'f' -> Token.BOOLEAN
+            'n' -> Token.NULL
+            else -> Token.NUMBER
+        }
+    }
+
+    fun hasNext(): Boolean {
+        val token = peek()
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT
+    }
+
+    fun beginObject() {
+        expect(Token.BEGIN_OBJECT)
+        pos++
+        inObject.add(true)
+        needsComma.add(false)
+        expectingName = true
+    }
+
+    fun endObject() {
+        expect(Token.END_OBJECT)
+        pos++
+        endValue()
+    }
+
+    fun beginArray() {
+        expect(Token.BEGIN_ARRAY)
+        pos++
+        inObject.add(false)
+        needsComma.add(false)
+        expectingName = false
+    }
+
+    fun endArray() {
+        expect(Token.END_ARRAY)
+        pos++
+        endValue()
+    }
+
+    fun nextName(): String {
+        expect(Token.NAME)
+        val name = readName()
+        skipWhitespace()
+        if (pos >= json.length || json[pos] != ':') {
+            throw syntaxError("Expected ':'")
+        }
+        pos++
+        expectingName = false
+        return name
+    }
+
+    private fun skipName() {
+        expect(Token.NAME)
+        skipString()
+        skipWhitespace()
+        if (pos >= json.length || json[pos] != ':') {
+            throw syntaxError("Expected ':'")
+        }
+        pos++
+        expectingName = false
+    }
+
+    fun nextString(): String {
+        val value = when (peek()) {
+            Token.STRING -> readString()
+            Token.NUMBER, Token.BOOLEAN -> readLiteral()
+            else -> throw syntaxError("Expected a string")
+        }
+        valueRead()
+        return value
+    }
+
+    fun nextDouble(): Double {
+        expect(Token.NUMBER)
+        readInteger()?.let {
+            valueRead()
+            return it.toDouble()
+        }
+
+        val literal = readLiteral()
+        valueRead()
+        return try {
+            literal.toDouble()
+        } catch (e: NumberFormatException) {
+            throw syntaxError("Invalid number $literal")
+        }
+    }
+
+    fun nextBoolean(): Boolean {
+        expect(Token.BOOLEAN)
+        val literal = readLiteral()
+        valueRead()
+        return when (literal) {
+            "true" -> true
+            "false" -> false
+            else -> throw syntaxError("Invalid boolean $literal")
+        }
+    }
+
+    fun nextNull() {
+        expect(Token.NULL)
+        val literal = readLiteral()
+        if (literal != "null") {
+            throw syntaxError("Invalid literal $literal")
+        }
+        valueRead()
+    }
+
+    /**
+     * Returns the next value exactly as it appears in the document.
+     */
+    fun nextRawValue(): String {
+        skipSeparators()
+        val start = pos
+        skipValue()
+        return json.substring(start, pos)
+    }
+
+    /**
+     * Appends the next value to [builder] exactly as it appears in the document.
+     */
+    fun appendRawValue(builder: StringBuilder) {
+        skipSeparators()
+        val start = pos
+        skipValue()
+        builder.append(json, start, pos)
+    }
+
+    fun skipValue() {
+        when (peek()) {
+            Token.BEGIN_OBJECT -> {
+                beginObject()
+                while (hasNext()) {
+                    skipName()
+                    skipValue()
+                }
+                endObject()
+            }
+            Token.BEGIN_ARRAY -> {
+                beginArray()
+                while (hasNext()) {
+                    skipValue()
+                }
+                endArray()
+            }
+            Token.STRING -> {
+                skipString()
+                valueRead()
+            }
+            Token.NUMBER, Token.BOOLEAN, Token.NULL -> {
+                readLiteral()
+                valueRead()
+            }
+            else -> throw syntaxError("Expected a value")
+        }
+    }
+
+    private fun endValue() {
+        inObject.removeAt(inObject.size - 1)
+        needsComma.removeAt(needsComma.size - 1)
+        valueRead()
+    }
+
+    private fun valueRead() {
+        if (needsComma.isNotEmpty()) {
+            needsComma[needsComma.size - 1] = true
+            // the next member of an object starts with its name
+            expectingName = inObject[inObject.size - 1]
+        }
+    }
+
+    private fun skipSeparators() {
+        skipWhitespace()
+        if (pos < json.length && json[pos] == ',' && needsComma.lastOrNull() == true) {
+            pos++
+            needsComma[needsComma.size - 1] = false
+            skipWhitespace()
+        }
+    }
+
+    private fun skipWhitespace() {
+        while (pos < json.length && json[pos].isWhitespace()) {
+            pos++
+        }
+    }
+
+    private fun expect(token: Token) {
+        val next = peek()
+        if (next != token) {
+            throw syntaxError("Expected $token but was $next")
+        }
+    }
+
+    private fun readLiteral(): String {
+        val start = pos
+        while (pos < json.length && json[pos] !in LITERAL_END) {
+            pos++
+        }
+        return json.substring(start, pos)
+    }
+
+    private fun skipString() {
+        pos++
+        while (pos < json.length) {
+            when (json[pos]) {
+                '\\' -> pos += 2
+                '"' -> {
+                    pos++
+                    return
+                }
+                else -> pos++
+            }
+        }
+        throw syntaxError("Unterminated string")
+    }
+
+    // The same few member names repeat for every object of a response, each is allocated only once
+    private val names = arrayOfNulls<String>(NAME_CACHE_SIZE)
+
+    private fun readName(): String {
+        var hash = 0
+        var end = pos + 1
+        while (end < json.length) {
+            val c = json[end]
+            if (c == '"') {
+                break
+            }
+            if (c == '\\') {
+                return readString()
+            }
+            hash = 31 * hash + c.code
+            end++
+        }
+
+        val start = pos + 1
+        val length = end - start
+        val slot = hash and (NAME_CACHE_SIZE - 1)
+        val cached = names[slot]
+        if (cached != null && cached.length == length && json.regionMatches(start, cached, 0, length)) {
+            pos = end + 1
+            return cached
+        }
+
+        val name = readString()
+        names[slot] = name
+        return name
+    }
+
+    /**
+     * Reads a number without fraction or exponent that fits in a long without going through a string,
+     * returns null leaving the position unchanged for any other number.
+     */
+    private fun readInteger(): Long? {
+        var i = pos
+        val negative = i < json.length && json[i] == '-'
+        if (negative) {
+            i++
+        }
+
+        val start = i
+        var value = 0L
+        while (i < json.length && json[i] in '0'..'9' && i - start < MAX_INTEGER_DIGITS) {
+            value = value * 10 + (json[i] - '0')
+            i++
+        }
+        if (i == start || (i < json.length && json[i] !in LITERAL_END)) {
+            return null
+        }
+
+        pos = i
+        return if (negative) -value else value
+    }
+
+    private fun readString(): String {
+        pos++
+        val start = pos
+        // Strings without escapes are returned as a substring of the document
+        while (pos < json.length) {
+            when (json[pos]) {
+                '"' -> return json.substring(start, pos++)
+                '\\' -> return readEscapedString(start)
+                else -> pos++
+            }
+        }
+        throw syntaxError("Unterminated string")
+    }
+
+    private fun readEscapedString(start: Int): String {
+        val builder = StringBuilder(pos - start + 16).append(json, start, pos)
+        while (pos < json.length) {
+            val c = json[pos++]
+            when (c) {
+                '"' -> return builder.toString()
+                '\\' -> {
+                    if (pos >= json.length) {
+                        break
+                    }
+                    when (val escaped = json[pos++]) {
+                        'n' -> builder.append('\n')
+                        't' -> builder.append('\t')
+                        'r' -> builder.append('\r')
+                        'b' -> builder.append('\b')
+                        'f' -> builder.append('\u000C')
+                        'u' -> {
+                            if (pos + 4 > json.length) {
+                                throw syntaxError("Invalid unicode escape")
+                            }
+                            builder.append(json.substring(pos, pos + 4).toInt(16).toChar())
+                            pos += 4
+                        }
+                        else -> builder.append(escaped)
+                    }
+                }
+                else -> builder.append(c)
+            }
+        }
+        throw syntaxError("Unterminated string")
+    }
+
+    private fun syntaxError(message: String): JSONException {
+        return JSONException("$message at character $pos")
+    }
+
+    companion object {
+        private const val LITERAL_END = ",:]} \t\r\n"
+        private const val NAME_CACHE_SIZE = 64
+        private const val MAX_INTEGER_DIGITS = 18
+    }
+}
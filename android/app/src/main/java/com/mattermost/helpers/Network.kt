@@ -0,0 +1,223 @@
+package com.mattermost.helpers
+
+import android.content.Context
+import com.facebook.react.bridge.Arguments
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReadableMap
+import com.facebook.react.bridge.WritableMap
+import com.mattermost.networkclient.ApiClientModuleImpl
+import com.mattermost.networkclient.RCTOkHttpClientFactory
+import com.mattermost.networkclient.enums.RetryTypes
+import com.mattermost.turbolog.TurboLog
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.Headers
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import okio.Buffer
+import okio.BufferedSource
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.IOException
+import java.util.concurrent.Executors
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+object Network {
+    private const val PING_ENDPOINT = "/api/v4/system/ping"
+    private val JSON = "application/json; charset=utf-8".toMediaType()
+
+    enum class Method { GET, POST }
+
+    /**
+     * Options of a native request, [body] is sent as JSON and can be a JSONObject, a JSONArray or a
+     * collection of values.
+     */
+    class RequestOptions(val headers: Map<String, String> = emptyMap(), val body: Any? = null)
+
+    class NetworkResponse(val code: Int, val body: ByteArray, val headers: Headers) {
+        val isSuccessful: Boolean
+            get() = code in 200..299
+
+        fun string() = String(body, Charsets.UTF_8)
+    }
+
+    private lateinit var clientModule: ApiClientModuleImpl
+    private val clientOptions: WritableMap = Arguments.createMap()
+    private val emptyPromise: Promise = ResolvePromise()
+    private val preconnectExecutor = Executors.newSingleThreadExecutor()
+    private val callClient: OkHttpClient by lazy { RCTOkHttpClientFactory().createNewNetworkModuleClient() }
+
+    @JvmStatic
+    fun init(context: Context) {
+        if (!::clientModule.isInitialized) {
+            clientModule = ApiClientModuleImpl(context)
+            createClientOptions()
+            ConditionalRequestCache.init(context)
+        } else {
+            TurboLog.i("ReactNative", "Network already initialized")
+        }
+    }
+
+    @JvmStatic
+    fun get(baseUrl: String, endpoint: String, options: ReadableMap?, promise: Promise) {
+        createClientIfNeeded(baseUrl)
+        clientModule.get(baseUrl, endpoint, options, promise)
+    }
+
+    @JvmStatic
+    fun post(baseUrl: String, endpoint: String, options: ReadableMap?, promise: Promise) {
+        createClientIfNeeded(baseUrl)
+        clientModule.post(baseUrl, endpoint, options, promise)
+    }
+
+    @JvmStatic
+    fun getSync(baseUrl: String, endpoint: String, options: ReadableMap?): Response {
+        createClientIfNeeded(baseUrl)
+        return clientModule.getSync(baseUrl, endpoint, options)
+    }
+
+    @JvmStatic
+    fun postSync(baseUrl: String, endpoint: String, options: ReadableMap?): Response {
+        createClientIfNeeded(baseUrl)
+        return clientModule.postSync(baseUrl, endpoint, options)
+    }
+
+    /**
+     * Sends a request and returns the status code and raw body, without going through the maps and
+     * promises of the React Native bridge. Blocks the calling thread.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun execute(method: Method, baseUrl: String, endpoint: String, options: RequestOptions? = null): NetworkResponse {
+        newCall(method, baseUrl, endpoint, options).execute().use { response ->
+            return NetworkResponse(response.code, response.body?.bytes() ?: ByteArray(0), response.headers)
+        }
+    }
+
+    /**
+     * Suspending version of [execute], cancelling the coroutine aborts the request.
+     */
+    suspend fun request(method: Method, baseUrl: String, endpoint: String, options: RequestOptions? = null): NetworkResponse {
+        return stream(method, baseUrl, endpoint, options) { response, source -> NetworkResponse(response.code, source.readByteArray(), response.headers) }
+    }
+
+    /**
+     * Sends a request and hands the response and its body to [read] as the body arrives. Cancelling the
+     * coroutine cancels the call, which aborts it at whatever stage it is in, connecting, waiting for
+     * the response or reading its body.
+     */
+    suspend fun <T> stream(method: Method, baseUrl: String, endpoint: String, options: RequestOptions? = null, read: (Response, BufferedSource) -> T): T {
+        val call = newCall(method, baseUrl, endpoint, options)
+        return suspendCancellableCoroutine { cont ->
+            cont.invokeOnCancellation { call.cancel() }
+            call.enqueue(object : Callback {
+                override fun onFailure(call: Call, e: IOException) {
+                    if (cont.isActive) {
+                        cont.resumeWithException(e)
+                    }
+                }
+
+                override fun onResponse(call: Call, response: Response) {
+                    try {
+                        val result = response.use { read(it, it.body?.source() ?: Buffer()) }
+                        cont.resume(result)
+                    } catch (e: Throwable) {
+                        if (cont.isActive) {
+                            cont.resumeWithException(e)
+                        }
+                    }
+                }
+            })
+        }
+    }
+
+    /**
+     * Gets a cold process ready to talk to the server before its first request: the client for the
+     * server is created and a ping is sent in the background through the same client the native
+     * requests use, which leaves a TLS connection (HTTP/2 when the server offers it) in its pool for
+     * the push fetches to reuse instead of paying for DNS, TCP and TLS themselves.
+     */
+    @JvmStatic
+    fun preconnect(baseUrl: String) {
+        val url = baseUrl.toHttpUrlOrNull() ?: return
+        if (!::clientModule.isInitialized || clientModule.hasClientFor(url)) {
+            return
+        }
+
+        preconnectExecutor.execute {
+            try {
+                newCall(Method.GET, baseUrl, PING_ENDPOINT, null).execute().close()
+            } catch (e: Exception) {
+                // the fetches connect on their own
+                TurboLog.w("ReactNative", "Preconnect to ${url.host} failed ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * The native requests are sent as calls of their own so they can be cancelled, through the client
+     * React Native uses, whose interceptor applies the session and configuration of the server client.
+     */
+    private fun newCall(method: Method, baseUrl: String, endpoint: String, options: RequestOptions?): Call {
+        createClientIfNeeded(baseUrl)
+        val url = "${baseUrl.trimEnd('/')}/${endpoint.trimStart('/')}".toHttpUrl()
+        val builder = Request.Builder().url(url).header("X-Requested-With", "XMLHttpRequest")
+        options?.headers?.forEach { (key, value) -> builder.header(key, value) }
+        when (method) {
+            Method.GET -> builder.get()
+            Method.POST -> builder.post(options?.jsonBody() ?: "".toRequestBody(JSON))
+        }
+        return callClient.newCall(builder.build())
+    }
+
+    private fun RequestOptions.jsonBody(): RequestBody? {
+        val json = when (body) {
+            null -> return null
+            is JSONObject, is JSONArray -> body.toString()
+            is Collection<*> -> JSONArray(body).toString()
+            else -> throw IllegalArgumentException("Unsupported request body ${body.javaClass.name}")
+        }
+        return json.toRequestBody(JSON)
+    }
+
+    private fun createClientOptions() {
+        val headers = Arguments.createMap()
+        headers.putString("X-Requested-With", "XMLHttpRequest")
+        clientOptions.putMap("headers", headers)
+
+        val retryPolicyConfiguration = Arguments.createMap()
+        retryPolicyConfiguration.putString("type", RetryTypes.EXPONENTIAL_RETRY.type)
+        retryPolicyConfiguration.putDouble("retryLimit", 2.0)
+        retryPolicyConfiguration.putDouble("exponentialBackoffBase", 2.0)
+        retryPolicyConfiguration.putDouble("exponentialBackoffScale", 0.5)
+        clientOptions.putMap("retryPolicyConfiguration", retryPolicyConfiguration)
+
+        val requestAdapterConfiguration = Arguments.createMap()
+        requestAdapterConfiguration.putString("bearerAuthTokenResponseHeader", "token")
+        clientOptions.putMap("requestAdapterConfiguration", requestAdapterConfiguration)
+
+        val sessionConfiguration = Arguments.createMap()
+        sessionConfiguration.putInt("httpMaximumConnectionsPerHost", 10)
+        sessionConfiguration.putDouble("timeoutIntervalForRequest", 30000.0)
+        sessionConfiguration.putDouble("timeoutIntervalForResource", 30000.0)
+        clientOptions.putMap("sessionConfiguration", sessionConfiguration)
+    }
+
+    @Synchronized
+    private fun createClientIfNeeded(baseUrl: String) {
+        val url: HttpUrl? = baseUrl.toHttpUrlOrNull()
+        if (url != null && !clientModule.hasClientFor(url)) {
+            clientModule.createClientFor(baseUrl, clientOptions, emptyPromise)
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.mattermost.helpers
+
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * Folds [next] into [pending], two notification payloads waiting to be written for the same channel
+ * or thread, so both can be stored with a single call to saveToDatabase.
+ *
+ * Entities are merged by id and the values in [next] win: posts by their key in the posts map,
+ * users, threads and category channels by their id. Any other entry (team, channel, categories...)
+ * is replaced as a whole. Both payloads are fetched from the same database state, so the post
+ * order of the result is the union of both orders sorted from newest to oldest. The channel is
+ * only left unchanged when neither payload changed it.
+ */
+internal fun mergeNotificationData(pending: JSONObject, next: JSONObject) {
+    val channelUnchanged = pending.optBoolean(CHANNEL_UNCHANGED) && next.optBoolean(CHANNEL_UNCHANGED)
+    for (key in next.keyNames()) {
+        when (key) {
+            "posts" -> {
+                val posts = next.optJSONObject(key)
+                val pendingPosts = pending.optJSONObject(key)
+                pending.put(key, if (posts != null && pendingPosts != null) mergePosts(pendingPosts, posts) else next.get(key))
+            }
+            "users", "threads", "categoryChannels" -> {
+                val items = next.optJSONArray(key)
+                val pendingItems = pending.optJSONArray(key)
+                pending.put(key, if (items != null && pendingItems != null) mergeById(pendingItems, items) else next.get(key))
+            }
+            else -> pending.put(key, next.get(key))
+        }
+    }
+
+    if (channelUnchanged) {
+        pending.put(CHANNEL_UNCHANGED, true)
+    } else {
+        pending.remove(CHANNEL_UNCHANGED)
+    }
+}
+
+private const val CHANNEL_UNCHANGED = "channelUnchanged"
+
+private fun mergePosts(pending: JSONObject, next: JSONObject): JSONObject {
+    val result = JSONObject()
+    for (key in pending.keyNames()) {
+        result.put(key, pending.get(key))
+    }
+    for (key in next.keyNames()) {
+        if (key != "posts" && key != "order") {
+            result.put(key, next.get(key))
+        }
+    }
+
+    val posts = JSONObject()
+    pending.optJSONObject("posts")?.let { copyEntries(it, posts) }
+    next.optJSONObject("posts")?.let { copyEntries(it, posts) }
+    result.put("posts", posts)
+
+    val pendingOrder = pending.optJSONArray("order")
+    val nextOrder = next.optJSONArray("order")
+    if (pendingOrder != null || nextOrder != null) {
+        val ids = LinkedHashSet<String>()
+        nextOrder?.let { for (i in 0 until it.length()) ids.add(it.getString(i)) }
+        pendingOrder?.let { for (i in 0 until it.length()) ids.add(it.getString(i)) }
+        val sorted = ids.sortedByDescending { posts.optJSONObject(it)?.optDouble("create_at", 0.0) ?: 0.0 }
+        result.put("order", JSONArray(sorted))
+
+        // The previous post id belongs to whichever payload reaches further back
+        val oldest = sorted.lastOrNull()
+        val pendingOldest = pendingOrder?.let { if (it.length() > 0) it.getString(it.length() - 1) else null }
+        if (oldest != null && oldest == pendingOldest && pending.has("prev_post_id")) {
+            result.put("prev_post_id", pending.get("prev_post_id"))
+        }
+    }
+
+    return result
+}
+
+private fun mergeById(pending: JSONArray, next: JSONArray): JSONArray {
+    val byId = LinkedHashMap<String, Any>()
+    val withoutId = ArrayList<Any>()
+    for (items in arrayOf(pending, next)) {
+        for (i in 0 until items.length()) {
+            val item = items.get(i)
+            val id = (item as? JSONObject)?.optString("id")
+            if (id.isNullOrEmpty()) {
+                withoutId.add(item)
+            } else {
+                byId[id] = item
+            }
+        }
+    }
+
+    val result = JSONArray()
+    byId.values.forEach { result.put(it) }
+    withoutId.forEach { result.put(it) }
+    return result
+}
+
+private fun copyEntries(from: JSONObject, to: JSONObject) {
+    for (key in from.keyNames()) {
+        to.put(key, from.get(key))
+    }
+}
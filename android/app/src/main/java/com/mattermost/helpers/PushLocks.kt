@@ -0,0 +1,29 @@
+package com.mattermost.helpers
+
+/**
+ * The locks taken while a push notification is processed.
+ *
+ * Pushes for the same channel, including replies and threads of that channel, run one at a time in
+ * the order they arrived from the first fetch until their data is written or queued, as they all
+ * fetch and store the same channel and member. Writes to a server database are serialized
+ * separately so pushes for unrelated channels can fetch in parallel.
+ */
+class PushLocks(stripes: Int = StripedMutex.DEFAULT_STRIPES) {
+    @PublishedApi
+    internal val channelLocks = StripedMutex(stripes)
+
+    @PublishedApi
+    internal val serverLocks = StripedMutex(stripes)
+
+    suspend inline fun <T> withChannelLock(serverUrl: String, channelId: String?, action: () -> T): T {
+        return channelLocks.withLock(channelKey(serverUrl, channelId), action)
+    }
+
+    suspend inline fun <T> withServerLock(serverUrl: String, action: () -> T): T {
+        return serverLocks.withLock(serverUrl, action)
+    }
+
+    companion object {
+        fun channelKey(serverUrl: String, channelId: String?) = "$serverUrl-$channelId"
+    }
+}
@@ -5,8 +5,11 @@ import android.os.Bundle
 import com.facebook.react.bridge.Arguments
 import com.facebook.react.bridge.ReadableArray
 import com.facebook.react.bridge.ReadableMap
+import com.facebook.react.bridge.WritableMap
+import com.mattermost.helpers.database_extension.decodePostsPage
 import com.mattermost.helpers.database_extension.getDatabaseForServer
 import com.mattermost.helpers.database_extension.isZeroPersistenceServer
+import com.mattermost.helpers.database_extension.releaseDatabaseForServer
 import com.mattermost.helpers.database_extension.saveToDatabase
 import com.mattermost.helpers.push_notification.addToDefaultCategoryIfNeeded
 import com.mattermost.helpers.push_notification.fetchMyChannel
@@ -15,17 +18,38 @@ import com.mattermost.helpers.push_notification.fetchNeededUsers
 import com.mattermost.helpers.push_notification.fetchPosts
 import com.mattermost.helpers.push_notification.fetchTeamIfNeeded
 import com.mattermost.helpers.push_notification.fetchThread
+import com.mattermost.rnutils.helpers.PushMetrics
 import com.mattermost.turbolog.TurboLog
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.withContext
 
 class PushNotificationDataHelper(private val context: Context) {
     suspend fun fetchAndStoreDataForPushNotification(initialData: Bundle, isReactInit: Boolean): Bundle? {
-        return withContext(Dispatchers.Default) {
-            PushNotificationDataRunnable.start(context, initialData, isReactInit)
+        // The first push for a channel (or thread) is fetched right away, the ones arriving while it
+        // runs share a single follow-up fetch and transaction, every push gets its own copy of the
+        // result to build its notification
+        val result = coalescer.run(coalesceKey(initialData, isReactInit)) {
+            withContext(Dispatchers.Default) {
+                PushNotificationDataRunnable.start(context, initialData, isReactInit)
+            }
         }
+
+        return result?.let { Bundle(it) }
+    }
+
+    private fun coalesceKey(initialData: Bundle, isReactInit: Boolean): String {
+        val serverUrl = initialData.getString("server_url")
+        val rootId = initialData.getString("root_id")
+        val isCRTEnabled = initialData.getString("is_crt_enabled") == "true"
+        val id = if (isCRTEnabled && !rootId.isNullOrEmpty()) rootId else initialData.getString("channel_id")
+        return "$serverUrl-$id-$isReactInit"
+    }
+
+    companion object {
+        private const val COALESCE_WINDOW_MS = 250L
+        private val coalescer = Coalescer<Bundle?>(COALESCE_WINDOW_MS)
     }
 }
 
@@ -33,12 +57,12 @@ class PushNotificationDataRunnable {
     companion object {
         internal val specialMentions = listOf("all", "here", "channel")
         private val dbHelper = DatabaseHelper.instance!!
-        private val mutex = Mutex()
+        private val locks = PushLocks()
 
         suspend fun start(context: Context, initialData: Bundle, isReactInit: Boolean): Bundle? {
-            mutex.withLock {
+            val serverUrl: String = initialData.getString("server_url") ?: return null
+            locks.withChannelLock(serverUrl, initialData.getString("channel_id")) {
                 // for more info see: https://blog.danlew.net/2020/01/28/coroutines-and-java-synchronization-dont-mix/
-                val serverUrl: String = initialData.getString("server_url") ?: return null
                 if (dbHelper.isZeroPersistenceServer(serverUrl)) {
                     TurboLog.i("ReactNative", "Skipping push notification data fetch for zero-persistence server=$serverUrl")
                     return null
@@ -59,61 +83,97 @@ class PushNotificationDataRunnable {
 
                         val receivingThreads = isCRTEnabled && !rootId.isNullOrEmpty()
                         val notificationData = Arguments.createMap()
-
-                        var channel: ReadableMap? = null
-                        var myTeam: ReadableMap? = null
-
-                        if (!teamId.isNullOrEmpty()) {
-                            val res = fetchTeamIfNeeded(db, serverUrl, teamId)
-                            res.first?.let { notificationData.putMap("team", it) }
-
-                            myTeam = res.second
-                            myTeam?.let { notificationData.putMap("myTeam", it) }
-                        }
-
-                        if (channelId != null && postId != null) {
-                            val channelRes = fetchMyChannel(db, serverUrl, channelId, isCRTEnabled)
-
-                            channel = channelRes.first
-                            channel?.let { notificationData.putMap("channel", it) }
-                            channelRes.second?.let { notificationData.putMap("myChannel", it) }
-                            val loadedProfiles = channelRes.third
-
-                            // Fetch categories if needed
-                            if (!teamId.isNullOrEmpty() && myTeam != null) {
-                                // should load all categories
-                                val res = fetchMyTeamCategories(db, serverUrl, teamId)
-                                res?.let { notificationData.putMap("categories", it) }
-                            } else if (channel != null) {
-                                // check if the channel is in the category for the team
-                                val res = addToDefaultCategoryIfNeeded(db, channel)
-                                res?.let { notificationData.putArray("categoryChannels", it) }
+                        // The posts are written from the text of the response, the map only goes back with the result
+                        var postsMap: ReadableMap? = null
+                        var postsJson: String? = null
+
+                        // Independent requests are issued concurrently, only the steps that need the
+                        // result of a previous one wait for it (categories after the team member,
+                        // users after the posts). Each stage keeps its own error handling.
+                        coroutineScope {
+                            val teamRes = async {
+                                if (!teamId.isNullOrEmpty()) {
+                                    PushMetrics.trace(PushMetrics.Stage.FETCH_TEAM) { fetchTeamIfNeeded(db, serverUrl, teamId) }
+                                } else {
+                                    null
+                                }
                             }
 
-                            val postData = fetchPosts(db, serverUrl, channelId, isCRTEnabled, rootId, loadedProfiles)
-                            postData?.getMap("posts")?.let { notificationData.putMap("posts", it) }
+                            if (channelId != null && postId != null) {
+                                val channelRes = async {
+                                    PushMetrics.trace(PushMetrics.Stage.FETCH_MY_CHANNEL) { fetchMyChannel(db, serverUrl, channelId, isCRTEnabled) }
+                                }
+                                val loadedProfiles = async { channelRes.await().profiles }
+                                val postData = async {
+                                    PushMetrics.trace(PushMetrics.Stage.FETCH_POSTS) { fetchPosts(db, serverUrl, channelId, isCRTEnabled, rootId, loadedProfiles) }
+                                }
+                                val notificationThread = async {
+                                    if (isCRTEnabled && !rootId.isNullOrEmpty()) {
+                                        PushMetrics.trace(PushMetrics.Stage.FETCH_THREAD) { fetchThread(db, serverUrl, rootId, teamId) }
+                                    } else {
+                                        null
+                                    }
+                                }
+                                val categories = async {
+                                    val myTeam = teamRes.await()?.second
+                                    if (!teamId.isNullOrEmpty() && myTeam != null) {
+                                        // should load all categories
+                                        Pair(PushMetrics.trace(PushMetrics.Stage.FETCH_CATEGORIES) { fetchMyTeamCategories(db, serverUrl, teamId) }, null)
+                                    } else {
+                                        // check if the channel is in the category for the team
+                                        val channel = channelRes.await().channel
+                                        Pair(null, channel?.let { addToDefaultCategoryIfNeeded(db, it) })
+                                    }
+                                }
+                                val users = async {
+                                    val profiles = loadedProfiles.await()
+                                    val posts = postData.await()?.data
+                                    PushMetrics.trace(PushMetrics.Stage.FETCH_USERS) { fetchNeededUsers(serverUrl, profiles, posts) }
+                                }
 
-                            var notificationThread: ReadableMap? = null
-                            if (isCRTEnabled && !rootId.isNullOrEmpty()) {
-                                notificationThread = fetchThread(db, serverUrl, rootId, teamId)
-                            }
+                                teamRes.await()?.let { putTeam(notificationData, it) }
 
-                            getThreadList(notificationThread, postData?.getArray("threads"))?.let {
-                                val threadsArray = Arguments.createArray()
-                                for (item in it) {
-                                    threadsArray.pushMap(item)
+                                val (channel, myChannel, _, channelUnchanged) = channelRes.await()
+                                channel?.let { notificationData.putMap("channel", it) }
+                                if (channelUnchanged) {
+                                    notificationData.putBoolean("channelUnchanged", true)
+                                }
+                                myChannel?.let { notificationData.putMap("myChannel", it) }
+
+                                val (teamCategories, categoryChannels) = categories.await()
+                                teamCategories?.let { notificationData.putMap("categories", it) }
+                                categoryChannels?.let { notificationData.putArray("categoryChannels", it) }
+
+                                val posts = postData.await()
+                                postsMap = posts?.data?.getMap("posts")
+                                postsJson = posts?.postsJson
+
+                                getThreadList(notificationThread.await(), posts?.data?.getArray("threads"))?.let {
+                                    val threadsArray = Arguments.createArray()
+                                    for (item in it) {
+                                        threadsArray.pushMap(item)
+                                    }
+                                    notificationData.putArray("threads", threadsArray)
                                 }
-                                notificationData.putArray("threads", threadsArray)
-                            }
 
-                            val userList = fetchNeededUsers(serverUrl, loadedProfiles, postData)
-                            notificationData.putArray("users", ReadableArrayUtils.toWritableArray(userList.toArray()))
+                                notificationData.putArray("users", ReadableArrayUtils.toWritableArray(users.await().toArray()))
+                            } else {
+                                teamRes.await()?.let { putTeam(notificationData, it) }
+                            }
                         }
 
-                        result = Arguments.toBundle(notificationData)
+                        result = Arguments.toBundle(notificationData)?.apply {
+                            postsMap?.let { putBundle("posts", Arguments.toBundle(it)) }
+                        }
 
-                        if (!isReactInit) {
-                            dbHelper.saveToDatabase(db, notificationData, teamId, channelId, receivingThreads)
+                        // Writes are deferred and merged with the rest of the burst, the payload is only
+                        // written right away when it could not be queued
+                        if (!isReactInit && !DatabaseWriteQueue.enqueue(context, serverUrl, notificationData, postsJson, teamId, channelId, receivingThreads)) {
+                            locks.withServerLock(serverUrl) {
+                                PushMetrics.trace(PushMetrics.Stage.SAVE_TO_DATABASE) {
+                                    dbHelper.saveToDatabase(db, notificationData, teamId, channelId, receivingThreads, postsJson?.let { decodePostsPage(it) })
+                                }
+                            }
                         }
 
                         TurboLog.i("ReactNative", "Done processing push notification=$serverUrl for channel=$channelId and ack=$ackId")
@@ -123,7 +183,7 @@ class PushNotificationDataRunnable {
                     val eMessage = e.message ?: "Error with no message"
                     TurboLog.e("ReactNative", "Error processing push notification error=$eMessage")
                 } finally {
-                    db?.close()
+                    db?.let { dbHelper.releaseDatabaseForServer(serverUrl, it) }
                     TurboLog.i("ReactNative", "DONE fetching notification data")
                 }
 
@@ -131,6 +191,11 @@ class PushNotificationDataRunnable {
             }
         }
 
+        private fun putTeam(notificationData: WritableMap, res: Pair<ReadableMap?, ReadableMap?>) {
+            res.first?.let { notificationData.putMap("team", it) }
+            res.second?.let { notificationData.putMap("myTeam", it) }
+        }
+
         private fun getThreadList(notificationThread: ReadableMap?, threads: ReadableArray?): ArrayList<ReadableMap>? {
             threads?.let {
                 val threadsArray = ArrayList<ReadableMap>()
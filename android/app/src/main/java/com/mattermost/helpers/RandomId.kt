@@ -1,11 +1,34 @@
 package com.mattermost.helpers
 
+import java.security.SecureRandom
 import java.util.UUID
 
 class RandomId {
     companion object {
+        private val random = SecureRandom()
+
         fun generate(): String {
             return UUID.randomUUID().toString()
         }
+
+        /**
+         * Generates [count] random (version 4) UUIDs reading the random bytes for all of them at once.
+         */
+        fun generate(count: Int): List<String> {
+            val bytes = ByteArray(count * 16)
+            random.nextBytes(bytes)
+            return List(count) { i ->
+                var msb = 0L
+                var lsb = 0L
+                for (j in 0 until 8) {
+                    msb = (msb shl 8) or (bytes[i * 16 + j].toLong() and 0xff)
+                    lsb = (lsb shl 8) or (bytes[i * 16 + 8 + j].toLong() and 0xff)
+                }
+                // set the version to 4 and the IETF variant like UUID.randomUUID does
+                msb = (msb and -0xf001L) or 0x4000L
+                lsb = (lsb and 0x3fffffffffffffffL) or Long.MIN_VALUE
+                UUID(msb, lsb).toString()
+            }
+        }
     }
 }
@@ -98,12 +98,14 @@ public class ReadableArrayUtils {
         WritableArray writableArray = Arguments.createArray();
 
         for (Object value : array) {
-            if (value == null) {
+            if (value == null || value == JSONObject.NULL) {
                 writableArray.pushNull();
             } else if (value instanceof Boolean) {
                 writableArray.pushBoolean((Boolean) value);
             } else if (value instanceof Double) {
                 writableArray.pushDouble((Double) value);
+            } else if (value instanceof Long) {
+                writableArray.pushDouble(((Long) value).doubleValue());
             } else if (value instanceof Integer) {
                 writableArray.pushInt((Integer) value);
             } else if (value instanceof String) {
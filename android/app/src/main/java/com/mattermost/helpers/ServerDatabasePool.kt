@@ -0,0 +1,121 @@
+package com.mattermost.helpers
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import com.mattermost.rnutils.helpers.PushMetrics
+import com.nozbe.watermelondb.WMDatabase
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Process wide cache of the server database handles used by the native push notification code.
+ *
+ * Handles are reference counted and kept open while in use, once the last reference is released
+ * they stay open for [IDLE_TIMEOUT_MS] so a burst of notifications reuses the same connection.
+ * A handle is discarded when the database path stored for the server changes or the server is removed.
+ */
+object ServerDatabasePool {
+    private const val IDLE_TIMEOUT_MS = 30_000L
+
+    private class Entry(val path: String, val db: WMDatabase) {
+        var refCount = 0
+        var invalidated = false
+        var idleClose: ScheduledFuture<*>? = null
+    }
+
+    private val entries = HashMap<String, Entry>()
+    private val retired = ArrayList<Entry>()
+    private val scheduler = Executors.newSingleThreadScheduledExecutor { r ->
+        Thread(r, "ServerDatabasePool").apply { isDaemon = true }
+    }
+
+    /**
+     * Returns an open handle for [serverUrl] located at [databasePath], every successful call
+     * must be balanced with a call to [release].
+     */
+    fun acquire(context: Context, serverUrl: String, databasePath: String): WMDatabase {
+        synchronized(entries) {
+            val entry = entries[serverUrl]
+            if (entry != null && entry.path == databasePath) {
+                entry.idleClose?.cancel(false)
+                entry.idleClose = null
+                entry.refCount++
+                PushMetrics.recordDatabaseAcquire(true)
+                return entry.db
+            }
+
+            entry?.let { discard(serverUrl, it) }
+
+            val db = WMDatabase.buildDatabase(databasePath, context, SQLiteDatabase.CREATE_IF_NECESSARY)
+            val created = Entry(databasePath, db)
+            created.refCount = 1
+            entries[serverUrl] = created
+            PushMetrics.recordDatabaseAcquire(false)
+            return db
+        }
+    }
+
+    fun release(serverUrl: String, db: WMDatabase) {
+        synchronized(entries) {
+            val entry = entries[serverUrl]
+            if (entry == null || entry.db !== db) {
+                // The handle was invalidated while in use, close it if nobody else holds it
+                closeIfUnused(db)
+                return
+            }
+
+            entry.refCount = (entry.refCount - 1).coerceAtLeast(0)
+            if (entry.refCount == 0) {
+                entry.idleClose = scheduler.schedule({ closeIdle(serverUrl, entry) }, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * Drops the cached handle for [serverUrl], it is closed as soon as it is no longer in use.
+     */
+    fun invalidate(serverUrl: String) {
+        synchronized(entries) {
+            entries[serverUrl]?.let { discard(serverUrl, it) }
+        }
+    }
+
+    private fun discard(serverUrl: String, entry: Entry) {
+        entries.remove(serverUrl)
+        entry.idleClose?.cancel(false)
+        entry.idleClose = null
+        entry.invalidated = true
+        if (entry.refCount == 0) {
+            close(entry.db)
+        } else {
+            retired.add(entry)
+        }
+    }
+
+    private fun closeIfUnused(db: WMDatabase) {
+        val entry = retired.find { it.db === db } ?: return
+        entry.refCount = (entry.refCount - 1).coerceAtLeast(0)
+        if (entry.refCount == 0) {
+            retired.remove(entry)
+            close(entry.db)
+        }
+    }
+
+    private fun closeIdle(serverUrl: String, entry: Entry) {
+        synchronized(entries) {
+            if (entries[serverUrl] === entry && entry.refCount == 0 && !entry.invalidated) {
+                entries.remove(serverUrl)
+                close(entry.db)
+            }
+        }
+    }
+
+    private fun close(db: WMDatabase) {
+        try {
+            db.close()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+}
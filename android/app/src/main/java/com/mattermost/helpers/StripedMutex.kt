@@ -0,0 +1,27 @@
+package com.mattermost.helpers
+
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * A fixed set of coroutine [Mutex]es selected by key.
+ *
+ * Work for the same key is always serialized, while work for unrelated keys runs in parallel
+ * unless both keys hash into the same stripe. Mutexes are not reentrant, so two keys that must be
+ * held at the same time should come from different [StripedMutex] instances.
+ */
+class StripedMutex(stripes: Int = DEFAULT_STRIPES) {
+    private val locks = Array(stripes) { Mutex() }
+
+    fun get(key: String): Mutex {
+        return locks[(key.hashCode() and Int.MAX_VALUE) % locks.size]
+    }
+
+    suspend inline fun <T> withLock(key: String, action: () -> T): T {
+        return get(key).withLock(action = action)
+    }
+
+    companion object {
+        const val DEFAULT_STRIPES = 16
+    }
+}
@@ -0,0 +1,41 @@
+package com.mattermost.helpers.database_extension
+
+import com.mattermost.helpers.QueryArgs
+import com.nozbe.watermelondb.WMDatabase
+
+/**
+ * Inserts [rows] into [tableName] with multi-row INSERT statements marked as created records.
+ *
+ * Rows are split so every statement stays within [MAX_QUERY_VARIABLES] bound variables, when
+ * [ignoreExisting] is set rows whose id already exists are skipped. If a statement fails its rows
+ * are inserted one by one so a single bad row does not drop the rest of the chunk.
+ */
+internal fun batchInsert(db: WMDatabase, tableName: String, columns: Array<String>, rows: List<QueryArgs>, ignoreExisting: Boolean = false) {
+    if (rows.isEmpty()) {
+        return
+    }
+
+    val verb = if (ignoreExisting) "INSERT OR IGNORE" else "INSERT"
+    val columnList = columns.joinToString(", ")
+    val placeholders = columns.joinToString(", ", "(", ", '', 'created')") { "?" }
+    val rowsPerStatement = (MAX_QUERY_VARIABLES / columns.size).coerceAtLeast(1)
+
+    for (chunk in rows.chunked(rowsPerStatement)) {
+        val values = List(chunk.size) { placeholders }.joinToString(", ")
+        try {
+            db.execute(
+                    "$verb INTO $tableName ($columnList, _changed, _status) VALUES $values",
+                    chunk.flatMap { it.asList() }.toTypedArray()
+            )
+        } catch (e: Exception) {
+            e.printStackTrace()
+            for (row in chunk) {
+                try {
+                    db.execute("$verb INTO $tableName ($columnList, _changed, _status) VALUES $placeholders", row)
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+            }
+        }
+    }
+}
@@ -37,24 +37,24 @@ internal fun handleChannel(db: WMDatabase, channel: ReadableMap) {
     }
 }
 
-internal fun DatabaseHelper.handleMyChannel(db: WMDatabase, myChannel: ReadableMap, postsData: ReadableMap?, receivingThreads: Boolean) {
+/**
+ * Returns the most recent create, update or delete time of the posts in [page].
+ */
+private fun lastFetchedAt(page: PostsPage): Double {
+    var lastFetchedAt = 0.0
+    for (post in page.posts) {
+        lastFetchedAt = maxOf(lastFetchedAt, post.createAt, post.updateAt, post.deleteAt)
+    }
+    return lastFetchedAt
+}
+
+internal fun DatabaseHelper.handleMyChannel(db: WMDatabase, myChannel: ReadableMap, posts: PostsPage?, receivingThreads: Boolean) {
     try {
         val json = ReadableMapUtils.toJSONObject(myChannel)
         val exists = myChannel.getString("id")?.let { findMyChannel(db, it) } ?: false
 
-        if (postsData != null && !receivingThreads) {
-            val posts = ReadableMapUtils.toJSONObject(postsData.getMap("posts")).toMap()
-            val postList = posts.toList()
-            val lastFetchedAt = postList.fold(0.0) { acc, next ->
-                val post = next.second as Map<*, *>
-                val createAt = post["create_at"] as Double
-                val updateAt = post["update_at"] as Double
-                val deleteAt = post["delete_at"] as Double
-                val value = maxOf(createAt, updateAt, deleteAt)
-
-                maxOf(value, acc)
-            }
-            json.put("last_fetched_at", lastFetchedAt)
+        if (posts != null && !receivingThreads) {
+            json.put("last_fetched_at", lastFetchedAt(posts))
         }
 
         if (exists) {
@@ -1,23 +1,14 @@
 package com.mattermost.helpers.database_extension
 
+import com.mattermost.helpers.QueryArgs
 import com.nozbe.watermelondb.WMDatabase
-import org.json.JSONArray
 
-internal fun insertCustomEmojis(db: WMDatabase, customEmojis: JSONArray) {
-    for (i in 0 until customEmojis.length()) {
-        try {
-            val emoji = customEmojis.getJSONObject(i)
-            if (find(db, "CustomEmoji", emoji.getString("id")) == null) {
-                db.execute(
-                        "INSERT INTO CustomEmoji (id, name, _changed, _status) VALUES (?, ?, '', 'created')",
-                        arrayOf(
-                                emoji.getString("id"),
-                                emoji.getString("name"),
-                        )
-                )
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
+internal fun insertCustomEmojis(db: WMDatabase, customEmojis: List<EmojiRecord>) {
+    val rows = ArrayList<QueryArgs>(customEmojis.size)
+    for (emoji in customEmojis) {
+        rows.add(arrayOf(emoji.id, emoji.name))
     }
+
+    // Emojis already stored are skipped by the insert itself instead of looking up each one
+    batchInsert(db, "CustomEmoji", arrayOf("id", "name"), rows, ignoreExisting = true)
 }
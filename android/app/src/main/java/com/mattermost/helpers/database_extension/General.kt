@@ -1,47 +1,60 @@
 package com.mattermost.helpers.database_extension
 
 import android.content.Context
-import android.database.sqlite.SQLiteDatabase
 import android.text.TextUtils
 import com.facebook.react.bridge.Arguments
 import com.facebook.react.bridge.ReadableMap
 import com.mattermost.helpers.DatabaseHelper
 import com.mattermost.helpers.QueryArgs
+import com.mattermost.helpers.ServerDatabasePool
 import com.mattermost.helpers.mapCursor
 import com.nozbe.watermelondb.WMDatabase
 import java.util.Arrays
 
-internal fun DatabaseHelper.saveToDatabase(db: WMDatabase, data: ReadableMap, teamId: String?, channelId: String?, receivingThreads: Boolean) {
+internal fun DatabaseHelper.saveToDatabase(
+        db: WMDatabase, data: ReadableMap, teamId: String?, channelId: String?, receivingThreads: Boolean,
+        posts: PostsPage? = data.getMap("posts")?.let { decodePostsPage(it) }
+) {
     db.transaction {
-        val posts = data.getMap("posts")
-        data.getMap("team")?.let { insertTeam(db, it) }
-        data.getMap("myTeam")?.let { insertMyTeam(db, it) }
+        writeNotificationData(db, data, teamId, channelId, receivingThreads, posts)
+    }
+}
+
+/**
+ * Stores the data fetched for a push notification, callers are responsible for running it in a transaction.
+ * [posts] is the decoded "posts" entry of [data], callers holding the raw response pass it already decoded.
+ */
+internal fun DatabaseHelper.writeNotificationData(
+        db: WMDatabase, data: ReadableMap, teamId: String?, channelId: String?, receivingThreads: Boolean,
+        posts: PostsPage? = data.getMap("posts")?.let { decodePostsPage(it) }
+) {
+    data.getMap("team")?.let { insertTeam(db, it) }
+    data.getMap("myTeam")?.let { insertMyTeam(db, it) }
+    // A channel the server reported as not modified is already stored as it is
+    if (!data.hasKey("channelUnchanged") || !data.getBoolean("channelUnchanged")) {
         data.getMap("channel")?.let { handleChannel(db, it) }
-        data.getMap("myChannel")?.let { handleMyChannel(db, it, posts, receivingThreads) }
-        data.getMap("categories")?.let { insertCategoriesWithChannels(db, it) }
-        data.getArray("categoryChannels")?.let { insertChannelToDefaultCategory(db, it) }
-        if (channelId != null) {
-            handlePosts(db, posts, channelId, receivingThreads)
-        }
-        data.getArray("threads")?.let {
-            val threadsArray = ArrayList<ReadableMap>()
-            for (i in 0 until it.size()) {
-                it.getMap(i)?.let { map -> threadsArray.add(map) }
-            }
-            handleThreads(db, threadsArray, teamId)
+    }
+    data.getMap("myChannel")?.let { handleMyChannel(db, it, posts, receivingThreads) }
+    data.getMap("categories")?.let { insertCategoriesWithChannels(db, it) }
+    data.getArray("categoryChannels")?.let { insertChannelToDefaultCategory(db, it) }
+    if (channelId != null && posts != null) {
+        handlePosts(db, posts, channelId, receivingThreads)
+    }
+    data.getArray("threads")?.let {
+        val threadsArray = ArrayList<ReadableMap>()
+        for (i in 0 until it.size()) {
+            it.getMap(i)?.let { map -> threadsArray.add(map) }
         }
-        data.getArray("users")?.let { handleUsers(db, it) }
+        handleThreads(db, threadsArray, teamId)
     }
+    data.getArray("users")?.let { handleUsers(db, it) }
 }
 
 fun DatabaseHelper.getServerUrlForIdentifier(identifier: String): String? {
     try {
-        val query = "SELECT url FROM Servers WHERE identifier=?"
-        defaultDatabase!!.rawQuery(query, arrayOf(identifier)).use { cursor ->
-            if (cursor.count == 1) {
-                cursor.moveToFirst()
-                return cursor.getString(0)
-            }
+        return cachedLookup("serverUrl:$identifier") {
+            val query = "SELECT url FROM Servers WHERE identifier=?"
+            querySingleString(defaultDatabase!!, query, arrayOf(identifier))
         }
     } catch (e: Exception) {
         e.printStackTrace()
@@ -52,13 +65,9 @@ fun DatabaseHelper.getServerUrlForIdentifier(identifier: String): String? {
 
 fun DatabaseHelper.isZeroPersistenceServer(serverUrl: String): Boolean {
     try {
-        val query = "SELECT persistence_flag FROM Servers WHERE url=?"
-        var flag: String? = null
-        defaultDatabase!!.rawQuery(query, arrayOf(serverUrl)).use { cursor ->
-            if (cursor.count == 1) {
-                cursor.moveToFirst()
-                flag = cursor.getString(0)
-            }
+        val flag = cachedLookup("persistence:$serverUrl") {
+            val query = "SELECT persistence_flag FROM Servers WHERE url=?"
+            querySingleString(defaultDatabase!!, query, arrayOf(serverUrl))
         }
         return flag == "zero-persistence"
     } catch (e: Exception) {
@@ -69,12 +78,9 @@ fun DatabaseHelper.isZeroPersistenceServer(serverUrl: String): Boolean {
 
 fun DatabaseHelper.getZeroPersistenceSigningKey(serverUrl: String): String? {
     try {
-        val query = "SELECT value FROM Global WHERE id=?"
-        defaultDatabase!!.rawQuery(query, arrayOf("pushSigningKey$serverUrl")).use { cursor ->
-            if (cursor.count == 1) {
-                cursor.moveToFirst()
-                return cursor.getString(0)
-            }
+        return cachedLookup("signingKey:$serverUrl") {
+            val query = "SELECT value FROM Global WHERE id=?"
+            querySingleString(defaultDatabase!!, query, arrayOf("pushSigningKey$serverUrl"))
         }
     } catch (e: Exception) {
         e.printStackTrace()
@@ -84,14 +90,18 @@ fun DatabaseHelper.getZeroPersistenceSigningKey(serverUrl: String): String? {
 
 fun DatabaseHelper.getDatabaseForServer(context: Context?, serverUrl: String): WMDatabase? {
     try {
-        val query = "SELECT db_path FROM Servers WHERE url=?"
-        defaultDatabase!!.rawQuery(query, arrayOf(serverUrl)).use { cursor ->
-            if (cursor.count == 1) {
-                cursor.moveToFirst()
-                val databasePath = String.format("file://%s", cursor.getString(0))
-                return WMDatabase.buildDatabase(databasePath, context!!, SQLiteDatabase.CREATE_IF_NECESSARY)
-            }
+        val dbPath = cachedLookup("dbPath:$serverUrl") {
+            val query = "SELECT db_path FROM Servers WHERE url=?"
+            querySingleString(defaultDatabase!!, query, arrayOf(serverUrl))
+        }
+        if (dbPath != null) {
+            val databasePath = String.format("file://%s", dbPath)
+            val db = ServerDatabasePool.acquire(context!!, serverUrl, databasePath)
+            checkPostIndexes(db, databasePath)
+            return db
         }
+        // the server was removed, drop any handle we may still hold for it
+        ServerDatabasePool.invalidate(serverUrl)
     } catch (e: Exception) {
         e.printStackTrace()
         // let it fall to return null
@@ -99,14 +109,15 @@ fun DatabaseHelper.getDatabaseForServer(context: Context?, serverUrl: String): W
     return null
 }
 
+fun DatabaseHelper.releaseDatabaseForServer(serverUrl: String, db: WMDatabase) {
+    ServerDatabasePool.release(serverUrl, db)
+}
+
 fun DatabaseHelper.getDeviceToken(): String? {
     try {
-        val query = "SELECT value FROM Global WHERE id=?"
-        defaultDatabase!!.rawQuery(query, arrayOf("deviceToken")).use { cursor ->
-            if (cursor.count == 1) {
-                cursor.moveToFirst()
-                return cursor.getString(0)
-            }
+        return cachedLookup("deviceToken") {
+            val query = "SELECT value FROM Global WHERE id=?"
+            querySingleString(defaultDatabase!!, query, arrayOf("deviceToken"))
         }
     } catch (e: Exception) {
         e.printStackTrace()
@@ -115,6 +126,16 @@ fun DatabaseHelper.getDeviceToken(): String? {
     return null
 }
 
+private fun querySingleString(db: WMDatabase, query: String, args: QueryArgs): String? {
+    db.rawQuery(query, args).use { cursor ->
+        if (cursor.count == 1) {
+            cursor.moveToFirst()
+            return cursor.getString(0)
+        }
+    }
+    return null
+}
+
 fun find(db: WMDatabase, tableName: String, id: String?): ReadableMap? {
     try {
         db.rawQuery(
@@ -156,17 +177,21 @@ fun findByColumns(db: WMDatabase, tableName: String, columnNames: Array<String>,
     }
 }
 
+// Older SQLite versions shipped with Android limit a statement to 999 bound variables
+internal const val MAX_QUERY_VARIABLES = 500
+
 fun queryIds(db: WMDatabase, tableName: String, ids: Array<String>): List<String> {
     val list: MutableList<String> = ArrayList()
-    val args = TextUtils.join(",", Arrays.stream(ids).map { "?" }.toArray())
     try {
-        @Suppress("UNCHECKED_CAST")
-        db.rawQuery("SELECT DISTINCT id FROM $tableName WHERE id IN ($args)", ids as Array<Any?>).use { cursor ->
-            if (cursor.count > 0) {
-                while (cursor.moveToNext()) {
+        for (chunk in ids.toList().chunked(MAX_QUERY_VARIABLES)) {
+            val args = TextUtils.join(",", chunk.map { "?" })
+            db.rawQuery("SELECT DISTINCT id FROM $tableName WHERE id IN ($args)", chunk.toTypedArray<Any?>()).use { cursor ->
+                if (cursor.count > 0) {
                     val index = cursor.getColumnIndex("id")
-                    if (index >= 0) {
-                        list.add(cursor.getString(index))
+                    while (cursor.moveToNext()) {
+                        if (index >= 0) {
+                            list.add(cursor.getString(index))
+                        }
                     }
                 }
             }
@@ -1,14 +1,26 @@
 package com.mattermost.helpers.database_extension
 
 import com.facebook.react.bridge.ReadableMap
+import com.facebook.react.bridge.ReadableType
 import com.mattermost.helpers.DatabaseHelper
 import com.mattermost.helpers.ReadableMapUtils
+import com.mattermost.turbolog.TurboLog
 import com.nozbe.watermelondb.WMDatabase
-import org.json.JSONArray
-import org.json.JSONException
 import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.Exception
 
+// Minimum number of posts the newest chunk must hold before its newest post can be used as "since"
+private const val MIN_POSTS_FOR_SINCE = 60
+
+// Indexes the "since" queries rely on, as the leading columns expected for each of them
+private val POST_INDEXES_FOR_SINCE = listOf(
+        listOf("channel_id", "create_at"),
+        listOf("root_id", "create_at"),
+)
+
+private val checkedPostIndexes = ConcurrentHashMap.newKeySet<String>()
+
 internal fun queryLastPostCreateAt(db: WMDatabase?, channelId: String): Double? {
     try {
         if (db != null) {
@@ -18,11 +30,17 @@ internal fun queryLastPostCreateAt(db: WMDatabase?, channelId: String): Double?
                     cursor1.moveToFirst()
                     val earliest = cursor1.getDouble(0)
                     val latest = cursor1.getDouble(1)
-                    val postQuery = "SELECT create_at FROM POST WHERE channel_id= ? AND delete_at=0 AND create_at BETWEEN ? AND ? ORDER BY create_at DESC"
+                    val condition = "channel_id=? AND delete_at=0 AND create_at BETWEEN ? AND ?"
 
-                    db.rawQuery(postQuery, arrayOf(channelId, earliest, latest)).use { cursor2 ->
-                        if (cursor2.count >= 60) {
-                            cursor2.moveToFirst()
+                    // Only returns the newest post when the chunk has at least MIN_POSTS_FOR_SINCE posts,
+                    // the OFFSET lookup stops at that post instead of walking every post in the chunk
+                    val postQuery = """
+                        SELECT MAX(create_at) FROM Post WHERE $condition
+                        AND EXISTS (SELECT 1 FROM Post WHERE $condition ORDER BY create_at DESC LIMIT 1 OFFSET ${MIN_POSTS_FOR_SINCE - 1})
+                        """.trimIndent()
+
+                    db.rawQuery(postQuery, arrayOf(channelId, earliest, latest, channelId, earliest, latest)).use { cursor2 ->
+                        if (cursor2.moveToFirst() && !cursor2.isNull(0)) {
                             return cursor2.getDouble(0)
                         }
                     }
@@ -35,6 +53,41 @@ internal fun queryLastPostCreateAt(db: WMDatabase?, channelId: String): Double?
     return null
 }
 
+/**
+ * Logs once per database when the indexes used to compute the "since" value of channels and threads
+ * are missing, without them every push notification scans the Post table.
+ */
+internal fun checkPostIndexes(db: WMDatabase, databasePath: String) {
+    if (!checkedPostIndexes.add(databasePath)) {
+        return
+    }
+
+    try {
+        val indexes = ArrayList<List<String>>()
+        db.rawQuery("PRAGMA index_list('Post')").use { list ->
+            val nameColumn = list.getColumnIndex("name")
+            while (list.moveToNext()) {
+                val columns = ArrayList<String>()
+                db.rawQuery("PRAGMA index_info('${list.getString(nameColumn)}')").use { info ->
+                    val columnName = info.getColumnIndex("name")
+                    while (info.moveToNext()) {
+                        columns.add(info.getString(columnName))
+                    }
+                }
+                indexes.add(columns)
+            }
+        }
+
+        for (required in POST_INDEXES_FOR_SINCE) {
+            if (indexes.none { it.size >= required.size && it.subList(0, required.size) == required }) {
+                TurboLog.w("ReactNative", "Missing index on Post(${required.joinToString(", ")}) in database=$databasePath")
+            }
+        }
+    } catch (e: Exception) {
+        e.printStackTrace()
+    }
+}
+
 fun queryPostSinceForChannel(db: WMDatabase?, channelId: String): Double? {
     try {
         if (db != null) {
@@ -75,29 +128,8 @@ fun queryLastPostInThread(db: WMDatabase?, rootId: String): Double? {
     return null
 }
 
-internal fun insertPost(db: WMDatabase, post: JSONObject) {
+internal fun insertPost(db: WMDatabase, post: PostRecord) {
     try {
-        val id = try { post.getString("id") } catch (e: JSONException) { return }
-        val channelId = try { post.getString("channel_id") } catch (e: JSONException) { return }
-        val userId = try { post.getString("user_id") } catch (e: JSONException) { return }
-        val createAt = try { post.getDouble("create_at") } catch (e: JSONException) { return }
-        val deleteAt = try { post.getDouble("delete_at") } catch (e: JSONException) { 0 }
-        val updateAt = try { post.getDouble("update_at") } catch (e: JSONException) { 0 }
-        val editAt = try { post.getDouble("edit_at") } catch (e: JSONException) { 0 }
-        val isPinned = try { post.getBoolean("is_pinned") } catch (e: JSONException) { false }
-        val message = try { post.getString("message") } catch (e: JSONException) { "" }
-        val messageSource = try { post.getString("message_source") } catch (e: JSONException) { "" }
-        val metadata = try { post.getJSONObject("metadata") } catch (e: JSONException) { JSONObject() }
-        val originalId = try { post.getString("original_id") } catch (e: JSONException) { "" }
-        val pendingId = try { post.getString("pending_post_id") } catch (e: JSONException) { "" }
-        val prevId = try { post.getString("prev_post_id") } catch (e: JSONException) { "" }
-        val rootId = try { post.getString("root_id") } catch (e: JSONException) { "" }
-        val type = try { post.getString("type") } catch (e: JSONException) { "" }
-        val props = try { post.getJSONObject("props").toString() } catch (e: JSONException) { "" }
-        val reactions = metadata.remove("reactions") as JSONArray?
-        val customEmojis = metadata.remove("emojis") as JSONArray?
-        val files = metadata.remove("files") as JSONArray?
-
         db.execute(
                 """
                 INSERT INTO Post 
@@ -106,53 +138,31 @@ internal fun insertPost(db: WMDatabase, post: JSONObject) {
                 VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, '', 'created')
                 """.trimIndent(),
                 arrayOf(
-                        id, channelId, createAt, deleteAt, updateAt, editAt,
-                        isPinned, message, messageSource, metadata.toString(),
-                        originalId, pendingId, prevId, rootId,
-                        type, userId, props
+                        post.id, post.channelId, post.createAt, post.deleteAt, post.updateAt, post.editAt,
+                        post.isPinned, post.message, post.messageSource, post.metadata,
+                        post.originalId, post.pendingPostId, post.prevPostId ?: "", post.rootId,
+                        post.type, post.userId, post.props
                 )
         )
 
-        if (reactions != null && reactions.length() > 0) {
-            insertReactions(db, reactions)
+        if (post.reactions.isNotEmpty()) {
+            insertReactions(db, post.reactions)
         }
 
-        if (customEmojis != null && customEmojis.length() > 0) {
-            insertCustomEmojis(db, customEmojis)
+        if (post.emojis.isNotEmpty()) {
+            insertCustomEmojis(db, post.emojis)
         }
 
-        if (files != null && files.length() > 0) {
-            insertFiles(db, files)
+        if (post.files.isNotEmpty()) {
+            insertFiles(db, post.files)
         }
     } catch (e: Exception) {
         e.printStackTrace()
     }
 }
 
-internal fun updatePost(db: WMDatabase, post: JSONObject) {
+internal fun updatePost(db: WMDatabase, post: PostRecord) {
     try {
-        val id = try { post.getString("id") } catch (e: JSONException) { return }
-        val channelId = try { post.getString("channel_id") } catch (e: JSONException) { return }
-        val userId = try { post.getString("user_id") } catch (e: JSONException) { return }
-        val createAt = try { post.getDouble("create_at") } catch (e: JSONException) { return }
-        val deleteAt = try { post.getDouble("delete_at") } catch (e: JSONException) { 0 }
-        val updateAt = try { post.getDouble("update_at") } catch (e: JSONException) { 0 }
-        val editAt = try { post.getDouble("edit_at") } catch (e: JSONException) { 0 }
-        val isPinned = try { post.getBoolean("is_pinned") } catch (e: JSONException) { false }
-        val message = try { post.getString("message") } catch (e: JSONException) { "" }
-        val messageSource = try { post.getString("message_source") } catch (e: JSONException) { "" }
-        val metadata = try { post.getJSONObject("metadata") } catch (e: JSONException) { JSONObject() }
-        val originalId = try { post.getString("original_id") } catch (e: JSONException) { "" }
-        val pendingId = try { post.getString("pending_post_id") } catch (e: JSONException) { "" }
-        val prevId = try { post.getString("prev_post_id") } catch (e: JSONException) { "" }
-        val rootId = try { post.getString("root_id") } catch (e: JSONException) { "" }
-        val type = try { post.getString("type") } catch (e: JSONException) { "" }
-        val props = try { post.getJSONObject("props").toString() } catch (e: JSONException) { "" }
-        val reactions = metadata.remove("reactions") as JSONArray?
-        val customEmojis = metadata.remove("emojis") as JSONArray?
-
-        metadata.remove("files")
-
         db.execute(
                 """
                 UPDATE Post SET channel_id = ?, create_at = ?, delete_at = ?, update_at =?, edit_at =?, 
@@ -161,97 +171,172 @@ internal fun updatePost(db: WMDatabase, post: JSONObject) {
                 WHERE id = ?
                 """.trimIndent(),
                 arrayOf(
-                        channelId, createAt, deleteAt, updateAt, editAt,
-                        isPinned, message, messageSource, metadata.toString(),
-                        originalId, pendingId, prevId, rootId,
-                        type, userId, props,
-                        id,
+                        post.channelId, post.createAt, post.deleteAt, post.updateAt, post.editAt,
+                        post.isPinned, post.message, post.messageSource, post.metadata,
+                        post.originalId, post.pendingPostId, post.prevPostId ?: "", post.rootId,
+                        post.type, post.userId, post.props,
+                        post.id,
                 )
         )
 
-        if (reactions != null && reactions.length() > 0) {
-            db.execute("DELETE FROM Reaction WHERE post_id = ?", arrayOf(post.getString("id")))
-            insertReactions(db, reactions)
+        if (post.reactions.isNotEmpty()) {
+            db.execute("DELETE FROM Reaction WHERE post_id = ?", arrayOf(post.id))
+            insertReactions(db, post.reactions)
         }
 
-        if (customEmojis != null && customEmojis.length() > 0) {
-            insertCustomEmojis(db, customEmojis)
+        if (post.emojis.isNotEmpty()) {
+            insertCustomEmojis(db, post.emojis)
         }
     } catch (e: Exception) {
         e.printStackTrace()
     }
 }
 
+private fun ReadableMap.stringOrNull(name: String): String? {
+    return if (hasKey(name) && getType(name) == ReadableType.String) getString(name) else null
+}
+
+private fun ReadableMap.doubleOrNull(name: String): Double? {
+    return if (hasKey(name) && getType(name) == ReadableType.Number) getDouble(name) else null
+}
+
+private fun ReadableMap.mapsOf(name: String): List<ReadableMap> {
+    val array = if (hasKey(name) && getType(name) == ReadableType.Array) getArray(name) else null
+    return array?.let { (0 until it.size()).mapNotNull { i -> if (it.getType(i) == ReadableType.Map) it.getMap(i) else null } } ?: emptyList()
+}
+
+/**
+ * Decodes a posts response already converted to a map by the bridge into the same records as
+ * [decodePostsPage] does from its JSON, only props and metadata are turned back into JSON text.
+ */
+internal fun decodePostsPage(postsData: ReadableMap): PostsPage {
+    val order = postsData.getArray("order")?.let { array -> (0 until array.size()).mapNotNull { array.getString(it) } } ?: emptyList()
+    val posts = ArrayList<PostRecord>()
+    postsData.getMap("posts")?.let { map ->
+        val iterator = map.keySetIterator()
+        while (iterator.hasNextKey()) {
+            val key = iterator.nextKey()
+            if (map.getType(key) == ReadableType.Map) {
+                map.getMap(key)?.let { post -> toPostRecord(post)?.let { posts.add(it) } }
+            }
+        }
+    }
+
+    val since = postsData.hasKey(POSTS_SINCE_KEY) && postsData.getType(POSTS_SINCE_KEY) == ReadableType.Boolean && postsData.getBoolean(POSTS_SINCE_KEY)
+    return PostsPage(order, posts, postsData.stringOrNull("prev_post_id"), since)
+}
+
+private fun toPostRecord(post: ReadableMap): PostRecord? {
+    val metadataMap = if (post.hasKey("metadata") && post.getType("metadata") == ReadableType.Map) post.getMap("metadata") else null
+    val metadata = metadataMap?.let { ReadableMapUtils.toJSONObject(it) } ?: JSONObject()
+    metadata.remove("reactions")
+    metadata.remove("emojis")
+    metadata.remove("files")
+    val props = if (post.hasKey("props") && post.getType("props") == ReadableType.Map) post.getMap("props") else null
+
+    val reactions = metadataMap?.mapsOf("reactions")?.mapNotNull {
+        ReactionRecord(
+                it.doubleOrNull("create_at") ?: return@mapNotNull null, it.stringOrNull("emoji_name") ?: return@mapNotNull null,
+                it.stringOrNull("post_id") ?: return@mapNotNull null, it.stringOrNull("user_id") ?: return@mapNotNull null
+        )
+    }
+    val emojis = metadataMap?.mapsOf("emojis")?.mapNotNull {
+        EmojiRecord(it.stringOrNull("id") ?: return@mapNotNull null, it.stringOrNull("name") ?: return@mapNotNull null)
+    }
+    val files = metadataMap?.mapsOf("files")?.mapNotNull {
+        FileRecord(
+                it.stringOrNull("id") ?: return@mapNotNull null, it.stringOrNull("extension") ?: return@mapNotNull null,
+                it.doubleOrNull("height")?.toInt() ?: 0, it.stringOrNull("mini_preview") ?: "",
+                it.stringOrNull("mime_type") ?: return@mapNotNull null, it.stringOrNull("name") ?: return@mapNotNull null,
+                it.stringOrNull("post_id") ?: return@mapNotNull null, it.doubleOrNull("size") ?: 0.0, it.doubleOrNull("width")?.toInt() ?: 0
+        )
+    }
+
+    return PostRecord(
+            post.stringOrNull("id") ?: return null,
+            post.stringOrNull("channel_id") ?: return null,
+            post.stringOrNull("user_id") ?: return null,
+            post.doubleOrNull("create_at") ?: return null,
+            post.doubleOrNull("delete_at") ?: 0.0,
+            post.doubleOrNull("update_at") ?: 0.0,
+            post.doubleOrNull("edit_at") ?: 0.0,
+            post.hasKey("is_pinned") && post.getType("is_pinned") == ReadableType.Boolean && post.getBoolean("is_pinned"),
+            post.stringOrNull("message") ?: "",
+            post.stringOrNull("message_source") ?: "",
+            metadata.toString(),
+            post.stringOrNull("original_id") ?: "",
+            post.stringOrNull("pending_post_id") ?: "",
+            post.stringOrNull("prev_post_id"),
+            post.stringOrNull("root_id") ?: "",
+            post.stringOrNull("type") ?: "",
+            props?.let { ReadableMapUtils.toJSONObject(it).toString() } ?: "",
+            reactions ?: emptyList(), emojis ?: emptyList(), files ?: emptyList()
+    )
+}
+
 fun DatabaseHelper.handlePosts(db: WMDatabase, postsData: ReadableMap?, channelId: String, receivingThreads: Boolean) {
-    // Posts, PostInChannel, PostInThread, Reactions, Files, CustomEmojis, Users
     try {
         if (postsData != null) {
-            val ordered = postsData.getArray("order")?.toArrayList()
-            val posts = ReadableMapUtils.toJSONObject(postsData.getMap("posts")).toMap()
-            val previousPostId = postsData.getString("prev_post_id")
-            val postsInThread = hashMapOf<String, List<JSONObject>>()
-            val postList = posts.toList()
-            var earliest = 0.0
-            var latest = 0.0
-
-            if (ordered != null && posts.isNotEmpty()) {
-                val firstId = ordered.first()
-                val lastId = ordered.last()
-                var prevPostId = ""
-
-                val sortedPosts = postList.sortedBy { (_, value) ->
-                    ((value as Map<*, *>)["create_at"] as Double)
-                }
+            handlePosts(db, decodePostsPage(postsData), channelId, receivingThreads)
+        }
+    } catch (e: Exception) {
+        e.printStackTrace()
+    }
+}
 
-                sortedPosts.forEachIndexed { index, it ->
-                    val key = it.first
-                    if (it.second != null) {
-                        @Suppress("UNCHECKED_CAST", "UNCHECKED_CAST")
-                        val post: MutableMap<String, Any?> = it.second as MutableMap<String, Any?>
+internal fun DatabaseHelper.handlePosts(db: WMDatabase, page: PostsPage, channelId: String, receivingThreads: Boolean) {
+    // Posts, PostInChannel, PostInThread, Reactions, Files, CustomEmojis, Users
+    try {
+        val postsInThread = hashMapOf<String, MutableList<Double>>()
+        var earliest = 0.0
+        var latest = 0.0
+        val hasPosts = page.order.isNotEmpty() && page.posts.isNotEmpty()
 
-                        if (index == 0) {
-                            post.putIfAbsent("prev_post_id", previousPostId)
-                        } else if (prevPostId.isNotEmpty()) {
-                            post.putIfAbsent("prev_post_id", prevPostId)
-                        }
+        if (hasPosts) {
+            val firstId = page.order.first()
+            val lastId = page.order.last()
+            val orderedIds = page.order.toHashSet()
+            var prevPostId = ""
 
-                        if (lastId == key) {
-                            earliest = post["create_at"] as Double
-                        }
-                        if (firstId == key) {
-                            latest = post["create_at"] as Double
-                        }
+            val sortedPosts = page.posts.sortedBy { it.createAt }
 
-                        val jsonPost = JSONObject(post)
-                        val postId = post["id"] as? String ?: ""
-                        val rootId = post["root_id"] as? String ?: ""
-                        val postInThread = rootId.ifEmpty { postId }
-                        var thread = postsInThread[postInThread]?.toMutableList()
-                        if (thread == null) {
-                            thread = mutableListOf()
-                        }
+            // A single lookup tells which posts already exist instead of one query per post
+            val existingPostIds = queryIds(db, "Post", page.posts.map { it.id }.toTypedArray()).toHashSet()
 
-                        thread.add(jsonPost)
-                        postsInThread[postInThread] = thread.toList()
+            sortedPosts.forEachIndexed { index, post ->
+                if (index == 0) {
+                    if (post.prevPostId == null) post.prevPostId = page.prevPostId
+                } else if (prevPostId.isNotEmpty()) {
+                    if (post.prevPostId == null) post.prevPostId = prevPostId
+                }
 
-                        if (find(db, "Post", key) == null) {
-                            insertPost(db, jsonPost)
-                        } else {
-                            updatePost(db, jsonPost)
-                        }
+                if (lastId == post.id) {
+                    earliest = post.createAt
+                }
+                if (firstId == post.id) {
+                    latest = post.createAt
+                }
 
-                        if (ordered.contains(key)) {
-                            prevPostId = key
-                        }
-                    }
+                val postInThread = post.rootId.ifEmpty { post.id }
+                postsInThread.getOrPut(postInThread) { mutableListOf() }.add(post.createAt)
+
+                if (!existingPostIds.contains(post.id)) {
+                    insertPost(db, post)
+                } else {
+                    updatePost(db, post)
                 }
-            }
 
-            if (!receivingThreads) {
-                handlePostsInChannel(db, channelId, earliest, latest)
+                if (orderedIds.contains(post.id)) {
+                    prevPostId = post.id
+                }
             }
-            handlePostsInThread(db, postsInThread)
         }
+
+        // An empty page has no range, it would otherwise be stored as a chunk at 0
+        if (!receivingThreads && hasPosts) {
+            handlePostsInChannel(db, channelId, earliest, latest, page.since)
+        }
+        handlePostsInThread(db, postsInThread)
     } catch (e: Exception) {
         e.printStackTrace()
     }
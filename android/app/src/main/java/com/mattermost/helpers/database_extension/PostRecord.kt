@@ -0,0 +1,336 @@
+package com.mattermost.helpers.database_extension
+
+import com.mattermost.helpers.JsonSliceReader
+import org.json.JSONObject
+
+/**
+ * The columns of a post as stored in the Post table. [metadata] and [props] are the raw JSON of the
+ * response, metadata without the reactions, emojis and files that are stored in their own tables.
+ */
+internal class PostRecord(
+        val id: String,
+        val channelId: String,
+        val userId: String,
+        val createAt: Double,
+        val deleteAt: Double,
+        val updateAt: Double,
+        val editAt: Double,
+        val isPinned: Boolean,
+        val message: String,
+        val messageSource: String,
+        val metadata: String,
+        val originalId: String,
+        val pendingPostId: String,
+        var prevPostId: String?,
+        val rootId: String,
+        val type: String,
+        val props: String,
+        val reactions: List<ReactionRecord>,
+        val emojis: List<EmojiRecord>,
+        val files: List<FileRecord>
+)
+
+internal class ReactionRecord(val createAt: Double, val emojiName: String, val postId: String, val userId: String)
+
+internal class EmojiRecord(val id: String, val name: String)
+
+internal class FileRecord(
+        val id: String,
+        val extension: String,
+        val height: Int,
+        val miniPreview: String,
+        val mimeType: String,
+        val name: String,
+        val postId: String,
+        val size: Double,
+        val width: Int
+)
+
+/**
+ * A page of posts as returned by the posts endpoints, [posts] in the order they appear in the response.
+ * [since] is true for the pages requested with `?since=`, which continue the newest chunk of the channel.
+ */
+internal class PostsPage(val order: List<String>, val posts: List<PostRecord>, val prevPostId: String?, val since: Boolean = false)
+
+// Set by the native fetch on the responses it requested with `?since=`, the server never sends it
+internal const val POSTS_SINCE_KEY = "since"
+
+/**
+ * Marks the posts response [json] as requested with `?since=` by adding [POSTS_SINCE_KEY] to it, the
+ * text is otherwise kept as the server sent it.
+ */
+internal fun markPostsSince(json: String): String {
+    val end = json.lastIndexOf('}')
+    if (end < 0) {
+        return json
+    }
+    val separator = if (json.substring(0, end).trimEnd().endsWith('{')) "" else ","
+    return StringBuilder(json.length + 16)
+            .append(json, 0, end)
+            .append(separator).append('"').append(POSTS_SINCE_KEY).append("\":true")
+            .append(json, end, json.length)
+            .toString()
+}
+
+/**
+ * Decodes the posts response [json] in a single pass without building a JSON tree. The posts, reactions,
+ * emojis and files missing a column that has no default are left out as they cannot be stored.
+ */
+internal fun decodePostsPage(json: String): PostsPage {
+    val reader = JsonSliceReader(json)
+    val order = ArrayList<String>()
+    val posts = ArrayList<PostRecord>()
+    var prevPostId: String? = null
+    var since = false
+
+    reader.readObject { name ->
+        when (name) {
+            "order" -> reader.readArray { order.add(reader.nextString()) }
+            "posts" -> reader.readObject { readPost(reader)?.let { posts.add(it) } }
+            "prev_post_id" -> prevPostId = readOptionalString(reader)
+            POSTS_SINCE_KEY -> since = readOptionalBoolean(reader) ?: false
+            else -> reader.skipValue()
+        }
+    }
+
+    return PostsPage(order, posts, prevPostId, since)
+}
+
+private fun readPost(reader: JsonSliceReader): PostRecord? {
+    var id: String? = null
+    var channelId: String? = null
+    var userId: String? = null
+    var createAt: Double? = null
+    var deleteAt = 0.0
+    var updateAt = 0.0
+    var editAt = 0.0
+    var isPinned = false
+    var message = ""
+    var messageSource = ""
+    var metadata = "{}"
+    var originalId = ""
+    var pendingPostId = ""
+    var prevPostId: String? = null
+    var rootId = ""
+    var type = ""
+    var props = ""
+    val reactions = ArrayList<ReactionRecord>(0)
+    val emojis = ArrayList<EmojiRecord>(0)
+    val files = ArrayList<FileRecord>(0)
+
+    val isObject = reader.readObject { name ->
+        when (name) {
+            "id" -> id = readOptionalString(reader)
+            "channel_id" -> channelId = readOptionalString(reader)
+            "user_id" -> userId = readOptionalString(reader)
+            "create_at" -> createAt = readOptionalDouble(reader)
+            "delete_at" -> deleteAt = readOptionalDouble(reader) ?: 0.0
+            "update_at" -> updateAt = readOptionalDouble(reader) ?: 0.0
+            "edit_at" -> editAt = readOptionalDouble(reader) ?: 0.0
+            "is_pinned" -> isPinned = readOptionalBoolean(reader) ?: false
+            "message" -> message = readOptionalString(reader) ?: ""
+            "message_source" -> messageSource = readOptionalString(reader) ?: ""
+            "original_id" -> originalId = readOptionalString(reader) ?: ""
+            "pending_post_id" -> pendingPostId = readOptionalString(reader) ?: ""
+            "prev_post_id" -> prevPostId = readOptionalString(reader)
+            "root_id" -> rootId = readOptionalString(reader) ?: ""
+            "type" -> type = readOptionalString(reader) ?: ""
+            "props" -> props = if (reader.peek() == JsonSliceReader.Token.BEGIN_OBJECT) reader.nextRawValue() else "".also { reader.skipValue() }
+            "metadata" -> metadata = readMetadata(reader, reactions, emojis, files) ?: metadata
+            else -> reader.skipValue()
+        }
+    }
+    if (!isObject) {
+        return null
+    }
+
+    return PostRecord(
+            id ?: return null, channelId ?: return null, userId ?: return null, createAt ?: return null,
+            deleteAt, updateAt, editAt, isPinned, message, messageSource, metadata,
+            originalId, pendingPostId, prevPostId, rootId, type, props,
+            reactions, emojis, files
+    )
+}
+
+/**
+ * Copies the members of the metadata object as they are, except the reactions, emojis and files
+ * which are decoded into their records. Returns null when the metadata is not an object.
+ */
+private fun readMetadata(
+        reader: JsonSliceReader,
+        reactions: MutableList<ReactionRecord>,
+        emojis: MutableList<EmojiRecord>,
+        files: MutableList<FileRecord>
+): String? {
+    val raw = StringBuilder("{")
+    val isObject = reader.readObject { name ->
+        when (name) {
+            "reactions" -> reader.readArray { readReaction(reader)?.let { reactions.add(it) } }
+            "emojis" -> reader.readArray { readEmoji(reader)?.let { emojis.add(it) } }
+            "files" -> reader.readArray { readFile(reader)?.let { files.add(it) } }
+            else -> {
+                if (raw.length > 1) {
+                    raw.append(',')
+                }
+                raw.append(JSONObject.quote(name)).append(':')
+                reader.appendRawValue(raw)
+            }
+        }
+    }
+
+    return if (isObject) raw.append('}').toString() else null
+}
+
+private fun readReaction(reader: JsonSliceReader): ReactionRecord? {
+    var createAt: Double? = null
+    var emojiName: String? = null
+    var postId: String? = null
+    var userId: String? = null
+    reader.readObject { name ->
+        when (name) {
+            "create_at" -> createAt = readOptionalDouble(reader)
+            "emoji_name" -> emojiName = readOptionalString(reader)
+            "post_id" -> postId = readOptionalString(reader)
+            "user_id" -> userId = readOptionalString(reader)
+            else -> reader.skipValue()
+        }
+    }
+
+    return ReactionRecord(createAt ?: return null, emojiName ?: return null, postId ?: return null, userId ?: return null)
+}
+
+private fun readEmoji(reader: JsonSliceReader): EmojiRecord? {
+    var id: String? = null
+    var name: String? = null
+    reader.readObject { member ->
+        when (member) {
+            "id" -> id = readOptionalString(reader)
+            "name" -> name = readOptionalString(reader)
+            else -> reader.skipValue()
+        }
+    }
+
+    return EmojiRecord(id ?: return null, name ?: return null)
+}
+
+private fun readFile(reader: JsonSliceReader): FileRecord? {
+    var id: String? = null
+    var extension: String? = null
+    var height = 0
+    var miniPreview = ""
+    var mimeType: String? = null
+    var name: String? = null
+    var postId: String? = null
+    var size = 0.0
+    var width = 0
+    reader.readObject { member ->
+        when (member) {
+            "id" -> id = readOptionalString(reader)
+            "extension" -> extension = readOptionalString(reader)
+            "height" -> height = readOptionalDouble(reader)?.toInt() ?: 0
+            "mini_preview" -> miniPreview = readOptionalString(reader) ?: ""
+            "mime_type" -> mimeType = readOptionalString(reader)
+            "name" -> name = readOptionalString(reader)
+            "post_id" -> postId = readOptionalString(reader)
+            "size" -> size = readOptionalDouble(reader) ?: 0.0
+            "width" -> width = readOptionalDouble(reader)?.toInt() ?: 0
+            else -> reader.skipValue()
+        }
+    }
+
+    return FileRecord(
+            id ?: return null, extension ?: return null, height, miniPreview,
+            mimeType ?: return null, name ?: return null, postId ?: return null, size, width
+    )
+}
+
+/**
+ * Calls [member] with the name of each member of the next object, which has to read or skip its value.
+ * Returns false, skipping the value, when it is not an object.
+ */
+private inline fun JsonSliceReader.readObject(member: (String) -> Unit): Boolean {
+    if (peek() != JsonSliceReader.Token.BEGIN_OBJECT) {
+        skipValue()
+        return false
+    }
+
+    beginObject()
+    while (hasNext()) {
+        member(nextName())
+    }
+    endObject()
+    return true
+}
+
+/**
+ * Calls [element] for each element of the next array, which has to read or skip it. Anything but an
+ * array is skipped.
+ */
+private inline fun JsonSliceReader.readArray(element: () -> Unit) {
+    if (peek() != JsonSliceReader.Token.BEGIN_ARRAY) {
+        skipValue()
+        return
+    }
+
+    beginArray()
+    while (hasNext()) {
+        element()
+    }
+    endArray()
+}
+
+private fun readOptionalString(reader: JsonSliceReader): String? {
+    return when (reader.peek()) {
+        JsonSliceReader.Token.STRING, JsonSliceReader.Token.NUMBER, JsonSliceReader.Token.BOOLEAN -> reader.nextString()
+        else -> {
+            reader.skipValue()
+            null
+        }
+    }
+}
+
+private fun readOptionalDouble(reader: JsonSliceReader): Double? {
+    return when (reader.peek()) {
+        JsonSliceReader.Token.NUMBER -> reader.nextDouble()
+        JsonSliceReader.Token.STRING -> try { reader.nextString().toDouble() } catch (e: NumberFormatException) { null }
+        else -> {
+            reader.skipValue()
+            null
+        }
+    }
+}
+
+private fun readOptionalBoolean(reader: JsonSliceReader): Boolean? {
+    return if (reader.peek() == JsonSliceReader.Token.BOOLEAN) {
+        reader.nextBoolean()
+    } else {
+        reader.skipValue()
+        null
+    }
+}
+
+/**
+ * Folds [next] into [pending], two pages fetched for the same channel or thread, the same way
+ * mergeNotificationData folds the rest of their payloads: posts with the same id take the values
+ * of [next], the order is the union of both sorted from newest to oldest and the previous post id
+ * belongs to whichever page reaches further back.
+ */
+internal fun mergePostsPages(pending: PostsPage, next: PostsPage): PostsPage {
+    val posts = LinkedHashMap<String, PostRecord>()
+    pending.posts.forEach { posts[it.id] = it }
+    next.posts.forEach { posts[it.id] = it }
+
+    val ids = LinkedHashSet<String>(next.order)
+    ids.addAll(pending.order)
+    val order = ids.sortedByDescending { posts[it]?.createAt ?: 0.0 }
+
+    val oldest = order.lastOrNull()
+    val prevPostId = if (oldest != null && oldest == pending.order.lastOrNull() && pending.prevPostId != null) {
+        pending.prevPostId
+    } else {
+        next.prevPostId ?: pending.prevPostId
+    }
+
+    // A merged page only continues the newest chunk when every page it is made of does
+    return PostsPage(order, posts.values.toList(), prevPostId, pending.since && next.since)
+}
@@ -1,99 +1,68 @@
 package com.mattermost.helpers.database_extension
 
-import com.facebook.react.bridge.Arguments
-import com.facebook.react.bridge.ReadableArray
-import com.facebook.react.bridge.ReadableMap
 import com.mattermost.helpers.RandomId
-import com.mattermost.helpers.mapCursor
 import com.nozbe.watermelondb.WMDatabase
 
-internal fun findPostInChannel(chunks: ReadableArray, earliest: Double, latest: Double): ReadableMap? {
-    for (i in 0 until chunks.size()) {
-        val chunk = chunks.getMap(i)
-        chunk?.let {
-            if (earliest >= it.getDouble("earliest") || latest <= it.getDouble("latest")) {
-                return it
-            }
-        }
-    }
-
-    return null
-}
-
-internal fun insertPostInChannel(db: WMDatabase, channelId: String, earliest: Double, latest: Double): ReadableMap? {
-    return try {
-        val id = RandomId.generate()
+internal fun insertPostInChannel(db: WMDatabase, channelId: String, earliest: Double, latest: Double) {
+    try {
         db.execute(
                 """
                 INSERT INTO PostsInChannel 
                 (id, channel_id, earliest, latest, _changed, _status) 
                 VALUES (?, ?, ?, ?, '', 'created')
                 """.trimIndent(),
-                arrayOf(id, channelId, earliest, latest))
-
-        val map = Arguments.createMap()
-        map.putString("id", id)
-        map.putString("channel_id", channelId)
-        map.putDouble("earliest", earliest)
-        map.putDouble("latest", latest)
-        map
+                arrayOf(RandomId.generate(), channelId, earliest, latest))
     } catch (e: Exception) {
         e.printStackTrace()
-        null
     }
 }
 
-internal fun mergePostsInChannel(db: WMDatabase, existingChunks: ReadableArray, newChunk: ReadableMap) {
-    for (i in 0 until existingChunks.size()) {
-        try {
-            val chunk = existingChunks.getMap(i)
-            chunk?.let {
-                if (newChunk.getDouble("earliest") <= it.getDouble("earliest") &&
-                        newChunk.getDouble("latest") >= it.getDouble("latest")) {
-                    db.execute("DELETE FROM PostsInChannel WHERE id = ?", arrayOf(it.getString("id")))
-                    return
-                }
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        }
-    }
-}
-
-internal fun handlePostsInChannel(db: WMDatabase, channelId: String, earliest: Double, latest: Double) {
+/**
+ * Stores the range of a page of posts in the chunks of the channel. A page read [since] the newest
+ * stored post extends the newest chunk, as the app does, any other page is merged with the chunks it
+ * overlaps or becomes a chunk of its own.
+ */
+internal fun handlePostsInChannel(db: WMDatabase, channelId: String, earliest: Double, latest: Double, since: Boolean) {
     try {
-        db.rawQuery(
-                "SELECT id, channel_id, earliest, latest FROM PostsInChannel WHERE channel_id = ?",
+        val (ids, chunksEarliest, chunksLatest) = db.rawQuery(
+                "SELECT id, earliest, latest FROM PostsInChannel WHERE channel_id = ?",
                 arrayOf(channelId)
         ).use { cursor ->
-            if (cursor.count == 0) {
-                // create new post in channel
-                insertPostInChannel(db, channelId, earliest, latest)
-                return
-            }
-
-            val resultArray = Arguments.createArray()
+            val ids = ArrayList<String>(cursor.count)
+            val chunksEarliest = DoubleArray(cursor.count)
+            val chunksLatest = DoubleArray(cursor.count)
             while (cursor.moveToNext()) {
-                val cursorMap = Arguments.createMap()
-                cursorMap.mapCursor(cursor)
-                resultArray.pushMap(cursorMap)
+                chunksEarliest[ids.size] = cursor.getDouble(1)
+                chunksLatest[ids.size] = cursor.getDouble(2)
+                ids.add(cursor.getString(0))
             }
+            Triple(ids, chunksEarliest, chunksLatest)
+        }
 
-            val chunk = findPostInChannel(resultArray, earliest, latest)
-            if (chunk != null) {
-                db.execute(
-                        "UPDATE PostsInChannel SET earliest = ?, latest = ?, _status = 'updated' WHERE id = ?",
-                        arrayOf(
-                                minOf(earliest, chunk.getDouble("earliest")),
-                                maxOf(latest, chunk.getDouble("latest")),
-                                chunk.getString("id")
-                        )
-                )
-                return
-            }
+        val merge = if (since) {
+            mergeSinceRange(chunksEarliest, chunksLatest, earliest, latest)
+        } else {
+            mergeChunkRanges(chunksEarliest, chunksLatest, earliest, latest)
+        }
+        if (merge.keep < 0) {
+            insertPostInChannel(db, channelId, earliest, latest)
+            return
+        }
+
+        if (merge.earliest != chunksEarliest[merge.keep] || merge.latest != chunksLatest[merge.keep]) {
+            db.execute(
+                    "UPDATE PostsInChannel SET earliest = ?, latest = ?, _status = 'updated' WHERE id = ?",
+                    arrayOf(merge.earliest, merge.latest, ids[merge.keep])
+            )
+        }
 
-            val newChunk = insertPostInChannel(db, channelId, earliest, latest)
-            newChunk?.let { mergePostsInChannel(db, resultArray, it) }
+        // Runs in the same transaction as the update so the channel never shows a partial merge
+        for (chunk in merge.remove.toList().chunked(MAX_QUERY_VARIABLES)) {
+            val placeholders = chunk.joinToString(",") { "?" }
+            db.execute(
+                    "DELETE FROM PostsInChannel WHERE id IN ($placeholders)",
+                    chunk.map { ids[it] }.toTypedArray()
+            )
         }
     } catch (e: Exception) {
         e.printStackTrace()
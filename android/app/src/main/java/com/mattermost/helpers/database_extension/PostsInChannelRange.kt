@@ -0,0 +1,53 @@
+package com.mattermost.helpers.database_extension
+
+/**
+ * Result of merging a new `[earliest, latest]` range into the existing chunks of a channel.
+ *
+ * [keep] is the index of the chunk that receives the merged range or -1 when no chunk overlaps and
+ * a new one has to be created, [remove] holds the indexes of the chunks absorbed by the merge.
+ */
+internal class ChunkMerge(val keep: Int, val earliest: Double, val latest: Double, val remove: IntArray)
+
+/**
+ * Merges the range `[newEarliest, newLatest]` with every chunk that overlaps it, directly or through
+ * another overlapping chunk, so a channel never ends up with overlapping chunks around the new range.
+ *
+ * Chunks are given as parallel arrays and ranges that only touch at their ends are considered
+ * overlapping, the chunk with the highest latest value is the one kept.
+ */
+internal fun mergeChunkRanges(earliest: DoubleArray, latest: DoubleArray, newEarliest: Double, newLatest: Double): ChunkMerge {
+    val absorbed = BooleanArray(earliest.size)
+    var mergedEarliest = newEarliest
+    var mergedLatest = newLatest
+    var keep = -1
+
+    var changed = true
+    while (changed) {
+        changed = false
+        for (i in earliest.indices) {
+            if (absorbed[i] || earliest[i] > mergedLatest || latest[i] < mergedEarliest) {
+                continue
+            }
+            absorbed[i] = true
+            changed = true
+            mergedEarliest = minOf(mergedEarliest, earliest[i])
+            mergedLatest = maxOf(mergedLatest, latest[i])
+            if (keep < 0 || latest[i] > latest[keep]) {
+                keep = i
+            }
+        }
+    }
+
+    val remove = earliest.indices.filter { absorbed[it] && it != keep }.toIntArray()
+    return ChunkMerge(keep, mergedEarliest, mergedLatest, remove)
+}
+
+/**
+ * Merges the range of a page read since the newest stored post: the newest chunk is extended to
+ * cover it even when the page starts after the chunk ends, and the chunks the extended range then
+ * overlaps are absorbed. Without any chunk the range becomes a new one.
+ */
+internal fun mergeSinceRange(earliest: DoubleArray, latest: DoubleArray, newEarliest: Double, newLatest: Double): ChunkMerge {
+    val newest = latest.indices.maxByOrNull { latest[it] } ?: return mergeChunkRanges(earliest, latest, newEarliest, newLatest)
+    return mergeChunkRanges(earliest, latest, minOf(earliest[newest], newEarliest), maxOf(latest[newest], newLatest))
+}
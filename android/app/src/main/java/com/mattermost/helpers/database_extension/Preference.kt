@@ -21,7 +21,7 @@ fun getTeammateDisplayNameSetting(db: WMDatabase): String {
             val resultMap = Arguments.createMap()
             cursor.moveToFirst()
             resultMap.mapCursor(cursor)
-            return resultMap?.getString("value") ?: "username"
+            return resultMap.getString("value") ?: "username"
         }
     } catch (e: Exception) {
         return "username"
@@ -58,12 +58,13 @@ fun insertTeam(db: WMDatabase, team: ReadableMap): Boolean {
     val status = "created"
 
     return try {
+        // Payloads queued for the same team before either was written both carry it
         db.execute(
                 """
-                INSERT INTO Team (
-                  id, allow_open_invite, description, display_name, name, update_at, type, allowed_domains,
-                  group_constrained, last_team_icon_update, invite_id, _changed, _status
-                ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, '', ?)
+                INSERT OR IGNORE INTO Team (
+                  id, is_allow_open_invite, description, display_name, name, update_at, type, allowed_domains,
+                  is_group_constrained, last_team_icon_updated_at, invite_id, _changed, _status
+                ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, '', ?)
                 """.trimIndent(),
                 arrayOf(
                         id, isAllowOpenInvite, description, displayName, name, updateAt,
@@ -5,10 +5,10 @@ import com.facebook.react.bridge.Arguments
 import com.facebook.react.bridge.NoSuchKeyException
 import com.facebook.react.bridge.ReadableArray
 import com.facebook.react.bridge.ReadableMap
+import com.mattermost.helpers.QueryArgs
 import com.mattermost.helpers.RandomId
 import com.mattermost.helpers.mapCursor
 import com.nozbe.watermelondb.WMDatabase
-import org.json.JSONObject
 
 private fun getLastReplyAt(thread: ReadableMap): Double {
     try {
@@ -80,24 +80,19 @@ internal fun updateThread(db: WMDatabase, thread: ReadableMap, existingRecord: R
 }
 
 internal fun insertThreadParticipants(db: WMDatabase, threadId: String, participants: ReadableArray) {
+    val ids = RandomId.generate(participants.size())
+    val rows = ArrayList<QueryArgs>(participants.size())
     for (i in 0 until participants.size()) {
         try {
-            val participant = participants.getMap(i)
-            participant?.let {
-                val id = RandomId.generate()
-                db.execute(
-                        """
-                        INSERT INTO ThreadParticipant 
-                        (id, thread_id, user_id, _changed, _status) 
-                        VALUES (?, ?, ?, '', 'created')
-                        """.trimIndent(),
-                        arrayOf(id, threadId, it.getString("id"))
-                )
+            participants.getMap(i)?.let {
+                rows.add(arrayOf(ids[i], threadId, it.getString("id")))
             }
         } catch (e: Exception) {
             e.printStackTrace()
         }
     }
+
+    batchInsert(db, "ThreadParticipant", arrayOf("id", "thread_id", "user_id"), rows)
 }
 
 fun insertTeamThreadsSync(db: WMDatabase, teamId: String, earliest: Double, latest: Double) {
@@ -139,12 +134,11 @@ fun syncParticipants(db: WMDatabase, thread: ReadableMap) {
     }
 }
 
-internal fun handlePostsInThread(db: WMDatabase, postsInThread: Map<String, List<JSONObject>>) {
+internal fun handlePostsInThread(db: WMDatabase, postsInThread: Map<String, List<Double>>) {
     postsInThread.forEach { (key, list) ->
         try {
-            val sorted = list.sortedBy { it.getDouble("create_at") }
-            val earliest = sorted.first().getDouble("create_at")
-            val latest = sorted.last().getDouble("create_at")
+            val earliest = list.min()
+            val latest = list.max()
             db.rawQuery("SELECT * FROM PostsInThread WHERE root_id = ? ORDER BY latest DESC", arrayOf(key)).use { cursor ->
                 if (cursor.count > 0) {
                     cursor.moveToFirst()
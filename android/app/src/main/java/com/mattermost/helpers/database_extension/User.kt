@@ -45,10 +45,41 @@ fun getCurrentUserLocale(db: WMDatabase): String {
     return "en"
 }
 
+// The update_at of the users among [ids] already stored
+private fun queryUsersUpdateAt(db: WMDatabase, ids: List<String>): MutableMap<String, Double> {
+    val stored = HashMap<String, Double>()
+    try {
+        for (chunk in ids.distinct().chunked(MAX_QUERY_VARIABLES)) {
+            val args = chunk.joinToString(",") { "?" }
+            db.rawQuery("SELECT id, update_at FROM User WHERE id IN ($args)", chunk.toTypedArray<Any?>()).use { cursor ->
+                while (cursor.moveToNext()) {
+                    stored[cursor.getString(0)] = cursor.getDouble(1)
+                }
+            }
+        }
+    } catch (e: Exception) {
+        e.printStackTrace()
+    }
+    return stored
+}
+
+/**
+ * Inserts the new [users] and updates the stored ones the server changed since, users already stored
+ * with the same update_at are left untouched.
+ */
 fun handleUsers(db: WMDatabase, users: ReadableArray) {
-    for (i in 0 until users.size()) {
-        val user = users.getMap(i)
-        user?.let { u ->
+    val maps = (0 until users.size()).mapNotNull { users.getMap(it) }
+    val stored = queryUsersUpdateAt(db, maps.mapNotNull { it.getString("id") })
+
+    for (u in maps) {
+        try {
+            val id = u.getString("id") ?: continue
+            val updateAt = u.getDouble("update_at")
+            val storedUpdateAt = stored[id]
+            if (storedUpdateAt != null && storedUpdateAt >= updateAt) {
+                continue
+            }
+
             val roles = u.getString("roles") ?: ""
             val isBot = try {
                 u.getBoolean("is_bot")
@@ -57,8 +88,10 @@ fun handleUsers(db: WMDatabase, users: ReadableArray) {
             }
 
             val lastPictureUpdate = try { u.getDouble("last_picture_update") } catch (e: NoSuchKeyException) { 0 }
+            val props = ReadableMapUtils.toJSONObject(u.getMap("props") ?: Arguments.createMap()).toString()
+            val timezone = ReadableMapUtils.toJSONObject(u.getMap("timezone") ?: Arguments.createMap()).toString()
 
-            try {
+            if (storedUpdateAt == null) {
                 db.execute(
                         """
                         INSERT INTO User (id, auth_service, update_at, delete_at, email, first_name, is_bot, is_guest,
@@ -67,21 +100,36 @@ fun handleUsers(db: WMDatabase, users: ReadableArray) {
                         VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, '', 'created')
                         """.trimIndent(),
                         arrayOf(
-                                u.getString("id"),
-                                u.getString("auth_service"), u.getDouble("update_at"), u.getDouble("delete_at"),
+                                id,
+                                u.getString("auth_service"), updateAt, u.getDouble("delete_at"),
+                                u.getString("email"), u.getString("first_name"), isBot,
+                                roles.contains("system_guest"), u.getString("last_name"), lastPictureUpdate,
+                                u.getString("locale"), u.getString("nickname"), u.getString("position"),
+                                roles, "", u.getString("username"), "{}", props, timezone
+                        )
+                )
+            } else {
+                // The status and notify props are kept, the profiles sent by the server do not hold them
+                db.execute(
+                        """
+                        UPDATE User SET auth_service = ?, update_at = ?, delete_at = ?, email = ?, first_name = ?, is_bot = ?,
+                        is_guest = ?, last_name = ?, last_picture_update = ?, locale = ?, nickname = ?, position = ?,
+                        roles = ?, username = ?, props = ?, timezone = ?, _status = 'updated'
+                        WHERE id = ?
+                        """.trimIndent(),
+                        arrayOf(
+                                u.getString("auth_service"), updateAt, u.getDouble("delete_at"),
                                 u.getString("email"), u.getString("first_name"), isBot,
                                 roles.contains("system_guest"), u.getString("last_name"), lastPictureUpdate,
                                 u.getString("locale"), u.getString("nickname"), u.getString("position"),
-                                roles, "", u.getString("username"), "{}",
-                                ReadableMapUtils.toJSONObject(u.getMap("props")
-                                        ?: Arguments.createMap()).toString(),
-                                ReadableMapUtils.toJSONObject(u.getMap("timezone")
-                                        ?: Arguments.createMap()).toString(),
+                                roles, u.getString("username"), props, timezone, id
                         )
                 )
-            } catch (e: Exception) {
-                e.printStackTrace()
             }
+            // A user listed twice, as a channel member and a thread participant, is written once
+            stored[id] = updateAt
+        } catch (e: Exception) {
+            e.printStackTrace()
         }
     }
 }
@@ -12,8 +12,8 @@ import com.nozbe.watermelondb.WMDatabase
 suspend fun PushNotificationDataRunnable.Companion.fetchMyTeamCategories(db: WMDatabase, serverUrl: String, teamId: String): ReadableMap? {
     return try {
         val userId = queryCurrentUserId(db)
-        val categories = fetch(serverUrl, "/api/v4/users/$userId/teams/$teamId/channels/categories")
-        categories?.getMap("data")
+        // A 304 returns the cached categories, which are written again as nothing tells they were stored
+        fetchMap(serverUrl, "/api/v4/users/$userId/teams/$teamId/channels/categories", conditional = true)
     } catch (e: Exception) {
         e.printStackTrace()
         null
@@ -9,17 +9,30 @@ import com.mattermost.helpers.database_extension.getCurrentUserLocale
 import com.mattermost.helpers.database_extension.getTeammateDisplayNameSetting
 import com.mattermost.helpers.database_extension.queryCurrentUserId
 import com.nozbe.watermelondb.WMDatabase
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import java.text.Collator
 import java.util.Locale
 
-suspend fun PushNotificationDataRunnable.Companion.fetchMyChannel(db: WMDatabase, serverUrl: String, channelId: String, isCRTEnabled: Boolean): Triple<ReadableMap?, ReadableMap?, ReadableArray?> {
-    val channel = fetch(serverUrl, "/api/v4/channels/$channelId")
-    var channelData = channel?.getMap("data")
-    val myChannelData = channelData?.let { fetchMyChannelData(serverUrl, channelId, isCRTEnabled, it) }
+/**
+ * Result of [fetchMyChannel], [channelUnchanged] is true when the channel is stored already and the
+ * server answered it was not modified since it was last fetched, so it does not need to be written.
+ */
+data class MyChannelResult(val channel: ReadableMap?, val myChannel: ReadableMap?, val profiles: ReadableArray?, val channelUnchanged: Boolean)
+
+suspend fun PushNotificationDataRunnable.Companion.fetchMyChannel(db: WMDatabase, serverUrl: String, channelId: String, isCRTEnabled: Boolean): MyChannelResult = coroutineScope {
+    // The channel member does not depend on the channel response, so both are requested at once
+    val myChannel = async { fetchMyChannelMember(serverUrl, channelId) }
+    val (channelJson, notModified) = fetchConditional(serverUrl, "/api/v4/channels/$channelId")
+    var channelData = jsonToMap(channelJson)
+    val channelExists = findChannel(db, channelId)
+    val myChannelData = channelData?.let { data ->
+        myChannel.await()?.let { buildMyChannelData(channelId, isCRTEnabled, data, it) }
+    }
     val channelType = channelData?.getString("type")
     var profilesArray: ReadableArray? = null
 
-    if (channelData != null && channelType != null && !findChannel(db, channelId)) {
+    if (channelData != null && channelType != null && !channelExists) {
         val displayNameSetting = getTeammateDisplayNameSetting(db)
 
         when (channelType) {
@@ -56,53 +69,58 @@ suspend fun PushNotificationDataRunnable.Companion.fetchMyChannel(db: WMDatabase
         }
     }
 
-    return Triple(channelData, myChannelData, profilesArray)
+    MyChannelResult(channelData, myChannelData, profilesArray, notModified && channelExists)
 }
 
-private suspend fun PushNotificationDataRunnable.Companion.fetchMyChannelData(serverUrl: String, channelId: String, isCRTEnabled: Boolean, channelData: ReadableMap): ReadableMap? {
+private suspend fun PushNotificationDataRunnable.Companion.fetchMyChannelMember(serverUrl: String, channelId: String): ReadableMap? {
+    return try {
+        fetchMap(serverUrl, "/api/v4/channels/$channelId/members/me")
+    } catch (e: Exception) {
+        e.printStackTrace()
+        null
+    }
+}
+
+private fun buildMyChannelData(channelId: String, isCRTEnabled: Boolean, channelData: ReadableMap, myChannelData: ReadableMap): ReadableMap? {
     try {
-        val myChannel = fetch(serverUrl, "/api/v4/channels/$channelId/members/me")
-        val myChannelData = myChannel?.getMap("data")
-        if (myChannelData != null) {
-            val data = Arguments.createMap()
-            data.merge(myChannelData)
-            data.putString("id", channelId)
-
-            val totalMsg = if (isCRTEnabled) {
-                channelData.getInt("total_msg_count_root")
-            } else {
-                channelData.getInt("total_msg_count")
-            }
+        val data = Arguments.createMap()
+        data.merge(myChannelData)
+        data.putString("id", channelId)
+
+        val totalMsg = if (isCRTEnabled) {
+            channelData.getInt("total_msg_count_root")
+        } else {
+            channelData.getInt("total_msg_count")
+        }
 
-            val myMsgCount = if (isCRTEnabled) {
-                myChannelData.getInt("msg_count_root")
-            } else {
-                myChannelData.getInt("msg_count")
-            }
+        val myMsgCount = if (isCRTEnabled) {
+            myChannelData.getInt("msg_count_root")
+        } else {
+            myChannelData.getInt("msg_count")
+        }
 
-            val mentionCount = if (isCRTEnabled) {
-                myChannelData.getInt("mention_count_root")
-            } else {
-                myChannelData.getInt("mention_count")
-            }
+        val mentionCount = if (isCRTEnabled) {
+            myChannelData.getInt("mention_count_root")
+        } else {
+            myChannelData.getInt("mention_count")
+        }
 
-            val lastPostAt = if (isCRTEnabled) {
-                try {
-                    channelData.getDouble("last_root_post_at")
-                } catch (e: Exception) {
-                    channelData.getDouble("last_post_at")
-                }
-            } else {
+        val lastPostAt = if (isCRTEnabled) {
+            try {
+                channelData.getDouble("last_root_post_at")
+            } catch (e: Exception) {
                 channelData.getDouble("last_post_at")
             }
-
-            val messageCount = 0.coerceAtLeast(totalMsg - myMsgCount)
-            data.putInt("message_count", messageCount)
-            data.putInt("mentions_count", mentionCount)
-            data.putBoolean("is_unread", messageCount > 0)
-            data.putDouble("last_post_at", lastPostAt)
-            return data
+        } else {
+            channelData.getDouble("last_post_at")
         }
+
+        val messageCount = 0.coerceAtLeast(totalMsg - myMsgCount)
+        data.putInt("message_count", messageCount)
+        data.putInt("mentions_count", mentionCount)
+        data.putBoolean("is_unread", messageCount > 0)
+        data.putDouble("last_post_at", lastPostAt)
+        return data
     } catch (e: Exception) {
         e.printStackTrace()
     }
@@ -113,8 +131,8 @@ private suspend fun PushNotificationDataRunnable.Companion.fetchMyChannelData(se
 private suspend fun PushNotificationDataRunnable.Companion.fetchProfileInChannel(db: WMDatabase, serverUrl: String, channelId: String): ReadableArray? {
     return try {
         val currentUserId = queryCurrentUserId(db)
-        val profilesInChannel = fetch(serverUrl, "/api/v4/users?in_channel=${channelId}&page=0&per_page=8&sort=")
-        val profilesArray = profilesInChannel?.getArray("data")
+        // A 304 returns the cached profiles, which are written again as nothing tells they were stored
+        val profilesArray = jsonToArray(fetchConditional(serverUrl, "/api/v4/users?in_channel=${channelId}&page=0&per_page=8&sort=").first)
         val result = Arguments.createArray()
         if (profilesArray != null) {
             for (i in 0 until profilesArray.size()) {
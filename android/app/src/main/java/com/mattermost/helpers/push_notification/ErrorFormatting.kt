@@ -2,6 +2,9 @@ package com.mattermost.helpers.push_notification
 
 import com.facebook.react.bridge.ReadableMap
 import com.facebook.react.bridge.ReadableType
+import org.json.JSONException
+import org.json.JSONObject
+import org.json.JSONTokener
 
 /**
  * Formats an error message from a server response based on the "data" field's type.
@@ -32,3 +35,25 @@ fun formatErrorMessage(response: ReadableMap): String {
         ReadableType.Null -> "Unexpected response: null"
     }
 }
+
+/**
+ * Formats an error message from the status code and raw body of a failed native request. The body
+ * is a JSON AppError when the server answered, anything else (like the HTML page of a proxy) is
+ * included as is, truncated.
+ */
+fun formatErrorMessage(statusCode: Int, body: String): String {
+    val error = try {
+        JSONTokener(body).nextValue() as? JSONObject
+    } catch (e: JSONException) {
+        null
+    }
+
+    val message = error?.optString("message")
+    return if (!message.isNullOrEmpty()) {
+        "Unexpected code $statusCode $message"
+    } else {
+        "Unexpected code $statusCode ${body.take(MAX_ERROR_BODY_LENGTH)}".trimEnd()
+    }
+}
+
+private const val MAX_ERROR_BODY_LENGTH = 200
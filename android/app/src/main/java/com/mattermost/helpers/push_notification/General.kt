@@ -1,56 +1,133 @@
 package com.mattermost.helpers.push_notification
 
+import com.facebook.react.bridge.Arguments
+import com.facebook.react.bridge.ReadableArray
 import com.facebook.react.bridge.ReadableMap
+import com.facebook.react.bridge.WritableArray
+import com.facebook.react.bridge.WritableMap
+import com.mattermost.helpers.ConditionalRequestCache
+import com.mattermost.helpers.JsonSliceReader
 import com.mattermost.helpers.Network
 import com.mattermost.helpers.PushNotificationDataRunnable
-import com.mattermost.helpers.ResolvePromise
+import com.mattermost.rnutils.helpers.PushMetrics
+
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 
-import kotlin.coroutines.suspendCoroutine
-
-internal suspend fun PushNotificationDataRunnable.Companion.fetch(serverUrl: String, endpoint: String): ReadableMap? {
-    return suspendCoroutine { cont ->
-        Network.get(serverUrl, endpoint, null, object : ResolvePromise() {
-            override fun resolve(value: Any?) {
-                val response = value as ReadableMap?
-                if (response != null && !response.getBoolean("ok")) {
-                    // Server may return "data" as a Map (normal error response), String
-                    // (e.g. HTML error pages, proxy errors), or other types. Handle each
-                    // ReadableType explicitly to avoid UnexpectedNativeTypeException.
-                    val errorMessage = formatErrorMessage(response)
-                    cont.resumeWith(Result.failure(IOException(errorMessage)))
-                } else {
-                    cont.resumeWith(Result.success(response))
-                }
-            }
+// Maximum number of in-flight requests issued by the push pipeline against a single server
+private const val MAX_CONCURRENT_REQUESTS_PER_SERVER = 4
+private val serverPermits = ConcurrentHashMap<String, Semaphore>()
 
-            override fun reject(code: String, message: String?) {
-                cont.resumeWith(Result.failure(IOException("Unexpected code $code $message")))
-            }
+private fun permitsFor(serverUrl: String): Semaphore {
+    return serverPermits.getOrPut(serverUrl) { Semaphore(MAX_CONCURRENT_REQUESTS_PER_SERVER) }
+}
 
-            override fun reject(throwable: Throwable) {
-                cont.resumeWith(Result.failure(IOException("Unexpected code $throwable")))
-            }
-        })
+/**
+ * Requests [endpoint] through the native network API and returns the JSON text of the body. The
+ * response never goes through the maps of the React Native bridge, only the parts handed to the
+ * database are decoded into them, straight from the text.
+ */
+internal suspend fun PushNotificationDataRunnable.Companion.fetchJson(
+        serverUrl: String,
+        endpoint: String,
+        method: Network.Method = Network.Method.GET,
+        options: Network.RequestOptions? = null
+): String? = permitsFor(serverUrl).withPermit {
+    val response = Network.request(method, serverUrl, endpoint, options)
+    val body = response.string()
+    if (!response.isSuccessful) {
+        throw IOException(formatErrorMessage(response.code, body))
     }
+    body.ifEmpty { null }
 }
 
-internal suspend fun PushNotificationDataRunnable.Companion.fetchWithPost(serverUrl: String, endpoint: String, options: ReadableMap?) : ReadableMap? {
-    return suspendCoroutine { cont ->
-        Network.post(serverUrl, endpoint, options, object : ResolvePromise() {
-            override fun resolve(value: Any?) {
-                val response = value as ReadableMap?
-                cont.resumeWith(Result.success(response))
-            }
+/**
+ * Requests [endpoint] conditionally on it having changed since the last response cached for it and
+ * returns the JSON text of the body along with whether the server answered it was not modified, in
+ * which case the cached body is returned without downloading it again.
+ */
+internal suspend fun PushNotificationDataRunnable.Companion.fetchConditional(serverUrl: String, endpoint: String): Pair<String?, Boolean> = permitsFor(serverUrl).withPermit {
+    val cached = ConditionalRequestCache.get(serverUrl, endpoint)
+    val options = cached?.let { Network.RequestOptions(headers = it.validators()) }
+    val response = Network.request(Network.Method.GET, serverUrl, endpoint, options)
+
+    if (response.code == 304 && cached != null) {
+        PushMetrics.recordCacheRequest(true, cached.body.size.toLong())
+        return@withPermit Pair(cached.text(), true)
+    }
+
+    PushMetrics.recordCacheRequest(false, 0)
+    if (!response.isSuccessful) {
+        throw IOException(formatErrorMessage(response.code, response.string()))
+    }
+
+    ConditionalRequestCache.put(serverUrl, endpoint, response.headers, response.body)
+    Pair(response.string().ifEmpty { null }, false)
+}
+
+internal suspend fun PushNotificationDataRunnable.Companion.fetchMap(serverUrl: String, endpoint: String, conditional: Boolean = false): WritableMap? {
+    val json = if (conditional) fetchConditional(serverUrl, endpoint).first else fetchJson(serverUrl, endpoint)
+    return jsonToMap(json)
+}
 
-            override fun reject(code: String, message: String?) {
-                cont.resumeWith(Result.failure(IOException("Unexpected code $code $message")))
+internal suspend fun PushNotificationDataRunnable.Companion.postForArray(serverUrl: String, endpoint: String, body: Any): ReadableArray? {
+    val options = Network.RequestOptions(body = body)
+    return jsonToArray(fetchJson(serverUrl, endpoint, Network.Method.POST, options))
+}
+
+/**
+ * Decodes [json] into a map when it is an object, without building any intermediate tree.
+ */
+internal fun jsonToMap(json: String?): WritableMap? {
+    val reader = JsonSliceReader(json ?: return null)
+    return if (reader.peek() == JsonSliceReader.Token.BEGIN_OBJECT) readMap(reader) else null
+}
+
+internal fun jsonToArray(json: String?): ReadableArray? {
+    val reader = JsonSliceReader(json ?: return null)
+    return if (reader.peek() == JsonSliceReader.Token.BEGIN_ARRAY) readArray(reader) else null
+}
+
+private fun readMap(reader: JsonSliceReader): WritableMap {
+    val map = Arguments.createMap()
+    reader.beginObject()
+    while (reader.hasNext()) {
+        val name = reader.nextName()
+        when (reader.peek()) {
+            JsonSliceReader.Token.BEGIN_OBJECT -> map.putMap(name, readMap(reader))
+            JsonSliceReader.Token.BEGIN_ARRAY -> map.putArray(name, readArray(reader))
+            JsonSliceReader.Token.STRING -> map.putString(name, reader.nextString())
+            JsonSliceReader.Token.NUMBER -> map.putDouble(name, reader.nextDouble())
+            JsonSliceReader.Token.BOOLEAN -> map.putBoolean(name, reader.nextBoolean())
+            else -> {
+                reader.nextNull()
+                map.putNull(name)
             }
+        }
+    }
+    reader.endObject()
+    return map
+}
 
-            override fun reject(throwable: Throwable) {
-                cont.resumeWith(Result.failure(IOException("Unexpected code $throwable")))
+private fun readArray(reader: JsonSliceReader): WritableArray {
+    val array = Arguments.createArray()
+    reader.beginArray()
+    while (reader.hasNext()) {
+        when (reader.peek()) {
+            JsonSliceReader.Token.BEGIN_OBJECT -> array.pushMap(readMap(reader))
+            JsonSliceReader.Token.BEGIN_ARRAY -> array.pushArray(readArray(reader))
+            JsonSliceReader.Token.STRING -> array.pushString(reader.nextString())
+            JsonSliceReader.Token.NUMBER -> array.pushDouble(reader.nextDouble())
+            JsonSliceReader.Token.BOOLEAN -> array.pushBoolean(reader.nextBoolean())
+            else -> {
+                reader.nextNull()
+                array.pushNull()
             }
-        })
+        }
     }
+    reader.endArray()
+    return array
 }
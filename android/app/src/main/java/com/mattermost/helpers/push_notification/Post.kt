@@ -7,14 +7,20 @@ import com.facebook.react.bridge.ReadableMap
 import com.facebook.react.bridge.WritableNativeArray
 import com.mattermost.helpers.PushNotificationDataRunnable
 import com.mattermost.helpers.ReadableArrayUtils
-import com.mattermost.helpers.ReadableMapUtils
 import com.mattermost.helpers.database_extension.*
 import com.nozbe.watermelondb.WMDatabase
+import kotlinx.coroutines.Deferred
+
+/**
+ * The result of [fetchPosts], [data] holds the posts with the threads and users they reference and
+ * [postsJson] the text of the posts response the rows are decoded from when written.
+ */
+internal data class PostsResult(val data: ReadableMap, val postsJson: String?)
 
 internal suspend fun PushNotificationDataRunnable.Companion.fetchPosts(
         db: WMDatabase, serverUrl: String, channelId: String, isCRTEnabled: Boolean,
-        rootId: String?, loadedProfiles: ReadableArray?
-): ReadableMap? {
+        rootId: String?, loadedProfiles: Deferred<ReadableArray?>
+): PostsResult? {
     return try {
         val regex = Regex("""\B@(([a-z\d-._]*[a-z\d_])[.-]*)""", setOf(RegexOption.IGNORE_CASE))
         val currentUserId = queryCurrentUserId(db)
@@ -27,6 +33,7 @@ internal suspend fun PushNotificationDataRunnable.Companion.fetchPosts(
         }
 
         val receivingThreads = isCRTEnabled && !rootId.isNullOrEmpty()
+        var readSince = false
         val endpoint = if (receivingThreads) {
             val since = rootId?.let { queryLastPostInThread(db, it) }
             val queryParams = if (since == null) "?perPage=60&fromCreatedAt=0&direction=up" else
@@ -36,167 +43,168 @@ internal suspend fun PushNotificationDataRunnable.Companion.fetchPosts(
         } else {
             val since = queryPostSinceForChannel(db, channelId)
             val queryParams = if (since == null) "?page=0&per_page=60" else "?since=${since.toLong()}"
+            readSince = since != null
             "/api/v4/channels/$channelId/posts$queryParams$additionalParams"
         }
 
-        val postsResponse = fetch(serverUrl, endpoint)
-        val postData = postsResponse?.getMap("data")
+        val json = fetchJson(serverUrl, endpoint)
+        val postData = jsonToMap(json)
         val results = Arguments.createMap()
+        var postsJson: String? = null
 
         if (postData != null) {
-            val data = ReadableMapUtils.toMap(postData)
+            // Tells the write that the page continues the newest chunk of the channel
+            postsJson = if (readSince) json?.let { markPostsSince(it) } else json
             results.putMap("posts", postData)
-            if (data != null) {
-                val postsMap = data["posts"]
-                if (postsMap != null) {
-                    @Suppress("UNCHECKED_CAST")
-                    val posts = ReadableMapUtils.toWritableMap(postsMap as? Map<String, Any>)
-                    val iterator = posts.keySetIterator()
-                    val userIds = mutableListOf<String>()
-                    val usernames = mutableListOf<String>()
-
-                    val threads = WritableNativeArray()
-                    val threadParticipantUserIds = mutableListOf<String>() // Used to exclude the "userIds" present in the thread participants
-                    val threadParticipantUsernames = mutableListOf<String>() // Used to exclude the "usernames" present in the thread participants
-                    val threadParticipantUsers = HashMap<String, ReadableMap>() // All unique users from thread participants are stored here
-                    val userIdsAlreadyLoaded = mutableListOf<String>()
-                    if (loadedProfiles != null) {
-                        for (i in 0 until loadedProfiles.size()) {
-                            loadedProfiles.getMap(i)?.getString("id")?.let { userIdsAlreadyLoaded.add(it) }
-                        }
+            // Read the posts straight from the response instead of copying the payload
+            val posts = postData.getMap("posts")
+            if (posts != null) {
+                val iterator = posts.keySetIterator()
+                val userIds = mutableListOf<String>()
+                val usernames = mutableListOf<String>()
+
+                val threads = WritableNativeArray()
+                val threadParticipantUserIds = mutableListOf<String>() // Used to exclude the "userIds" present in the thread participants
+                val threadParticipantUsernames = mutableListOf<String>() // Used to exclude the "usernames" present in the thread participants
+                val threadParticipantUsers = HashMap<String, ReadableMap>() // All unique users from thread participants are stored here
+                val userIdsAlreadyLoaded = mutableListOf<String>()
+                // The posts are requested alongside the channel, wait for its profiles only once they are needed
+                loadedProfiles.await()?.let { profiles ->
+                    for (i in 0 until profiles.size()) {
+                        profiles.getMap(i)?.getString("id")?.let { userIdsAlreadyLoaded.add(it) }
                     }
+                }
 
-                    fun findNeededUsernames(text: String?) {
-                        if (text == null) {
-                            return
-                        }
+                fun findNeededUsernames(text: String?) {
+                    if (text == null) {
+                        return
+                    }
 
-                        val matchResults = regex.findAll(text)
-                        matchResults.iterator().forEach {
-                            val username = it.value.removePrefix("@")
-                            if (!usernames.contains(username) && currentUsername != username && !specialMentions.contains(username)) {
-                                usernames.add(username)
-                            }
+                    val matchResults = regex.findAll(text)
+                    matchResults.iterator().forEach {
+                        val username = it.value.removePrefix("@")
+                        if (!usernames.contains(username) && currentUsername != username && !specialMentions.contains(username)) {
+                            usernames.add(username)
                         }
                     }
+                }
 
-                    while (iterator.hasNextKey()) {
-                        val key = iterator.nextKey()
-                        val post = posts.getMap(key)
-                        val userId = post?.getString("user_id")
-                        if (userId != null && userId != currentUserId && !userIdsAlreadyLoaded.contains(userId) && !userIds.contains(userId)) {
-                            userIds.add(userId)
-                        }
+                while (iterator.hasNextKey()) {
+                    val key = iterator.nextKey()
+                    val post = posts.getMap(key)
+                    val userId = post?.getString("user_id")
+                    if (userId != null && userId != currentUserId && !userIdsAlreadyLoaded.contains(userId) && !userIds.contains(userId)) {
+                        userIds.add(userId)
+                    }
 
-                        val message = post?.getString("message")
-                        findNeededUsernames(message)
-                        val props = post?.getMap("props")
-                        val attachments = props?.getArray("attachments")
-                        if (attachments != null) {
-                            for (i in 0 until attachments.size()) {
-                                val attachment = attachments.getMap(i)
-                                attachment?.let {
-                                    val pretext = it.getString("pretext")
-                                    val text = it.getString("text")
-                                    findNeededUsernames(pretext)
-                                    findNeededUsernames(text)
-                                }
+                    val message = post?.getString("message")
+                    findNeededUsernames(message)
+                    val props = post?.getMap("props")
+                    val attachments = props?.getArray("attachments")
+                    if (attachments != null) {
+                        for (i in 0 until attachments.size()) {
+                            val attachment = attachments.getMap(i)
+                            attachment?.let {
+                                val pretext = it.getString("pretext")
+                                val text = it.getString("text")
+                                findNeededUsernames(pretext)
+                                findNeededUsernames(text)
                             }
                         }
+                    }
 
 
-                        if (isCRTEnabled) {
-                            // Add root post as a thread
-                            val threadId = post?.getString("root_id")
-                            if (threadId.isNullOrEmpty()) {
-                                post?.let {
-                                    val thread = Arguments.createMap()
-                                    thread.putString("id", it.getString("id"))
-                                    thread.putInt("reply_count", it.getInt("reply_count"))
-                                    thread.putDouble("last_reply_at", 0.0)
-                                    thread.putDouble("last_viewed_at", 0.0)
-                                    thread.putArray("participants", it.getArray("participants"))
-                                    thread.putMap("post", it)
-                                    thread.putBoolean("is_following", try {
-                                        it.getBoolean("is_following")
-                                    } catch (e: NoSuchKeyException) {
-                                        false
-                                    })
-                                    thread.putInt("unread_replies", 0)
-                                    thread.putInt("unread_mentions", 0)
-                                    thread.putDouble("delete_at", it.getDouble("delete_at"))
-                                    threads.pushMap(thread)
-                                }
+                    if (isCRTEnabled) {
+                        // Add root post as a thread
+                        val threadId = post?.getString("root_id")
+                        if (threadId.isNullOrEmpty()) {
+                            post?.let {
+                                val thread = Arguments.createMap()
+                                thread.putString("id", it.getString("id"))
+                                thread.putInt("reply_count", it.getInt("reply_count"))
+                                thread.putDouble("last_reply_at", 0.0)
+                                thread.putDouble("last_viewed_at", 0.0)
+                                thread.putArray("participants", it.getArray("participants"))
+                                thread.putMap("post", it)
+                                thread.putBoolean("is_following", try {
+                                    it.getBoolean("is_following")
+                                } catch (e: NoSuchKeyException) {
+                                    false
+                                })
+                                thread.putInt("unread_replies", 0)
+                                thread.putInt("unread_mentions", 0)
+                                thread.putDouble("delete_at", it.getDouble("delete_at"))
+                                threads.pushMap(thread)
                             }
+                        }
 
-                            // Add participant userIds and usernames to exclude them from getting fetched again
-                            val participants = post?.getArray("participants")
-                            participants?.let {
-                                for (i in 0 until it.size()) {
-                                    val participant = it.getMap(i)
-                                    participant?.let { p ->
-                                        val participantId = p.getString("id")
-                                        if (participantId != currentUserId && participantId != null) {
-                                            if (!threadParticipantUserIds.contains(participantId) && !userIdsAlreadyLoaded.contains(participantId)) {
-                                                threadParticipantUserIds.add(participantId)
-                                            }
-
-                                            if (!threadParticipantUsers.containsKey(participantId)) {
-                                                threadParticipantUsers[participantId] = p
-                                            }
+                        // Add participant userIds and usernames to exclude them from getting fetched again
+                        val participants = post?.getArray("participants")
+                        participants?.let {
+                            for (i in 0 until it.size()) {
+                                val participant = it.getMap(i)
+                                participant?.let { p ->
+                                    val participantId = p.getString("id")
+                                    if (participantId != currentUserId && participantId != null) {
+                                        if (!threadParticipantUserIds.contains(participantId) && !userIdsAlreadyLoaded.contains(participantId)) {
+                                            threadParticipantUserIds.add(participantId)
                                         }
 
-                                        val username = p.getString("username")
-                                        if (username != null && username != currentUsername && !threadParticipantUsernames.contains(username)) {
-                                            threadParticipantUsernames.add(username)
+                                        if (!threadParticipantUsers.containsKey(participantId)) {
+                                            threadParticipantUsers[participantId] = p
                                         }
                                     }
+
+                                    val username = p.getString("username")
+                                    if (username != null && username != currentUsername && !threadParticipantUsernames.contains(username)) {
+                                        threadParticipantUsernames.add(username)
+                                    }
                                 }
                             }
                         }
                     }
+                }
 
-                    val existingUserIds = queryIds(db, "User", userIds.toTypedArray())
-                    val existingUsernames = queryByColumn(db, "User", "username", usernames.toTypedArray())
-                    userIds.removeAll { it in existingUserIds }
-                    usernames.removeAll { it in existingUsernames }
-
-                    if (threadParticipantUserIds.size > 0) {
-                        // Do not fetch users found in thread participants as we get the user's data in the posts response already
-                        userIds.removeAll { it in threadParticipantUserIds }
-                        usernames.removeAll { it in threadParticipantUsernames }
+                val existingUserIds = queryIds(db, "User", userIds.toTypedArray())
+                val existingUsernames = queryByColumn(db, "User", "username", usernames.toTypedArray())
+                userIds.removeAll { it in existingUserIds }
+                usernames.removeAll { it in existingUsernames }
 
-                        // Get users from thread participants
-                        val existingThreadParticipantUserIds = queryIds(db, "User", threadParticipantUserIds.toTypedArray())
+                if (threadParticipantUserIds.size > 0) {
+                    // Do not fetch users found in thread participants as we get the user's data in the posts response already
+                    userIds.removeAll { it in threadParticipantUserIds }
+                    usernames.removeAll { it in threadParticipantUsernames }
 
-                        // Exclude the thread participants already present in the DB from getting inserted again
-                        val usersFromThreads = WritableNativeArray()
-                        threadParticipantUsers.forEach { (userId, user) ->
-                            if (!existingThreadParticipantUserIds.contains(userId)) {
-                                usersFromThreads.pushMap(user)
-                            }
-                        }
+                    // Get users from thread participants
+                    val existingThreadParticipantUserIds = queryIds(db, "User", threadParticipantUserIds.toTypedArray())
 
-                        if (usersFromThreads.size() > 0) {
-                            results.putArray("usersFromThreads", usersFromThreads)
+                    // Exclude the thread participants already present in the DB from getting inserted again
+                    val usersFromThreads = WritableNativeArray()
+                    threadParticipantUsers.forEach { (userId, user) ->
+                        if (!existingThreadParticipantUserIds.contains(userId)) {
+                            usersFromThreads.pushMap(user)
                         }
                     }
 
-                    if (userIds.size > 0) {
-                        results.putArray("userIdsToLoad", ReadableArrayUtils.toWritableArray(userIds.toTypedArray()))
+                    if (usersFromThreads.size() > 0) {
+                        results.putArray("usersFromThreads", usersFromThreads)
                     }
+                }
 
-                    if (usernames.size > 0) {
-                        results.putArray("usernamesToLoad", ReadableArrayUtils.toWritableArray(usernames.toTypedArray()))
-                    }
+                if (userIds.size > 0) {
+                    results.putArray("userIdsToLoad", ReadableArrayUtils.toWritableArray(userIds.toTypedArray()))
+                }
 
-                    if (threads.size() > 0) {
-                        results.putArray("threads", threads)
-                    }
+                if (usernames.size > 0) {
+                    results.putArray("usernamesToLoad", ReadableArrayUtils.toWritableArray(usernames.toTypedArray()))
+                }
+
+                if (threads.size() > 0) {
+                    results.putArray("threads", threads)
                 }
             }
         }
-        results
+        PostsResult(results, postsJson)
     } catch (e: Exception) {
         e.printStackTrace()
         null
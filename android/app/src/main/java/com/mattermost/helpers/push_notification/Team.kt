@@ -5,22 +5,25 @@ import com.mattermost.helpers.PushNotificationDataRunnable
 import com.mattermost.helpers.database_extension.findMyTeam
 import com.mattermost.helpers.database_extension.findTeam
 import com.nozbe.watermelondb.WMDatabase
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 
 suspend fun PushNotificationDataRunnable.Companion.fetchTeamIfNeeded(db: WMDatabase, serverUrl: String, teamId: String): Pair<ReadableMap?, ReadableMap?> {
     return try {
-        var team: ReadableMap? = null
-        var myTeam: ReadableMap? = null
         val teamExists = findTeam(db, teamId)
         val myTeamExists = findMyTeam(db, teamId)
-        if (!teamExists) {
-            team = fetch(serverUrl, "/api/v4/teams/$teamId")
-        }
 
-        if (!myTeamExists) {
-            myTeam = fetch(serverUrl, "/api/v4/teams/$teamId/members/me")
-        }
+        // The team and the membership are independent of each other, request both at once
+        coroutineScope {
+            val team = async {
+                if (!teamExists) fetchMap(serverUrl, "/api/v4/teams/$teamId", conditional = true) else null
+            }
+            val myTeam = async {
+                if (!myTeamExists) fetchMap(serverUrl, "/api/v4/teams/$teamId/members/me", conditional = true) else null
+            }
 
-        Pair(team, myTeam)
+            Pair(team.await(), myTeam.await())
+        }
     } catch (e: Exception) {
         e.printStackTrace()
         Pair(null, null)
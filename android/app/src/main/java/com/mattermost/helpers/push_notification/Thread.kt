@@ -10,8 +10,7 @@ internal suspend fun PushNotificationDataRunnable.Companion.fetchThread(db: WMDa
     val threadTeamId = (if (teamId.isNullOrEmpty()) queryCurrentTeamId(db) else teamId) ?: return null
 
     return try {
-        val thread = fetch(serverUrl, "/api/v4/users/$currentUserId/teams/${threadTeamId}/threads/$threadId")
-        thread?.getMap("data")
+        fetchMap(serverUrl, "/api/v4/users/$currentUserId/teams/${threadTeamId}/threads/$threadId")
     } catch (e: Exception) {
         e.printStackTrace()
         null
@@ -1,6 +1,5 @@
 package com.mattermost.helpers.push_notification
 
-import com.facebook.react.bridge.Arguments
 import com.facebook.react.bridge.ReadableArray
 import com.facebook.react.bridge.ReadableMap
 import com.mattermost.helpers.PushNotificationDataRunnable
@@ -8,11 +7,7 @@ import com.mattermost.helpers.ReadableArrayUtils
 
 internal suspend fun PushNotificationDataRunnable.Companion.fetchUsersById(serverUrl: String, userIds: ReadableArray): ReadableArray? {
     return try {
-        val endpoint = "api/v4/users/ids"
-        val options = Arguments.createMap()
-        options.putArray("body", ReadableArrayUtils.toWritableArray(ReadableArrayUtils.toArray(userIds)))
-        val result = fetchWithPost(serverUrl, endpoint, options)
-        result?.getArray("data")
+        postForArray(serverUrl, "api/v4/users/ids", ReadableArrayUtils.toArray(userIds).toList())
     } catch (e: Exception) {
         e.printStackTrace()
         null
@@ -21,11 +16,7 @@ internal suspend fun PushNotificationDataRunnable.Companion.fetchUsersById(serve
 
 internal suspend fun PushNotificationDataRunnable.Companion.fetchUsersByUsernames(serverUrl: String, usernames: ReadableArray): ReadableArray? {
     return try {
-        val endpoint = "api/v4/users/usernames"
-        val options = Arguments.createMap()
-        options.putArray("body", ReadableArrayUtils.toWritableArray(ReadableArrayUtils.toArray(usernames)))
-        val result = fetchWithPost(serverUrl, endpoint, options)
-        result?.getArray("data")
+        postForArray(serverUrl, "api/v4/users/usernames", ReadableArrayUtils.toArray(usernames).toList())
     } catch (e: Exception) {
         e.printStackTrace()
         null
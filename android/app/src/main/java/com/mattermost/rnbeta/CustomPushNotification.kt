@@ -10,6 +10,7 @@ import com.mattermost.helpers.Network
 import com.mattermost.helpers.PushNotificationDataHelper
 import com.mattermost.helpers.database_extension.getServerUrlForIdentifier
 import com.mattermost.rnutils.helpers.NotificationHelper
+import com.mattermost.rnutils.helpers.PushMetrics
 import com.mattermost.turbolog.TurboLog
 import com.wix.reactnativenotifications.Defs.NOTIFICATION_RECEIVED_EVENT_NAME
 import com.wix.reactnativenotifications.core.AppLaunchHelper
@@ -18,7 +19,10 @@ import com.wix.reactnativenotifications.core.JsIOHelper
 import com.wix.reactnativenotifications.core.NotificationIntentAdapter
 import com.wix.reactnativenotifications.core.notification.PushNotification
 import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 
 class CustomPushNotification(
@@ -29,6 +33,7 @@ class CustomPushNotification(
         jsIoHelper: JsIOHelper
 ) : PushNotification(context, bundle, appLifecycleFacade, appLaunchHelper, jsIoHelper) {
     private val dataHelper = PushNotificationDataHelper(context)
+    private var receivedAt = 0L
 
     init {
         try {
@@ -41,6 +46,7 @@ class CustomPushNotification(
 
     @OptIn(DelicateCoroutinesApi::class)
     override fun onReceived() {
+        receivedAt = PushMetrics.now()
         val initialData = mNotificationProps.asBundle()
         val type = initialData.getString("type")
         val ackId = initialData.getString("ack_id")
@@ -49,8 +55,10 @@ class CustomPushNotification(
         val signature = initialData.getString("signature")
         val isIdLoaded = initialData.getString("id_loaded") == "true"
         val notificationId = NotificationHelper.getNotificationId(initialData)
+        DatabaseHelper.instance?.refreshLookupCache()
         val serverUrl = addServerUrlToBundle(initialData)
         Network.init(mContext)
+        serverUrl?.let { Network.preconnect(it) }
 
         GlobalScope.launch {
             try {
@@ -70,22 +78,39 @@ class CustomPushNotification(
             notificationId: Int,
             postId: String?,
             signature: String?
-    ) {
-        if (ackId != null && serverUrl != null) {
-            val response = ReceiptDelivery.send(ackId, serverUrl, postId, type, isIdLoaded)
-            if (isIdLoaded && response != null) {
-                val current = mNotificationProps.asBundle()
-                if (!current.containsKey("server_url")) {
-                    response.putString("server_url", serverUrl)
+    ): Unit = coroutineScope {
+        // The signature is checked against the local database while the receipt is on its way, the
+        // ack response is only awaited when the notification content has to be loaded from it
+        val receipt = if (ackId != null && serverUrl != null) {
+            if (isIdLoaded) {
+                async(Dispatchers.IO) {
+                    PushMetrics.trace(PushMetrics.Stage.RECEIPT_DELIVERY) {
+                        ReceiptDelivery.send(mContext, ackId, serverUrl, postId, type, true)
+                    }
                 }
-                current.putAll(response)
-                mNotificationProps = createProps(current)
+            } else {
+                ReceiptDelivery.sendAsync(mContext, ackId, serverUrl, postId, type)
+                null
+            }
+        } else null
+
+        val verified = PushMetrics.trace(PushMetrics.Stage.VERIFY_SIGNATURE) {
+            CustomPushNotificationHelper.verifySignature(mContext, signature, serverUrl, ackId)
+        }
+
+        val response = receipt?.await()
+        if (isIdLoaded && response != null) {
+            val current = mNotificationProps.asBundle()
+            if (!current.containsKey("server_url")) {
+                response.putString("server_url", serverUrl)
             }
+            current.putAll(response)
+            mNotificationProps = createProps(current)
         }
 
-        if (!CustomPushNotificationHelper.verifySignature(mContext, signature, serverUrl, ackId)) {
+        if (!verified) {
             TurboLog.i("Mattermost Notifications Signature verification", "Notification skipped because we could not verify it.")
-            return
+            return@coroutineScope
         }
 
         finishProcessingNotification(serverUrl, type, channelId, notificationId)
@@ -139,6 +164,7 @@ class CustomPushNotification(
     }
 
     private fun buildNotification(notificationId: Int, createSummary: Boolean) {
+        val start = PushMetrics.now()
         val pendingIntent = NotificationIntentAdapter.createPendingNotificationIntent(mContext, mNotificationProps)
         val notification = buildNotification(pendingIntent)
         if (createSummary) {
@@ -146,6 +172,10 @@ class CustomPushNotification(
             super.postNotification(summary, notificationId + 1)
         }
         super.postNotification(notification, notificationId)
+        PushMetrics.record(PushMetrics.Stage.POST_NOTIFICATION, start)
+        if (receivedAt > 0) {
+            PushMetrics.record(PushMetrics.Stage.PUSH_TO_DISPLAY, receivedAt)
+        }
     }
 
     override fun getNotificationBuilder(intent: PendingIntent): NotificationCompat.Builder {
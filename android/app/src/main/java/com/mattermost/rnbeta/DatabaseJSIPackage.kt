@@ -0,0 +1,26 @@
+package com.mattermost.rnbeta
+
+import com.facebook.react.ReactPackage
+import com.facebook.react.bridge.NativeModule
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.uimanager.ViewManager
+import com.mattermost.helpers.DatabaseWriteQueue
+import com.nozbe.watermelondb.jsi.WatermelonDBJSIPackage
+
+/**
+ * Provides the WatermelonDB JSI bridge the app opens its databases with, only once the notification
+ * data queued by the native layer is stored. The modules are created on the React instance thread,
+ * before JavaScript can open a database, so waiting here keeps the main thread free.
+ */
+class DatabaseJSIPackage : ReactPackage {
+    private val delegate = WatermelonDBJSIPackage()
+
+    override fun createNativeModules(reactContext: ReactApplicationContext): List<NativeModule> {
+        DatabaseWriteQueue.awaitFlushAll()
+        return delegate.createNativeModules(reactContext)
+    }
+
+    override fun createViewManagers(reactContext: ReactApplicationContext): List<ViewManager<*, *>> {
+        return delegate.createViewManagers(reactContext)
+    }
+}
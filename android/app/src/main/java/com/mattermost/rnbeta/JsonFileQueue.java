@@ -0,0 +1,117 @@
+package com.mattermost.rnbeta;
+
+import android.content.Context;
+
+import com.mattermost.turbolog.TurboLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entries of a small durable queue, stored as a JSON array in one file of the app's files directory.
+ * <p>
+ * The file is replaced by writing a temporary file and renaming it, so a process killed while writing
+ * leaves the previous entries intact. A file that cannot be parsed is moved aside and kept next to
+ * the queue instead of being written over. Callers serialize the access to a queue.
+ */
+class JsonFileQueue<T> {
+    interface Codec<T> {
+        JSONObject toJson(T entry) throws JSONException;
+
+        T fromJson(JSONObject json) throws JSONException;
+    }
+
+    private final String fileName;
+    private final Codec<T> codec;
+    private boolean unreadable;
+
+    JsonFileQueue(String fileName, Codec<T> codec) {
+        this.fileName = fileName;
+        this.codec = codec;
+    }
+
+    List<T> read(Context context) {
+        List<T> entries = new ArrayList<>();
+        File file = getFile(context);
+        unreadable = false;
+        if (!file.exists()) {
+            return entries;
+        }
+
+        try (FileInputStream input = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = input.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+
+            JSONArray array = new JSONArray(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                entries.add(codec.fromJson(array.getJSONObject(i)));
+            }
+            return entries;
+        } catch (Exception e) {
+            File aside = new File(file.getParentFile(), fileName + ".unreadable-" + System.currentTimeMillis());
+            // Until the file is out of the way nothing is written over it
+            unreadable = !file.renameTo(aside);
+            TurboLog.Companion.e("ReactNative", "Unable to read " + fileName + " " + e.getMessage()
+                    + (unreadable ? ", it could not be moved aside" : ", kept as " + aside.getName()));
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Replaces the stored entries, returns false when they could not be stored and the previous ones are kept.
+     * Nothing is written after a {@link #read} that found a file it could neither parse nor move aside.
+     */
+    boolean write(Context context, List<T> entries) {
+        File file = getFile(context);
+        if (unreadable) {
+            return false;
+        }
+        if (entries.isEmpty()) {
+            return !file.exists() || file.delete();
+        }
+
+        File tmp = new File(file.getParentFile(), fileName + ".tmp");
+        try {
+            JSONArray array = new JSONArray();
+            for (T entry : entries) {
+                array.put(codec.toJson(entry));
+            }
+
+            try (FileOutputStream output = new FileOutputStream(tmp)) {
+                output.write(array.toString().getBytes(StandardCharsets.UTF_8));
+                output.getFD().sync();
+            }
+            if (tmp.renameTo(file)) {
+                return true;
+            }
+            TurboLog.Companion.e("ReactNative", "Unable to replace " + fileName);
+        } catch (Exception e) {
+            TurboLog.Companion.e("ReactNative", "Unable to store " + fileName + " " + e.getMessage());
+        }
+        tmp.delete();
+        return false;
+    }
+
+    boolean exists(Context context) {
+        return getFile(context).exists();
+    }
+
+    private File getFile(Context context) {
+        return new File(context.getFilesDir(), fileName);
+    }
+}
@@ -14,12 +14,14 @@ import com.facebook.react.bridge.UiThreadUtil
 import com.facebook.react.common.ReleaseLevel
 import com.facebook.react.defaults.DefaultNewArchitectureEntryPoint
 import com.facebook.react.modules.network.OkHttpClientProvider
+import com.mattermost.helpers.ConditionalRequestCache
+import com.mattermost.helpers.ServerDatabasePool
 import com.mattermost.networkclient.RCTOkHttpClientFactory
 import com.mattermost.rnshare.helpers.RealPathUtil
+import com.mattermost.rnutils.helpers.Notifications
 import com.mattermost.turbolog.TurboLog
 import com.mattermost.turbolog.ConfigureOptions
 import io.sentry.react.RNSentrySDK
-import com.nozbe.watermelondb.jsi.WatermelonDBJSIPackage
 import com.wix.reactnativenotifications.core.AppLaunchHelper
 import com.wix.reactnativenotifications.core.AppLifecycleFacade
 import com.wix.reactnativenotifications.core.JsIOHelper
@@ -41,7 +43,7 @@ class MainApplication : Application(), ReactApplication, INotificationsApplicati
         ExpoReactHostFactory.getDefaultReactHost(
             context = applicationContext,
             packageList = PackageList(this).packages.apply {
-                add(WatermelonDBJSIPackage())
+                add(DatabaseJSIPackage())
             },
             jsMainModulePath = "index"
         )
@@ -66,6 +68,13 @@ class MainApplication : Application(), ReactApplication, INotificationsApplicati
         OkHttpClientProvider.setOkHttpClientFactory(RCTOkHttpClientFactory())
         ExpoImageOkHttpClientGlideModule.okHttpClient = RCTOkHttpClientFactory().createNewNetworkModuleClient()
 
+        // Responses cached for the conditional requests of the push notifications belong to the session,
+        // they are dropped on logout or when the server is removed, along with the pooled database handle
+        Notifications.serverRemovedListener = { serverUrl ->
+            ConditionalRequestCache.clear(this, serverUrl)
+            ServerDatabasePool.invalidate(serverUrl)
+        }
+
         loadReactNative(this)
         ApplicationLifecycleDispatcher.onApplicationCreate(this)
     }
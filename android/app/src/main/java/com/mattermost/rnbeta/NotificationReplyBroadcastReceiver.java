@@ -9,24 +9,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.Person;
 
-import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.ReadableMap;
-import com.facebook.react.bridge.WritableMap;
-
 import com.mattermost.helpers.*;
-import com.mattermost.turbolog.TurboLog;
 import com.wix.reactnativenotifications.core.NotificationIntentAdapter;
 import com.wix.reactnativenotifications.core.notification.PushNotificationProps;
 
 public class NotificationReplyBroadcastReceiver extends BroadcastReceiver {
     private Context mContext;
     private Bundle bundle;
-    private NotificationManager notificationManager;
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -38,11 +30,9 @@ public class NotificationReplyBroadcastReceiver extends BroadcastReceiver {
 
             mContext = context;
             bundle = intent.getBundleExtra(CustomPushNotificationHelper.NOTIFICATION);
-            notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
             final int notificationId = intent.getIntExtra(CustomPushNotificationHelper.NOTIFICATION_ID, -1);
             final String serverUrl = bundle.getString("server_url");
-            Network.init(context);
             if (serverUrl != null) {
                     replyToMessage(serverUrl, notificationId, message);
             } else {
@@ -66,55 +56,9 @@ public class NotificationReplyBroadcastReceiver extends BroadcastReceiver {
             return;
         }
 
-        WritableMap headers = Arguments.createMap();
-        headers.putString("Content-Type", "application/json");
-
-        WritableMap body = Arguments.createMap();
-        body.putString("channel_id", channelId);
-        body.putString("message", message.toString());
-        body.putString("root_id", rootId);
-
-        WritableMap options = Arguments.createMap();
-        options.putMap("headers", headers);
-        options.putMap("body", body);
-
-        String postsEndpoint = "/api/v4/posts?set_online=false";
-        Network.post(serverUrl, postsEndpoint, options, new ResolvePromise() {
-            private boolean isSuccessful(int statusCode) {
-                return statusCode >= 200 && statusCode < 300;
-            }
-            @Override
-            public void resolve(@Nullable Object value) {
-                if (value != null) {
-                    ReadableMap response = (ReadableMap)value;
-                    ReadableMap data = response.getMap("data");
-                    if (data != null && data.hasKey("status_code") && !isSuccessful(data.getInt("status_code"))) {
-                        TurboLog.Companion.i("ReactNative", String.format("Reply FAILED exception %s", data.getString("message")));
-                        onReplyFailed(notificationId);
-                        return;
-                    }
-                    onReplySuccess(notificationId, message);
-                    TurboLog.Companion.i("ReactNative", "Reply SUCCESS");
-                } else {
-                    TurboLog.Companion.i("ReactNative", "Reply FAILED resolved without value");
-                    onReplyFailed(notificationId);
-                }
-            }
-
-            @Override
-            public void reject(@NonNull Throwable reason) {
-                TurboLog.Companion.i("ReactNative", String.format("Reply FAILED exception %s", reason.getMessage()));
-                onReplyFailed(notificationId);
-            }
-
-            @Override
-            public void reject(@NonNull String code, String message) {
-                TurboLog.Companion.i("ReactNative",
-                        String.format("Reply FAILED status %s BODY %s", code, message)
-                );
-                onReplyFailed(notificationId);
-            }
-        });
+        // The reply shows up right away while the outbox delivers it, a failure replaces it later
+        onReplySuccess(notificationId, message);
+        ReplyOutbox.enqueue(mContext, serverUrl, channelId, rootId, message.toString(), notificationId, bundle);
     }
 
     protected void onReplyFailed(int notificationId) {
@@ -126,9 +70,14 @@ public class NotificationReplyBroadcastReceiver extends BroadcastReceiver {
     }
 
     private void recreateNotification(int notificationId, final CharSequence message) {
+        recreateNotification(mContext, bundle, notificationId, message);
+    }
+
+    static void recreateNotification(Context context, Bundle bundle, int notificationId, final CharSequence message) {
+        final NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
         final PushNotificationProps notificationProps = new PushNotificationProps(bundle);
-        final PendingIntent pendingIntent = NotificationIntentAdapter.createPendingNotificationIntent(mContext, notificationProps);
-        NotificationCompat.Builder builder = CustomPushNotificationHelper.createNotificationBuilder(mContext, pendingIntent, bundle, false);
+        final PendingIntent pendingIntent = NotificationIntentAdapter.createPendingNotificationIntent(context, notificationProps);
+        NotificationCompat.Builder builder = CustomPushNotificationHelper.createNotificationBuilder(context, pendingIntent, bundle, false);
         Notification notification =  builder.build();
         NotificationCompat.MessagingStyle messagingStyle = NotificationCompat.MessagingStyle.extractMessagingStyleFromNotification(notification);
         assert messagingStyle != null;
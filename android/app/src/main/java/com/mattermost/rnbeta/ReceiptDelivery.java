@@ -1,49 +1,59 @@
 package com.mattermost.rnbeta;
 
+import android.content.Context;
 import android.os.Bundle;
 
+import java.io.IOException;
 import java.lang.System;
-import java.util.Objects;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.json.JSONObject;
 
-import com.facebook.react.bridge.Arguments;
-
-import com.facebook.react.bridge.WritableMap;
 import com.mattermost.helpers.*;
+import com.mattermost.rnutils.helpers.PushMetrics;
 import com.mattermost.turbolog.TurboLog;
 
-import okhttp3.Response;
-
 public class ReceiptDelivery {
     private static final String[] ackKeys = new String[]{"post_id", "root_id", "category", "message", "team_id", "channel_id", "channel_name", "type", "sender_id", "sender_name", "version"};
 
-    public static Bundle send(final String ackId, final String serverUrl, final String postId, final String type, final boolean isIdLoaded) {
+    // Acks of a burst are sent concurrently and share the pooled connection to the server
+    private static final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    /**
+     * Sends the receipt and waits for the server response, needed when the notification is id loaded.
+     * A receipt that could not reach the server is kept to be retried with the next one delivered.
+     */
+    public static Bundle send(final Context context, final String ackId, final String serverUrl, final String postId, final String type, final boolean isIdLoaded) {
         TurboLog.Companion.i("ReactNative", String.format("Send receipt delivery ACK=%s TYPE=%s to URL=%s with ID-LOADED=%s", ackId, type, serverUrl, isIdLoaded));
-        WritableMap options = Arguments.createMap();
-        WritableMap headers = Arguments.createMap();
-        WritableMap body = Arguments.createMap();
-        headers.putString("Content-Type", "application/json");
-        options.putMap("headers", headers);
-        body.putString("id", ackId);
-        body.putDouble("received_at", System.currentTimeMillis());
-        body.putString("platform", "android");
-        body.putString("type", type);
-        body.putString("post_id", postId);
-        body.putBoolean("is_id_loaded", isIdLoaded);
-        options.putMap("body", body);
-
-        try (Response response = Network.postSync(serverUrl, "api/v4/notifications/ack", options)) {
-            String responseBody = Objects.requireNonNull(response.body()).string();
-            JSONObject jsonResponse = new JSONObject(responseBody);
+        long receivedAt = System.currentTimeMillis();
+        try {
+            JSONObject jsonResponse = deliver(ackId, serverUrl, postId, type, isIdLoaded, receivedAt);
+            retryPending(context);
             return parseAckResponse(jsonResponse);
         } catch (Exception e) {
             TurboLog.Companion.e("ReactNative", "Send receipt delivery failed " + e.getMessage());
             e.printStackTrace();
+            if (isRetryable(e)) {
+                ReceiptRetryQueue.add(context, ackId, serverUrl, postId, type, isIdLoaded, receivedAt, 0);
+            }
             return null;
         }
     }
 
+    /**
+     * Sends the receipt in the background, for notifications that do not need the ack response.
+     */
+    public static void sendAsync(final Context context, final String ackId, final String serverUrl, final String postId, final String type) {
+        executor.execute(() -> {
+            long start = PushMetrics.now();
+            send(context, ackId, serverUrl, postId, type, false);
+            PushMetrics.record(PushMetrics.Stage.RECEIPT_DELIVERY, start);
+        });
+    }
+
     public static Bundle parseAckResponse(JSONObject jsonResponse) {
         try {
             Bundle bundle = new Bundle();
@@ -58,4 +68,41 @@ public class ReceiptDelivery {
             return null;
         }
     }
+
+    private static JSONObject deliver(final String ackId, final String serverUrl, final String postId, final String type, final boolean isIdLoaded, final long receivedAt) throws Exception {
+        JSONObject body = new JSONObject();
+        body.put("id", ackId);
+        body.put("received_at", receivedAt);
+        body.put("platform", "android");
+        body.put("type", type);
+        body.put("post_id", postId);
+        body.put("is_id_loaded", isIdLoaded);
+        Network.RequestOptions options = new Network.RequestOptions(Collections.singletonMap("Content-Type", "application/json"), body);
+
+        Network.NetworkResponse response = Network.execute(Network.Method.POST, serverUrl, "api/v4/notifications/ack", options);
+        if (response.getCode() >= 500) {
+            throw new IOException("Unexpected code " + response.getCode());
+        }
+        return new JSONObject(response.string());
+    }
+
+    private static boolean isRetryable(Exception e) {
+        // Anything else is a response the server will keep giving us
+        return e instanceof IOException;
+    }
+
+    private static void retryPending(final Context context) {
+        List<ReceiptRetryQueue.Entry> pending = ReceiptRetryQueue.drain(context);
+        for (ReceiptRetryQueue.Entry entry : pending) {
+            executor.execute(() -> {
+                try {
+                    deliver(entry.ackId, entry.serverUrl, entry.postId, entry.type, entry.isIdLoaded, entry.receivedAt);
+                } catch (Exception e) {
+                    if (isRetryable(e)) {
+                        ReceiptRetryQueue.add(context, entry.ackId, entry.serverUrl, entry.postId, entry.type, entry.isIdLoaded, entry.receivedAt, entry.attempts + 1);
+                    }
+                }
+            });
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package com.mattermost.rnbeta;
+
+import android.content.Context;
+
+import com.mattermost.turbolog.TurboLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small file backed queue of delivery receipts that could not reach the server, they are sent again
+ * the next time a receipt is delivered. The queue keeps the newest {@link #MAX_ENTRIES} receipts and
+ * drops those older than {@link #MAX_AGE_MS} or that already failed {@link #MAX_ATTEMPTS} times.
+ */
+class ReceiptRetryQueue {
+    private static final String FILE_NAME = "receipt_retry_queue.json";
+    private static final int MAX_ENTRIES = 50;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+    private static final JsonFileQueue<Entry> QUEUE = new JsonFileQueue<>(FILE_NAME, new JsonFileQueue.Codec<Entry>() {
+        @Override
+        public JSONObject toJson(Entry entry) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("ack_id", entry.ackId);
+            json.put("server_url", entry.serverUrl);
+            json.put("post_id", entry.postId);
+            json.put("type", entry.type);
+            json.put("is_id_loaded", entry.isIdLoaded);
+            json.put("received_at", entry.receivedAt);
+            json.put("attempts", entry.attempts);
+            return json;
+        }
+
+        @Override
+        public Entry fromJson(JSONObject json) throws JSONException {
+            return new Entry(
+                    json.getString("ack_id"),
+                    json.getString("server_url"),
+                    json.optString("post_id", null),
+                    json.optString("type", null),
+                    json.optBoolean("is_id_loaded"),
+                    json.getLong("received_at"),
+                    json.optInt("attempts")
+            );
+        }
+    });
+
+    static class Entry {
+        final String ackId;
+        final String serverUrl;
+        final String postId;
+        final String type;
+        final boolean isIdLoaded;
+        final long receivedAt;
+        final int attempts;
+
+        Entry(String ackId, String serverUrl, String postId, String type, boolean isIdLoaded, long receivedAt, int attempts) {
+            this.ackId = ackId;
+            this.serverUrl = serverUrl;
+            this.postId = postId;
+            this.type = type;
+            this.isIdLoaded = isIdLoaded;
+            this.receivedAt = receivedAt;
+            this.attempts = attempts;
+        }
+    }
+
+    static synchronized void add(Context context, String ackId, String serverUrl, String postId, String type, boolean isIdLoaded, long receivedAt, int attempts) {
+        if (attempts >= MAX_ATTEMPTS) {
+            TurboLog.Companion.w("ReactNative", "Dropping receipt delivery ACK=" + ackId + " after " + attempts + " attempts");
+            return;
+        }
+
+        List<Entry> entries = QUEUE.read(context);
+        entries.add(new Entry(ackId, serverUrl, postId, type, isIdLoaded, receivedAt, attempts));
+        while (entries.size() > MAX_ENTRIES) {
+            entries.remove(0);
+        }
+        QUEUE.write(context, entries);
+    }
+
+    static synchronized List<Entry> drain(Context context) {
+        if (!QUEUE.exists(context)) {
+            return new ArrayList<>();
+        }
+
+        List<Entry> entries = QUEUE.read(context);
+        QUEUE.write(context, new ArrayList<>());
+
+        long now = System.currentTimeMillis();
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (now - entry.receivedAt < MAX_AGE_MS) {
+                pending.add(entry);
+            }
+        }
+        return pending;
+    }
+}
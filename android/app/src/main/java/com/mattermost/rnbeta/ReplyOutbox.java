@@ -0,0 +1,196 @@
+package com.mattermost.rnbeta;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.mattermost.turbolog.TurboLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File backed outbox of the replies sent from a notification, they stay in it until the server
+ * accepts them or they are given up on. Each reply gets its pending_post_id when it is added and sends
+ * it on every attempt. The server only remembers a pending_post_id for about 30 seconds, so it
+ * deduplicates a quick retry after a lost response, but a later retry of a reply the server did
+ * create posts it a second time.
+ * <p>
+ * The replies of a server are sent in order by a single {@link ReplyOutboxWorker}, a reply added while
+ * one is pending is appended to its unique work instead of starting another.
+ */
+class ReplyOutbox {
+    private static final String FILE_NAME = "reply_outbox.json";
+    private static final String WORK_NAME_PREFIX = "reply_outbox_";
+    private static final long INITIAL_BACKOFF_SECONDS = 10;
+    private static final JsonFileQueue<Entry> OUTBOX = new JsonFileQueue<>(FILE_NAME, new JsonFileQueue.Codec<Entry>() {
+        @Override
+        public JSONObject toJson(Entry entry) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("pending_post_id", entry.pendingPostId);
+            json.put("server_url", entry.serverUrl);
+            json.put("channel_id", entry.channelId);
+            json.put("root_id", entry.rootId);
+            json.put("message", entry.message);
+            json.put("notification_id", entry.notificationId);
+            json.put("notification", ReplyOutbox.toJson(entry.notification));
+            json.put("created_at", entry.createdAt);
+            json.put("attempts", entry.attempts);
+            return json;
+        }
+
+        @Override
+        public Entry fromJson(JSONObject json) throws JSONException {
+            return new Entry(
+                    json.getString("pending_post_id"),
+                    json.getString("server_url"),
+                    json.getString("channel_id"),
+                    json.optString("root_id", ""),
+                    json.getString("message"),
+                    json.optInt("notification_id", -1),
+                    toBundle(json.optJSONObject("notification")),
+                    json.getLong("created_at"),
+                    json.optInt("attempts")
+            );
+        }
+    });
+
+    static class Entry {
+        final String pendingPostId;
+        final String serverUrl;
+        final String channelId;
+        final String rootId;
+        final String message;
+        final int notificationId;
+        final Bundle notification;
+        final long createdAt;
+        final int attempts;
+
+        Entry(String pendingPostId, String serverUrl, String channelId, String rootId, String message, int notificationId, Bundle notification, long createdAt, int attempts) {
+            this.pendingPostId = pendingPostId;
+            this.serverUrl = serverUrl;
+            this.channelId = channelId;
+            this.rootId = rootId;
+            this.message = message;
+            this.notificationId = notificationId;
+            this.notification = notification;
+            this.createdAt = createdAt;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Stores the reply and schedules its delivery once the device is online.
+     */
+    static void enqueue(Context context, String serverUrl, String channelId, String rootId, String message, int notificationId, Bundle notification) {
+        String pendingPostId = UUID.randomUUID().toString();
+        add(context, new Entry(pendingPostId, serverUrl, channelId, rootId, message, notificationId, notification, System.currentTimeMillis(), 0));
+        TurboLog.Companion.i("ReactNative", "Reply queued PENDING_POST_ID=" + pendingPostId + " to URL=" + serverUrl);
+
+        Data inputData = new Data.Builder()
+                .putString(ReplyOutboxWorker.SERVER_URL, serverUrl)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ReplyOutboxWorker.class)
+                .setInputData(inputData)
+                .setConstraints(new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, INITIAL_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME_PREFIX + serverUrl, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    static synchronized void add(Context context, Entry entry) {
+        List<Entry> entries = OUTBOX.read(context);
+        entries.add(entry);
+        OUTBOX.write(context, entries);
+    }
+
+    /**
+     * The replies waiting to be sent to the server, oldest first.
+     */
+    static synchronized List<Entry> pending(Context context, String serverUrl) {
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : OUTBOX.read(context)) {
+            if (entry.serverUrl.equals(serverUrl)) {
+                pending.add(entry);
+            }
+        }
+        return pending;
+    }
+
+    static synchronized void remove(Context context, String pendingPostId) {
+        List<Entry> entries = OUTBOX.read(context);
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().pendingPostId.equals(pendingPostId)) {
+                iterator.remove();
+            }
+        }
+        OUTBOX.write(context, entries);
+    }
+
+    static synchronized void incrementAttempts(Context context, String pendingPostId) {
+        List<Entry> entries = OUTBOX.read(context);
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.pendingPostId.equals(pendingPostId)) {
+                entries.set(i, new Entry(entry.pendingPostId, entry.serverUrl, entry.channelId, entry.rootId, entry.message,
+                        entry.notificationId, entry.notification, entry.createdAt, entry.attempts + 1));
+            }
+        }
+        OUTBOX.write(context, entries);
+    }
+
+    // Only the string, boolean and nested bundle values are needed to rebuild the notification
+    private static JSONObject toJson(Bundle bundle) throws JSONException {
+        JSONObject json = new JSONObject();
+        if (bundle == null) {
+            return json;
+        }
+
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                json.put(key, toJson((Bundle) value));
+            } else if (value instanceof String || value instanceof Boolean) {
+                json.put(key, value);
+            }
+        }
+        return json;
+    }
+
+    private static Bundle toBundle(JSONObject json) {
+        Bundle bundle = new Bundle();
+        if (json == null) {
+            return bundle;
+        }
+
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.opt(key);
+            if (value instanceof JSONObject) {
+                bundle.putBundle(key, toBundle((JSONObject) value));
+            } else if (value instanceof Boolean) {
+                bundle.putBoolean(key, (Boolean) value);
+            } else if (value instanceof String) {
+                bundle.putString(key, (String) value);
+            }
+        }
+        return bundle;
+    }
+}
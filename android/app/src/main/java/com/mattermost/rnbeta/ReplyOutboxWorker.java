@@ -0,0 +1,101 @@
+package com.mattermost.rnbeta;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.mattermost.helpers.*;
+import com.mattermost.turbolog.TurboLog;
+
+/**
+ * Sends the replies of the {@link ReplyOutbox} queued for one server. They go out one after the other
+ * in the order they were written, reusing the connection the network client keeps to the server, and
+ * the worker stops at the first one that can be retried so a later reply is never posted before it.
+ */
+public class ReplyOutboxWorker extends Worker {
+    static final String SERVER_URL = "server_url";
+    private static final String POSTS_ENDPOINT = "/api/v4/posts?set_online=false";
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+    public ReplyOutboxWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        final Context context = getApplicationContext();
+        final String serverUrl = getInputData().getString(SERVER_URL);
+        if (serverUrl == null) {
+            return Result.failure();
+        }
+
+        Network.init(context);
+        List<ReplyOutbox.Entry> pending;
+        while (!(pending = ReplyOutbox.pending(context, serverUrl)).isEmpty()) {
+            ReplyOutbox.Entry entry = pending.get(0);
+            if (System.currentTimeMillis() - entry.createdAt > MAX_AGE_MS) {
+                giveUp(context, entry);
+                continue;
+            }
+
+            try {
+                int statusCode = send(entry);
+                if (statusCode >= 200 && statusCode < 300) {
+                    TurboLog.Companion.i("ReactNative", "Reply SUCCESS PENDING_POST_ID=" + entry.pendingPostId);
+                    ReplyOutbox.remove(context, entry.pendingPostId);
+                    continue;
+                }
+
+                if (!isRetryable(statusCode)) {
+                    TurboLog.Companion.i("ReactNative", String.format("Reply FAILED status %s", statusCode));
+                    giveUp(context, entry);
+                    continue;
+                }
+                TurboLog.Companion.i("ReactNative", String.format("Reply will be retried status %s", statusCode));
+            } catch (Exception e) {
+                TurboLog.Companion.i("ReactNative", String.format("Reply will be retried exception %s", e.getMessage()));
+            }
+
+            if (entry.attempts + 1 >= MAX_ATTEMPTS) {
+                giveUp(context, entry);
+                continue;
+            }
+            ReplyOutbox.incrementAttempts(context, entry.pendingPostId);
+            return Result.retry();
+        }
+
+        return Result.success();
+    }
+
+    private int send(ReplyOutbox.Entry entry) throws Exception {
+        JSONObject body = new JSONObject();
+        body.put("channel_id", entry.channelId);
+        body.put("message", entry.message);
+        body.put("root_id", entry.rootId);
+        // Within about 30 seconds of creating a post the server answers a repeat of its id with that post
+        body.put("pending_post_id", entry.pendingPostId);
+        Network.RequestOptions options = new Network.RequestOptions(Collections.singletonMap("Content-Type", "application/json"), body);
+
+        return Network.execute(Network.Method.POST, entry.serverUrl, POSTS_ENDPOINT, options).getCode();
+    }
+
+    private boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    private void giveUp(Context context, ReplyOutbox.Entry entry) {
+        ReplyOutbox.remove(context, entry.pendingPostId);
+        if (entry.notificationId != -1) {
+            NotificationReplyBroadcastReceiver.recreateNotification(context, entry.notification, entry.notificationId, "Message failed to send.");
+        }
+    }
+}
@@ -7,7 +7,10 @@ import android.content.Context
 import android.content.Intent
 import android.net.Uri
 import android.os.Build
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
 import androidx.work.Data
+import androidx.work.NetworkType
 import androidx.work.OneTimeWorkRequest
 import androidx.work.WorkManager
 import com.facebook.react.bridge.Arguments
@@ -17,6 +20,7 @@ import com.facebook.react.bridge.ReadableMap
 import com.mattermost.rnshare.helpers.RealPathUtil
 import com.mattermost.rnshare.helpers.toJson
 import java.io.File
+import java.util.concurrent.TimeUnit
 
 class MattermostShareImpl(private val reactContext: ReactApplicationContext) {
     private var tempFolder: File? = null
@@ -67,6 +71,8 @@ class MattermostShareImpl(private val reactContext: ReactApplicationContext) {
 
             val shareWorkerRequest = OneTimeWorkRequest.Builder(ShareWorker::class.java)
                     .setInputData(inputData)
+                    .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                    .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
                     .build()
 
             WorkManager.getInstance(reactContext).enqueue(shareWorkerRequest)
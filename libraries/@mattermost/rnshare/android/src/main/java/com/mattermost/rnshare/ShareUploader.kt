@@ -0,0 +1,241 @@
+package com.mattermost.rnshare
+
+import android.content.ContentResolver
+import android.net.Uri
+import android.os.SystemClock
+import com.mattermost.rnshare.helpers.UploadCheckpoint
+import com.mattermost.rnshare.helpers.UriRequestBody
+import okhttp3.Call
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
+import okhttp3.MultipartBody
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import org.json.JSONObject
+import java.io.IOException
+import java.util.Collections
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Uploads the files of a share request, at most [MAX_PARALLEL_UPLOADS] at a time.
+ *
+ * Files are streamed from their file:// or content:// uri. Those smaller than [CHUNKED_UPLOAD_THRESHOLD]
+ * or with an unknown size are sent in a single request to /api/v4/files, larger ones through an
+ * upload session in chunks of [CHUNK_SIZE] bytes so an interrupted transfer resumes from the offset
+ * the server already has. Every uploaded file and upload session is recorded in the
+ * [checkpoint], a retried worker only sends what is missing.
+ */
+internal class ShareUploader(
+        private val client: OkHttpClient,
+        private val contentResolver: ContentResolver,
+        private val serverUrl: String,
+        private val token: String,
+        private val preauthSecret: String?,
+        private val channelId: String,
+        private val checkpoint: UploadCheckpoint,
+        private val onProgress: (List<FileProgress>) -> Unit
+) {
+    companion object {
+        const val HEADER_X_MATTERMOST_PREAUTH_SECRET = "X-Mattermost-Preauth-Secret"
+        private const val MAX_PARALLEL_UPLOADS = 3
+        private const val CHUNKED_UPLOAD_THRESHOLD = 10L * 1024 * 1024
+        private const val CHUNK_SIZE = 8L * 1024 * 1024
+        private const val PROGRESS_INTERVAL_MS = 500L
+    }
+
+    /**
+     * A file to upload, [size] is -1 when the provider does not know it.
+     */
+    class ShareFile(val index: Int, val name: String, val mime: String, val uri: Uri, val size: Long)
+
+    class FileProgress(val name: String, val uploaded: Long, val total: Long, val done: Boolean)
+
+    /**
+     * Thrown when the server rejects a request, [retryable] tells whether trying again later may work.
+     */
+    class UploadException(message: String, val retryable: Boolean) : IOException(message)
+
+    private val jsonType = "application/json; charset=utf-8".toMediaTypeOrNull()
+    private val octetType = "application/octet-stream".toMediaTypeOrNull()
+    private val calls = Collections.synchronizedSet(HashSet<Call>())
+    private lateinit var files: List<ShareFile>
+    private lateinit var uploaded: AtomicLongArray
+    private lateinit var done: AtomicIntegerArray
+    private var lastProgressAt = 0L
+
+    /**
+     * Uploads [files] and returns their file ids in the same order, throws the first error found
+     * after cancelling the uploads still running.
+     */
+    @Throws(IOException::class)
+    fun upload(files: List<ShareFile>): List<String> {
+        this.files = files
+        uploaded = AtomicLongArray(files.size)
+        done = AtomicIntegerArray(files.size)
+        if (files.isEmpty()) {
+            return emptyList()
+        }
+
+        val executor = Executors.newFixedThreadPool(minOf(MAX_PARALLEL_UPLOADS, files.size))
+        val completion = ExecutorCompletionService<Pair<Int, String>>(executor)
+        try {
+            files.forEachIndexed { position, file -> completion.submit { Pair(position, uploadFile(position, file)) } }
+
+            // Results are taken as they complete so the first failure stops the uploads still running
+            val fileIds = arrayOfNulls<String>(files.size)
+            repeat(files.size) {
+                try {
+                    val (position, fileId) = completion.take().get()
+                    fileIds[position] = fileId
+                } catch (e: ExecutionException) {
+                    executor.shutdownNow()
+                    synchronized(calls) { calls.forEach { it.cancel() } }
+                    throw e.cause as? IOException ?: IOException(e.cause)
+                }
+            }
+            return fileIds.map { it!! }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    fun request(path: String): Request.Builder {
+        val builder = Request.Builder()
+                .header("Authorization", "BEARER $token")
+                .url("$serverUrl$path")
+
+        if (preauthSecret != null) {
+            builder.header(HEADER_X_MATTERMOST_PREAUTH_SECRET, preauthSecret)
+        }
+        return builder
+    }
+
+    @Throws(IOException::class)
+    fun execute(request: Request): Response {
+        val call = client.newCall(request)
+        calls.add(call)
+        try {
+            val response = call.execute()
+            if (!response.isSuccessful) {
+                val code = response.code
+                response.close()
+                throw UploadException("Request to ${request.url.encodedPath} failed with status $code", code >= 500 || code == 408 || code == 429)
+            }
+            return response
+        } finally {
+            calls.remove(call)
+        }
+    }
+
+    private fun uploadFile(position: Int, shareFile: ShareFile): String {
+        checkpoint.fileId(shareFile.index)?.let {
+            complete(position, shareFile)
+            return it
+        }
+
+        val fileId = if (shareFile.size >= CHUNKED_UPLOAD_THRESHOLD) {
+            uploadInSession(position, shareFile)
+        } else {
+            uploadWhole(position, shareFile)
+        }
+        checkpoint.setFileId(shareFile.index, fileId)
+        complete(position, shareFile)
+        return fileId
+    }
+
+    private fun uploadWhole(position: Int, shareFile: ShareFile): String {
+        val fileBody = UriRequestBody(contentResolver, shareFile.uri, shareFile.mime.toMediaTypeOrNull(), 0, shareFile.size) {
+            updateProgress(position, it)
+        }
+        val body: RequestBody = MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("channel_id", channelId)
+                .addFormDataPart("files", shareFile.name, fileBody)
+                .build()
+
+        execute(request("/api/v4/files").post(body).build()).use { response ->
+            val json = JSONObject(response.body!!.string())
+            return json.getJSONArray("file_infos").getJSONObject(0).getString("id")
+        }
+    }
+
+    private fun uploadInSession(position: Int, shareFile: ShareFile): String {
+        val total = shareFile.size
+        var offset = 0L
+        var uploadId = checkpoint.uploadId(shareFile.index)?.let { id ->
+            offset = sessionOffset(id)
+            // A session that is gone or already complete cannot be resumed
+            if (offset in 0 until total) id else null
+        }
+
+        if (uploadId == null) {
+            offset = 0
+            uploadId = createSession(shareFile)
+            checkpoint.setUploadId(shareFile.index, uploadId)
+        }
+
+        while (offset < total) {
+            val length = minOf(CHUNK_SIZE, total - offset)
+            val body = UriRequestBody(contentResolver, shareFile.uri, octetType, offset, length) {
+                updateProgress(position, it)
+            }
+
+            execute(request("/api/v4/uploads/$uploadId").post(body).build()).use { response ->
+                if (response.code != 204) {
+                    // The server answers with the file info once the last chunk is in
+                    return JSONObject(response.body!!.string()).getString("id")
+                }
+            }
+            offset += length
+        }
+
+        // Every byte was sent without the server completing the session, the next attempt starts a new one
+        throw UploadException("Upload session $uploadId did not complete after $total bytes", true)
+    }
+
+    private fun createSession(shareFile: ShareFile): String {
+        val json = JSONObject()
+                .put("channel_id", channelId)
+                .put("filename", shareFile.name)
+                .put("file_size", shareFile.size)
+
+        execute(request("/api/v4/uploads").post(json.toString().toRequestBody(jsonType)).build()).use { response ->
+            return JSONObject(response.body!!.string()).getString("id")
+        }
+    }
+
+    private fun sessionOffset(uploadId: String): Long {
+        return try {
+            execute(request("/api/v4/uploads/$uploadId").get().build()).use { response ->
+                JSONObject(response.body!!.string()).optLong("file_offset", -1)
+            }
+        } catch (e: UploadException) {
+            if (e.retryable) throw e
+            -1
+        }
+    }
+
+    private fun complete(position: Int, shareFile: ShareFile) {
+        done.set(position, 1)
+        updateProgress(position, maxOf(shareFile.size, 0), true)
+    }
+
+    private fun updateProgress(position: Int, bytes: Long, force: Boolean = false) {
+        uploaded.set(position, maxOf(uploaded.get(position), bytes))
+
+        val now = SystemClock.elapsedRealtime()
+        synchronized(this) {
+            if (!force && now - lastProgressAt < PROGRESS_INTERVAL_MS) {
+                return
+            }
+            lastProgressAt = now
+        }
+        onProgress(files.mapIndexed { i, file -> FileProgress(file.name, uploaded.get(i), file.size, done.get(i) == 1) })
+    }
+}
@@ -29,6 +29,11 @@ object ShareUtils {
     }
 
     fun getFileItem(activity: Activity, uri: Uri): ReadableMap? {
+        if (RealPathUtil.takeReadPermission(activity, uri)) {
+            // The upload streams from the provider, no need for a copy of the content
+            return getContentItem(activity, uri)
+        }
+
         val map = Arguments.createMap()
         val filePath: String = RealPathUtil.getRealPathFromURI(activity, uri)
                 ?: return null
@@ -55,6 +60,36 @@ object ShareUtils {
         return map
     }
 
+    private fun getContentItem(activity: Activity, uri: Uri): ReadableMap {
+        val map = Arguments.createMap()
+        val fileName = RealPathUtil.getDisplayName(activity, uri) ?: "file"
+        var type = RealPathUtil.getMimeTypeFromUri(activity, uri)
+        if (type?.startsWith("image/") == true) {
+            val bitMapOption = BitmapFactory.Options()
+            bitMapOption.inJustDecodeBounds = true
+            try {
+                activity.contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, bitMapOption) }
+            } catch (ignored: Exception) {
+            }
+            map.putInt("height", bitMapOption.outHeight)
+            map.putInt("width", bitMapOption.outWidth)
+        } else if (type?.startsWith("video/") == true) {
+            val cacheDir = File(activity.cacheDir, RealPathUtil.CACHE_DIR_NAME)
+            cacheDir.mkdirs()
+            addVideoThumbnailToMap(cacheDir, activity.applicationContext, map, uri.toString())
+        } else {
+            type = "application/octet-stream"
+        }
+
+        map.putString("value", uri.toString())
+        map.putDouble("size", RealPathUtil.getContentLength(activity, uri).coerceAtLeast(0).toDouble())
+        map.putString("filename", fileName)
+        map.putString("type", type)
+        map.putString("extension", RealPathUtil.getExtension(fileName)?.replaceFirst(".".toRegex(), "") ?: "")
+        map.putBoolean("isString", false)
+        return map
+    }
+
     private fun getImageDimensions(filePath: String): BitmapFactory.Options {
         val bitMapOption = BitmapFactory.Options()
         bitMapOption.inJustDecodeBounds = true
@@ -1,6 +1,7 @@
 package com.mattermost.rnshare.helpers
 
 import android.content.Context
+import android.content.Intent
 import android.net.Uri
 import android.provider.DocumentsContract
 import android.provider.OpenableColumns
@@ -67,6 +68,84 @@ object RealPathUtil {
         return null
     }
 
+    /**
+     * Keeps read access to the content:// [uri] after the share activity is gone, returns false when
+     * the provider does not allow it and the content has to be copied to a temp file instead.
+     *
+     * Only a DocumentsProvider uri granted with FLAG_GRANT_PERSISTABLE_URI_PERMISSION can be kept.
+     * The uris of an ACTION_SEND intent usually come with a grant that ends with the share activity,
+     * and the worker uploading them may run after it, so those are always copied.
+     */
+    fun takeReadPermission(context: Context, uri: Uri): Boolean {
+        if (!"content".equals(uri.scheme, ignoreCase = true) || !DocumentsContract.isDocumentUri(context, uri)) {
+            return false
+        }
+
+        try {
+            context.contentResolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        } catch (e: Exception) {
+            return false
+        }
+
+        try {
+            context.contentResolver.openFileDescriptor(uri, "r")?.let {
+                it.close()
+                return true
+            }
+        } catch (e: Exception) {
+            // not readable as a file, the temp file copy is used
+        }
+        releaseReadPermission(context, uri)
+        return false
+    }
+
+    fun releaseReadPermission(context: Context, uri: Uri) {
+        try {
+            context.contentResolver.releasePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        } catch (e: Exception) {
+            // the permission was never taken or is already gone
+        }
+    }
+
+    fun getDisplayName(context: Context, uri: Uri): String? {
+        try {
+            context.contentResolver.query(uri, arrayOf(OpenableColumns.DISPLAY_NAME), null, null, null)?.use { cursor ->
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    return sanitizeFilename(cursor.getString(0))
+                }
+            }
+        } catch (e: Exception) {
+            // fall back to the last segment of the path
+        }
+        return sanitizeFilename(uri.lastPathSegment?.trim())
+    }
+
+    /**
+     * Returns the size in bytes of the file:// or content:// [uri], or -1 when it is not known.
+     */
+    fun getContentLength(context: Context, uri: Uri): Long {
+        if ("file".equals(uri.scheme, ignoreCase = true)) {
+            val file = File(uri.path ?: return -1)
+            return if (file.exists()) file.length() else -1
+        }
+
+        try {
+            context.contentResolver.openFileDescriptor(uri, "r")?.use { descriptor ->
+                if (descriptor.statSize >= 0) {
+                    return descriptor.statSize
+                }
+            }
+            context.contentResolver.query(uri, arrayOf(OpenableColumns.SIZE), null, null, null)?.use { cursor ->
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    return cursor.getLong(0)
+                }
+            }
+        } catch (e: Exception) {
+            // the size stays unknown
+        }
+        return -1
+    }
+
     private fun getPathFromSavingTempFile(context:Context, uri:Uri): String? {
         val tmpFile:File
         var fileName: String? = null
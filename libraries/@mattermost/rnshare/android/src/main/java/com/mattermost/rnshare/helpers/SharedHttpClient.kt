@@ -0,0 +1,69 @@
+package com.mattermost.rnshare.helpers
+
+import android.content.Context
+import android.util.Base64
+import okhttp3.CertificatePinner
+import okhttp3.OkHttpClient
+import java.io.InputStream
+import java.security.MessageDigest
+import java.security.cert.CertificateFactory
+import java.security.cert.X509Certificate
+
+/**
+ * Process wide OkHttpClient used by the native code that talks to servers or loads images outside of
+ * the network client, like the share extension uploads and the notification icons.
+ *
+ * The certificate pinner is computed once from the certificates bundled in assets/certs, and every
+ * caller shares the same connection pool and dispatcher so connections and TLS sessions are reused.
+ * Callers that need different timeouts should derive a client with [OkHttpClient.newBuilder].
+ */
+object SharedHttpClient {
+    @Volatile
+    private var client: OkHttpClient? = null
+
+    @JvmStatic
+    fun getInstance(context: Context): OkHttpClient {
+        client?.let { return it }
+        return synchronized(this) {
+            client ?: buildClient(context.applicationContext).also { client = it }
+        }
+    }
+
+    private fun buildClient(context: Context): OkHttpClient {
+        val builder = OkHttpClient.Builder()
+        val fingerprintsMap = getCertificatesFingerPrints(context)
+        if (fingerprintsMap.isNotEmpty()) {
+            val pinner = CertificatePinner.Builder()
+            for ((domain, fingerprints) in fingerprintsMap) {
+                for (fingerprint in fingerprints) {
+                    pinner.add(domain, "sha256/$fingerprint")
+                }
+            }
+            builder.certificatePinner(pinner.build())
+        }
+        return builder.build()
+    }
+
+    private fun getCertificateFingerPrint(certInputStream: InputStream): String {
+        val certFactory = CertificateFactory.getInstance("X.509")
+        val certificate = certFactory.generateCertificate(certInputStream) as X509Certificate
+        val sha256 = MessageDigest.getInstance("SHA-256")
+        val fingerprintBytes = sha256.digest(certificate.publicKey.encoded)
+        return Base64.encodeToString(fingerprintBytes, Base64.NO_WRAP)
+    }
+
+    private fun getCertificatesFingerPrints(context: Context): Map<String, List<String>> {
+        val fingerprintsMap = mutableMapOf<String, MutableList<String>>()
+        val assetsManager = context.assets
+        val certFiles = assetsManager.list("certs")?.filter { it.endsWith(".cer") || it.endsWith(".crt") } ?: return emptyMap()
+
+        for (fileName in certFiles) {
+            val domain = fileName.substringBeforeLast(".")
+            assetsManager.open("certs/$fileName").use {
+                fingerprintsMap.getOrPut(domain) { mutableListOf() }.add(getCertificateFingerPrint(it))
+            }
+        }
+
+        return fingerprintsMap
+    }
+}
@@ -0,0 +1,90 @@
+package com.mattermost.rnshare.helpers
+
+import android.content.Context
+import android.util.Log
+import org.json.JSONException
+import org.json.JSONObject
+import java.io.File
+
+/**
+ * Progress of a share request that survives a retry of its worker: the id of every file already
+ * uploaded, the upload session of the files being sent in chunks and the pending post id used to
+ * create the post, so a retried worker resumes where the previous attempt stopped and the server
+ * never creates the post twice.
+ *
+ * WorkManager does not keep the progress data of a worker across retries, so the checkpoint is
+ * stored in a file named after the work request id.
+ */
+internal class UploadCheckpoint private constructor(private val file: File, private val state: JSONObject) {
+    companion object {
+        private const val DIR_NAME = "share_uploads"
+
+        fun open(context: Context, workId: String): UploadCheckpoint {
+            val dir = File(context.noBackupFilesDir, DIR_NAME)
+            if (!dir.exists()) {
+                dir.mkdirs()
+            }
+
+            val file = File(dir, "$workId.json")
+            val state = try {
+                if (file.exists()) JSONObject(file.readText()) else JSONObject()
+            } catch (e: JSONException) {
+                Log.w("UploadCheckpoint", "Discarding unreadable checkpoint ${file.name}", e)
+                JSONObject()
+            }
+            return UploadCheckpoint(file, state)
+        }
+    }
+
+    @Synchronized
+    fun fileId(index: Int): String? = entry(index)?.optString("file_id")?.ifEmpty { null }
+
+    @Synchronized
+    fun uploadId(index: Int): String? = entry(index)?.optString("upload_id")?.ifEmpty { null }
+
+    @Synchronized
+    fun setFileId(index: Int, fileId: String) {
+        files().put(index.toString(), JSONObject().put("file_id", fileId))
+        save()
+    }
+
+    @Synchronized
+    fun setUploadId(index: Int, uploadId: String) {
+        files().put(index.toString(), JSONObject().put("upload_id", uploadId))
+        save()
+    }
+
+    @Synchronized
+    fun pendingPostId(userId: String): String {
+        val pendingPostId = state.optString("pending_post_id")
+        if (pendingPostId.isNotEmpty()) {
+            return pendingPostId
+        }
+
+        val id = "$userId:${System.currentTimeMillis()}"
+        state.put("pending_post_id", id)
+        save()
+        return id
+    }
+
+    fun delete() {
+        file.delete()
+    }
+
+    private fun files(): JSONObject {
+        return state.optJSONObject("files") ?: JSONObject().also { state.put("files", it) }
+    }
+
+    private fun entry(index: Int) = state.optJSONObject("files")?.optJSONObject(index.toString())
+
+    private fun save() {
+        try {
+            val tmp = File(file.parentFile, "${file.name}.tmp")
+            tmp.writeText(state.toString())
+            tmp.renameTo(file)
+        } catch (e: Exception) {
+            // Losing the checkpoint only means the next attempt starts over
+            Log.w("UploadCheckpoint", "Failed to store the checkpoint ${file.name}", e)
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.mattermost.rnshare.helpers
+
+import android.content.ContentResolver
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Request body that streams [length] bytes of the file:// or content:// [uri] starting at [offset]
+ * straight from the ContentResolver, so shared content does not have to be copied to a temp file
+ * before being uploaded. A negative [length] sends everything up to the end of the stream with an
+ * unknown content length.
+ *
+ * [onProgress] is called with the position in the source reached so far. OkHttp may write the body
+ * more than once when it retries a request, so the position is reported instead of the bytes written.
+ */
+internal class UriRequestBody(
+        private val contentResolver: ContentResolver,
+        private val uri: Uri,
+        private val contentType: MediaType?,
+        private val offset: Long = 0,
+        private val length: Long = -1,
+        private val onProgress: ((Long) -> Unit)? = null
+) : RequestBody() {
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+
+    override fun contentType() = contentType
+
+    override fun contentLength() = length
+
+    override fun writeTo(sink: BufferedSink) {
+        open().use { input ->
+            val buffer = ByteArray(BUFFER_SIZE)
+            var written = 0L
+            while (length < 0 || written < length) {
+                val toRead = if (length < 0) BUFFER_SIZE else minOf(BUFFER_SIZE.toLong(), length - written).toInt()
+                val read = input.read(buffer, 0, toRead)
+                if (read == -1) {
+                    break
+                }
+                sink.write(buffer, 0, read)
+                written += read
+                onProgress?.invoke(offset + written)
+            }
+
+            if (length >= 0 && written < length) {
+                throw IOException("$uri ended after ${offset + written} bytes")
+            }
+        }
+    }
+
+    private fun open(): InputStream {
+        val descriptor = try {
+            contentResolver.openFileDescriptor(uri, "r")
+        } catch (e: IOException) {
+            // Some providers can only hand out a stream
+            null
+        }
+
+        if (descriptor != null) {
+            val input = ParcelFileDescriptor.AutoCloseInputStream(descriptor)
+            try {
+                // Seeking fails for pipes, those are skipped the slow way below
+                input.channel.position(offset)
+                return input
+            } catch (e: IOException) {
+                input.close()
+            }
+        }
+
+        val input = contentResolver.openInputStream(uri) ?: throw IOException("Unable to open $uri")
+        var skipped = 0L
+        while (skipped < offset) {
+            val n = input.skip(offset - skipped)
+            if (n <= 0) {
+                input.close()
+                throw IOException("$uri ended before offset $offset")
+            }
+            skipped += n
+        }
+        return input
+    }
+}
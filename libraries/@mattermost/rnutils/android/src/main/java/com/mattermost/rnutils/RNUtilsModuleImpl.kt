@@ -13,6 +13,7 @@ import com.facebook.react.bridge.ReactApplicationContext
 import com.facebook.react.bridge.ReadableMap
 import com.facebook.react.bridge.WritableMap
 import com.mattermost.rnutils.helpers.Notifications
+import com.mattermost.rnutils.helpers.PushMetrics
 import com.mattermost.rnutils.helpers.RealPathUtil
 import com.mattermost.rnutils.helpers.SaveDataTask
 import com.mattermost.rnutils.helpers.SplitView
@@ -219,6 +220,10 @@ class RNUtilsModuleImpl(private val reactContext: ReactApplicationContext): Life
         serverUrl?.let { Notifications.removeServerNotifications(it) }
     }
 
+    fun getPushMetrics(): WritableMap {
+        return PushMetrics.snapshot()
+    }
+
     fun setSoftKeyboardToAdjustNothing() {
         val currentActivity: Activity = reactContext.currentActivity ?: return
         if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.Q) {
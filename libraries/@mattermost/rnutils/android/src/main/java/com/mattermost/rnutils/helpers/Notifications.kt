@@ -8,6 +8,11 @@ class Notifications {
     companion object {
         private lateinit var context: ReactApplicationContext
 
+        /**
+         * Called with the url of a server when the app logs out of it or removes it.
+         */
+        var serverRemovedListener: ((String) -> Unit)? = null
+
         fun setCtx(reactContext: ReactApplicationContext) {
             context = reactContext
         }
@@ -42,6 +47,7 @@ class Notifications {
         fun removeServerNotifications(serverUrl: String) {
             val applicationContext = context.applicationContext
             NotificationHelper.removeServerNotifications(applicationContext, serverUrl)
+            serverRemovedListener?.invoke(serverUrl)
         }
     }
 }
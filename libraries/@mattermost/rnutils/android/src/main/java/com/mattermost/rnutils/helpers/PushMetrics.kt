@@ -0,0 +1,183 @@
+package com.mattermost.rnutils.helpers
+
+import android.os.SystemClock
+import com.facebook.react.bridge.Arguments
+import com.facebook.react.bridge.WritableMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Latency samples for each stage of the native push notification pipeline.
+ *
+ * Samples are written into a fixed size lock-free ring buffer, every slot packs the stage and the
+ * duration in microseconds into a single long so recording never allocates. Reading the metrics
+ * aggregates the buffer into per stage histograms. Conditional requests of the push client are
+ * counted apart, with the bytes the server did not have to send again, and so are the server
+ * database handles, with how many were reused from the pool instead of opening the database.
+ */
+object PushMetrics {
+    enum class Stage(val key: String) {
+        PUSH_TO_DISPLAY("push_to_display"),
+        RECEIPT_DELIVERY("receipt_delivery"),
+        VERIFY_SIGNATURE("verify_signature"),
+        FETCH_TEAM("fetch_team"),
+        FETCH_MY_CHANNEL("fetch_my_channel"),
+        FETCH_CATEGORIES("fetch_categories"),
+        FETCH_POSTS("fetch_posts"),
+        FETCH_THREAD("fetch_thread"),
+        FETCH_USERS("fetch_users"),
+        SAVE_TO_DATABASE("save_to_database"),
+        AVATAR("avatar"),
+        POST_NOTIFICATION("post_notification"),
+    }
+
+    private const val CAPACITY = 1024
+    private const val STAGE_SHIFT = 56
+    private const val DURATION_MASK = (1L shl STAGE_SHIFT) - 1
+
+    // Upper bounds in milliseconds of the histogram buckets, the last bucket is unbounded
+    private val BUCKETS_MS = longArrayOf(1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000)
+
+    private val samples = AtomicLongArray(CAPACITY)
+    private val cursor = AtomicLong()
+    private val cacheRequests = AtomicLong()
+    private val cacheHits = AtomicLong()
+    private val cacheBytesSaved = AtomicLong()
+    private val databaseAcquires = AtomicLong()
+    private val databaseReuses = AtomicLong()
+
+    @JvmStatic
+    fun now(): Long = SystemClock.elapsedRealtimeNanos()
+
+    /**
+     * Records the time elapsed since [startNanos], a value previously obtained from [now].
+     */
+    @JvmStatic
+    fun record(stage: Stage, startNanos: Long) {
+        val micros = ((now() - startNanos) / 1000).coerceIn(0, DURATION_MASK)
+        val slot = (cursor.getAndIncrement() % CAPACITY).toInt()
+        samples.set(slot, ((stage.ordinal + 1).toLong() shl STAGE_SHIFT) or micros)
+    }
+
+    /**
+     * Records a conditional request, a [hit] when the server answered 304 and [bytesSaved] did not
+     * have to be downloaded.
+     */
+    @JvmStatic
+    fun recordCacheRequest(hit: Boolean, bytesSaved: Long) {
+        cacheRequests.incrementAndGet()
+        if (hit) {
+            cacheHits.incrementAndGet()
+            cacheBytesSaved.addAndGet(bytesSaved)
+        }
+    }
+
+    /**
+     * Records a server database handle acquired by the push code, [reused] when the pool returned a
+     * handle that was already open.
+     */
+    @JvmStatic
+    fun recordDatabaseAcquire(reused: Boolean) {
+        databaseAcquires.incrementAndGet()
+        if (reused) {
+            databaseReuses.incrementAndGet()
+        }
+    }
+
+    inline fun <T> trace(stage: Stage, block: () -> T): T {
+        val start = now()
+        try {
+            return block()
+        } finally {
+            record(stage, start)
+        }
+    }
+
+    fun reset() {
+        for (i in 0 until CAPACITY) {
+            samples.set(i, 0)
+        }
+        cacheRequests.set(0)
+        cacheHits.set(0)
+        cacheBytesSaved.set(0)
+        databaseAcquires.set(0)
+        databaseReuses.set(0)
+    }
+
+    /**
+     * Aggregates the samples currently in the buffer, for every stage it returns the number of
+     * samples, p50 / p95 / p99 and max in milliseconds and the counts for each bucket of
+     * bucketBoundsMs, along with the requests, hits, hit rate and bytes saved by conditional requests
+     * and the acquires, reuses and reuse rate of the server database handles.
+     */
+    fun snapshot(): WritableMap {
+        val stages = Stage.values()
+        val durations = Array(stages.size) { ArrayList<Long>() }
+        for (i in 0 until CAPACITY) {
+            val value = samples.get(i)
+            val stage = (value ushr STAGE_SHIFT).toInt() - 1
+            if (stage in stages.indices) {
+                durations[stage].add(value and DURATION_MASK)
+            }
+        }
+
+        val stagesMap = Arguments.createMap()
+        for (stage in stages) {
+            val values = durations[stage.ordinal]
+            if (values.isEmpty()) {
+                continue
+            }
+            values.sort()
+
+            val buckets = Arguments.createArray()
+            val counts = IntArray(BUCKETS_MS.size + 1)
+            for (micros in values) {
+                var bucket = BUCKETS_MS.indexOfFirst { micros <= it * 1000 }
+                if (bucket < 0) {
+                    bucket = BUCKETS_MS.size
+                }
+                counts[bucket]++
+            }
+            counts.forEach { buckets.pushInt(it) }
+
+            val map = Arguments.createMap()
+            map.putInt("count", values.size)
+            map.putDouble("p50", percentile(values, 0.50))
+            map.putDouble("p95", percentile(values, 0.95))
+            map.putDouble("p99", percentile(values, 0.99))
+            map.putDouble("max", values.last() / 1000.0)
+            map.putArray("buckets", buckets)
+            stagesMap.putMap(stage.key, map)
+        }
+
+        val bounds = Arguments.createArray()
+        BUCKETS_MS.forEach { bounds.pushDouble(it.toDouble()) }
+
+        val requests = cacheRequests.get()
+        val hits = cacheHits.get()
+        val httpCache = Arguments.createMap()
+        httpCache.putDouble("requests", requests.toDouble())
+        httpCache.putDouble("hits", hits.toDouble())
+        httpCache.putDouble("hitRate", if (requests > 0) hits.toDouble() / requests else 0.0)
+        httpCache.putDouble("bytesSaved", cacheBytesSaved.get().toDouble())
+
+        val acquires = databaseAcquires.get()
+        val reuses = databaseReuses.get()
+        val databasePool = Arguments.createMap()
+        databasePool.putDouble("acquires", acquires.toDouble())
+        databasePool.putDouble("reuses", reuses.toDouble())
+        databasePool.putDouble("reuseRate", if (acquires > 0) reuses.toDouble() / acquires else 0.0)
+
+        val result = Arguments.createMap()
+        result.putMap("stages", stagesMap)
+        result.putArray("bucketBoundsMs", bounds)
+        result.putMap("httpCache", httpCache)
+        result.putMap("databasePool", databasePool)
+        return result
+    }
+
+    private fun percentile(sorted: List<Long>, p: Double): Double {
+        val index = ((sorted.size - 1) * p).toInt()
+        return sorted[index] / 1000.0
+    }
+}
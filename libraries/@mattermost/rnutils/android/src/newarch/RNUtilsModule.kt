@@ -85,4 +85,6 @@ class RNUtilsModule(val reactContext: ReactApplicationContext) : NativeRNUtilsSp
     override fun setNavigationBarColor(color: String, lightIcons: Boolean) {
         implementation.setNavigationBarColor(color, lightIcons)
     }
+
+    override fun getPushMetrics(): WritableMap = implementation.getPushMetrics()
 }
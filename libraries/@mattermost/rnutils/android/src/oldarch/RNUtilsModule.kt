@@ -121,4 +121,9 @@ class RNUtilsModule(context: ReactApplicationContext) :
     fun setNavigationBarColor(colorHex: String, lightIcons: Boolean) {
         implementation.setNavigationBarColor(colorHex, lightIcons)
     }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    fun getPushMetrics(): WritableMap {
+        return implementation.getPushMetrics()
+    }
 }
@@ -78,6 +78,7 @@ export interface Spec extends TurboModule {
 
     // Android only
     setNavigationBarColor: (color: string, lightIcons: boolean) => void;
+    getPushMetrics: () => UnsafeObject;
 }
 
 export default TurboModuleRegistry.getEnforcing<Spec>('RNUtils');
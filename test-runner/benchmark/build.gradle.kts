@@ -0,0 +1,28 @@
+plugins {
+    kotlin("jvm")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation("org.xerial:sqlite-jdbc:3.45.3.0")
+    implementation("com.vaadin.external.google:android-json:0.0.20131108.vaadin1")
+    jmh("com.squareup.okhttp3:mockwebserver:4.12.0")
+    jmh("com.squareup.okhttp3:okhttp-tls:4.12.0")
+}
+
+kotlin {
+    // The benchmarks call the internal database_extension functions directly
+    target.compilations.getByName("jmh").associateWith(target.compilations.getByName("main"))
+}
+
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
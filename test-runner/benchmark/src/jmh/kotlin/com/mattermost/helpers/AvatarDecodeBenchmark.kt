@@ -0,0 +1,141 @@
+package com.mattermost.helpers
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.awt.AlphaComposite
+import java.awt.Color
+import java.awt.GradientPaint
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.Random
+import java.util.concurrent.TimeUnit
+import javax.imageio.ImageIO
+
+/**
+ * Time and allocation of turning a downloaded avatar of `source` x `source` pixels into the circular
+ * notification icon, on the JVM with ImageIO and Java2D standing in for BitmapFactory and Canvas.
+ *
+ * fullSize is the path the avatar took before: decoded at full size, copied for the cache and made
+ * into a circle of the full size, the copy and the circle repeated on every cache hit. sampled is
+ * decodeAvatar: decoded with the subsampling AvatarSampling picks and cropped into a circle no larger
+ * than the icon once, a cache hit returns it as it is. Pixels are 4 bytes as with ARGB_8888.
+ *
+ * ImageIO subsamples after decoding every pixel where BitmapFactory skips the work, so the decode
+ * times of sampled are an upper bound, the allocations compare as on the device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class AvatarDecodeBenchmark {
+    @Param("128", "512", "1024")
+    var source: Int = 0
+
+    private lateinit var jpeg: ByteArray
+    private lateinit var cachedFullSize: BufferedImage
+
+    @Setup(Level.Trial)
+    fun encodeAvatar() {
+        val image = BufferedImage(source, source, BufferedImage.TYPE_INT_RGB)
+        val graphics = image.createGraphics()
+        graphics.paint = GradientPaint(0f, 0f, Color(0x1e325c), source.toFloat(), source.toFloat(), Color(0xf5ab00))
+        graphics.fillRect(0, 0, source, source)
+        // Noise keeps the JPEG close to the size of a photo
+        val random = Random(source.toLong())
+        for (i in 0 until source * source / 16) {
+            graphics.color = Color(random.nextInt(0xffffff))
+            graphics.fillRect(random.nextInt(source), random.nextInt(source), 2, 2)
+        }
+        graphics.dispose()
+
+        val out = ByteArrayOutputStream()
+        ImageIO.write(image, "jpg", out)
+        jpeg = out.toByteArray()
+        cachedFullSize = decode(1)
+    }
+
+    @Benchmark
+    fun fullSize(blackhole: Blackhole) {
+        val bitmap = decode(1)
+        blackhole.consume(copy(bitmap))
+        blackhole.consume(circle(bitmap, bitmap.width))
+    }
+
+    @Benchmark
+    fun fullSizeCacheHit(): BufferedImage {
+        return circle(copy(cachedFullSize), cachedFullSize.width)
+    }
+
+    @Benchmark
+    fun sampled(): BufferedImage {
+        val reader = ImageIO.getImageReadersByFormatName("jpg").next()
+        val width: Int
+        val height: Int
+        ImageIO.createImageInputStream(ByteArrayInputStream(jpeg)).use { input ->
+            reader.input = input
+            width = reader.getWidth(0)
+            height = reader.getHeight(0)
+        }
+        reader.dispose()
+
+        val bitmap = decode(AvatarSampling.sampleSize(width, height, ICON_SIZE))
+        return circle(bitmap, minOf(ICON_SIZE, bitmap.width, bitmap.height))
+    }
+
+    private fun decode(sampleSize: Int): BufferedImage {
+        val reader = ImageIO.getImageReadersByFormatName("jpg").next()
+        try {
+            ImageIO.createImageInputStream(ByteArrayInputStream(jpeg)).use { input ->
+                reader.input = input
+                val param = reader.defaultReadParam
+                param.setSourceSubsampling(sampleSize, sampleSize, 0, 0)
+                return argb(reader.read(0, param))
+            }
+        } finally {
+            reader.dispose()
+        }
+    }
+
+    // Decoded JPEGs are RGB, BitmapFactory hands ARGB_8888 back
+    private fun argb(image: BufferedImage) = copy(image)
+
+    private fun copy(image: BufferedImage): BufferedImage {
+        val copy = BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_ARGB)
+        val graphics = copy.createGraphics()
+        graphics.drawImage(image, 0, 0, null)
+        graphics.dispose()
+        return copy
+    }
+
+    // getCircleBitmap, center cropping the source into a circle of size x size
+    private fun circle(bitmap: BufferedImage, size: Int): BufferedImage {
+        val output = BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB)
+        val side = minOf(bitmap.width, bitmap.height)
+        val left = (bitmap.width - side) / 2
+        val top = (bitmap.height - side) / 2
+
+        val graphics = output.createGraphics()
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON)
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR)
+        graphics.color = Color.RED
+        graphics.fillOval(0, 0, size, size)
+        graphics.composite = AlphaComposite.SrcIn
+        graphics.drawImage(bitmap, 0, 0, size, size, left, top, left + side, top + side, null)
+        graphics.dispose()
+        return output
+    }
+
+    companion object {
+        // notification_large_icon_width is 64dp, 192 pixels on an xxhdpi screen
+        private const val ICON_SIZE = 192
+    }
+}
@@ -0,0 +1,141 @@
+package com.mattermost.helpers
+
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okhttp3.tls.HandshakeCertificates
+import okhttp3.tls.HeldCertificate
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.TimeUnit
+import javax.net.ServerSocketFactory
+import javax.net.SocketFactory
+
+/**
+ * Time to the first byte of the first push fetch made by a cold process, against a local TLS server
+ * speaking HTTP/2 in place of the Mattermost server.
+ *
+ * Every invocation starts with a new client and an empty connection pool. With `connection=cold`
+ * the fetch opens the connection itself, with `connection=preconnected` the ping Network.preconnect
+ * sends while the receipt is acknowledged has already left a connection in the pool. Over loopback
+ * the difference is the TCP and TLS setup alone, a real network adds its round trips on top.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class PreconnectBenchmark {
+    @Param("cold", "preconnected")
+    lateinit var connection: String
+
+    private lateinit var server: MockWebServer
+    private lateinit var clientCertificates: HandshakeCertificates
+    private lateinit var client: OkHttpClient
+
+    @Setup(Level.Trial)
+    fun startServer() {
+        val certificate = HeldCertificate.Builder().addSubjectAlternativeName("localhost").build()
+        val serverCertificates = HandshakeCertificates.Builder().heldCertificate(certificate).build()
+        clientCertificates = HandshakeCertificates.Builder().addTrustedCertificate(certificate.certificate).build()
+
+        server = MockWebServer()
+        server.serverSocketFactory = NoDelayServerSocketFactory
+        server.useHttps(serverCertificates.sslSocketFactory(), false)
+        server.protocols = listOf(Protocol.HTTP_2, Protocol.HTTP_1_1)
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                return when (request.path) {
+                    PING_ENDPOINT -> MockResponse().setBody("""{"status":"OK"}""")
+                    else -> MockResponse().setBody(POSTS_BODY)
+                }
+            }
+        }
+        server.start()
+    }
+
+    @TearDown(Level.Trial)
+    fun stopServer() {
+        server.shutdown()
+    }
+
+    @Setup(Level.Invocation)
+    fun createClient() {
+        client = OkHttpClient.Builder()
+                .socketFactory(NoDelaySocketFactory)
+                .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager)
+                .build()
+
+        if (connection == "preconnected") {
+            client.newCall(request(PING_ENDPOINT)).execute().close()
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    fun closeClient() {
+        client.connectionPool.evictAll()
+        client.dispatcher.executorService.shutdown()
+    }
+
+    @Benchmark
+    fun firstByte(): Byte {
+        client.newCall(request(POSTS_ENDPOINT)).execute().use { response ->
+            val source = response.body!!.source()
+            val first = source.readByte()
+            // the rest of the short body is drained so the server is not cut off while writing it
+            source.readByteString()
+            return first
+        }
+    }
+
+    private fun request(path: String): Request {
+        return Request.Builder().url(server.url(path).newBuilder().host("localhost").build()).build()
+    }
+
+    /**
+     * Turns off Nagle's algorithm on both ends, as the Mattermost server does on its side. Without it
+     * the small HTTP/2 frames on loopback wait on delayed acknowledgements and hide the cost measured.
+     */
+    private object NoDelaySocketFactory : SocketFactory() {
+        private val delegate = getDefault()
+
+        override fun createSocket() = delegate.createSocket().noDelay()
+        override fun createSocket(host: String, port: Int) = delegate.createSocket(host, port).noDelay()
+        override fun createSocket(host: String, port: Int, localHost: InetAddress, localPort: Int) = delegate.createSocket(host, port, localHost, localPort).noDelay()
+        override fun createSocket(host: InetAddress, port: Int) = delegate.createSocket(host, port).noDelay()
+        override fun createSocket(address: InetAddress, port: Int, localAddress: InetAddress, localPort: Int) = delegate.createSocket(address, port, localAddress, localPort).noDelay()
+    }
+
+    private object NoDelayServerSocketFactory : ServerSocketFactory() {
+        private class NoDelayServerSocket : ServerSocket() {
+            override fun accept(): Socket = super.accept().noDelay()
+        }
+
+        override fun createServerSocket(): ServerSocket = NoDelayServerSocket()
+        override fun createServerSocket(port: Int) = createServerSocket().apply { bind(InetSocketAddress(port)) }
+        override fun createServerSocket(port: Int, backlog: Int) = createServerSocket().apply { bind(InetSocketAddress(port), backlog) }
+        override fun createServerSocket(port: Int, backlog: Int, address: InetAddress) = createServerSocket().apply { bind(InetSocketAddress(address, port), backlog) }
+    }
+
+    private companion object {
+        fun Socket.noDelay() = apply { tcpNoDelay = true }
+
+        const val PING_ENDPOINT = "/api/v4/system/ping"
+        const val POSTS_ENDPOINT = "/api/v4/channels/channel_id/posts?since=0"
+        val POSTS_BODY = """{"order":[],"posts":{},"next_post_id":"","prev_post_id":""}"""
+    }
+}
@@ -0,0 +1,93 @@
+package com.mattermost.helpers.database_extension
+
+import com.mattermost.helpers.DatabaseHelper
+import com.nozbe.watermelondb.WMDatabase
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of the app.db lookups done for every push: the server url for the signature identifier,
+ * the persistence flag, the signing key, the device token and the server database path.
+ *
+ * Each invocation is one push. `cachedLookups` refreshes the DatabaseHelper lookup cache as a push
+ * does when it starts, which reads the data_version and total_changes stamp once, then makes the
+ * lookups through it. `queriedLookups` runs the same queries without the cache. The database is in
+ * memory, so both leave out the page reads a device makes for each query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class AppDatabaseLookupBenchmark {
+    private val dbHelper = DatabaseHelper.instance!!
+    private lateinit var db: WMDatabase
+
+    @Setup(Level.Trial)
+    fun openAppDatabase() {
+        db = WMDatabase.buildDatabase(":memory:", null, 0)
+        db.unsafeExecuteStatements("""
+            CREATE TABLE Servers (id TEXT PRIMARY KEY, db_path TEXT, display_name TEXT, url TEXT, last_active_at NUMBER, identifier TEXT, persistence_flag TEXT);
+            CREATE INDEX servers_url ON Servers (url);
+            CREATE INDEX servers_identifier ON Servers (identifier);
+            CREATE TABLE Global (id TEXT PRIMARY KEY, value TEXT);
+        """.trimIndent())
+        for (i in 0 until SERVERS) {
+            db.execute(
+                    "INSERT INTO Servers (id, db_path, display_name, url, last_active_at, identifier, persistence_flag) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    arrayOf("server$i", "/data/databases/server$i.db", "Server $i", serverUrl(i), 1700000000000L + i, "identifier$i", "")
+            )
+            db.execute("INSERT INTO Global (id, value) VALUES (?, ?)", arrayOf("pushSigningKey${serverUrl(i)}", "key$i"))
+        }
+        db.execute("INSERT INTO Global (id, value) VALUES (?, ?)", arrayOf("deviceToken", "android_rn-v2:token"))
+
+        dbHelper.defaultDatabase = db
+        dbHelper.invalidateLookupCache()
+    }
+
+    @TearDown(Level.Trial)
+    fun closeAppDatabase() {
+        dbHelper.defaultDatabase = null
+        db.close()
+    }
+
+    @Benchmark
+    fun cachedLookups(blackhole: Blackhole) {
+        val serverUrl = serverUrl(0)
+        dbHelper.refreshLookupCache()
+        blackhole.consume(dbHelper.getServerUrlForIdentifier("identifier0"))
+        blackhole.consume(dbHelper.isZeroPersistenceServer(serverUrl))
+        blackhole.consume(dbHelper.getZeroPersistenceSigningKey(serverUrl))
+        blackhole.consume(dbHelper.getDeviceToken())
+        blackhole.consume(dbHelper.cachedLookup("dbPath:$serverUrl") { query("SELECT db_path FROM Servers WHERE url=?", serverUrl) })
+    }
+
+    @Benchmark
+    fun queriedLookups(blackhole: Blackhole) {
+        val serverUrl = serverUrl(0)
+        blackhole.consume(query("SELECT url FROM Servers WHERE identifier=?", "identifier0"))
+        blackhole.consume(query("SELECT persistence_flag FROM Servers WHERE url=?", serverUrl))
+        blackhole.consume(query("SELECT value FROM Global WHERE id=?", "pushSigningKey$serverUrl"))
+        blackhole.consume(query("SELECT value FROM Global WHERE id=?", "deviceToken"))
+        blackhole.consume(query("SELECT db_path FROM Servers WHERE url=?", serverUrl))
+    }
+
+    private fun query(sql: String, arg: String): String? {
+        db.rawQuery(sql, arrayOf(arg)).use { cursor ->
+            return if (cursor.moveToFirst()) cursor.getString(0) else null
+        }
+    }
+
+    companion object {
+        private const val SERVERS = 3
+
+        private fun serverUrl(index: Int) = "https://server$index.example.com"
+    }
+}
@@ -0,0 +1,119 @@
+package com.mattermost.helpers.database_extension
+
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.ReadableMap
+import com.mattermost.helpers.DatabaseHelper
+import com.mattermost.helpers.RandomId
+import com.nozbe.watermelondb.WMDatabase
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of the native notification write path against an in-memory SQLite database.
+ *
+ * Run with `./gradlew :benchmark:jmh` from the test-runner directory, the gc profiler reports the
+ * allocation rate (gc.alloc.rate.norm is bytes per operation) next to the ops/s of every benchmark.
+ * With `database=empty` every invocation writes into empty tables, with `database=existing` the
+ * same payload is written again so the update paths are measured. handlePosts is measured by
+ * [PostsWriteBenchmark] for several page sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class NotificationWriteBenchmark {
+    @Param("empty", "existing")
+    lateinit var database: String
+
+    private val dbHelper = DatabaseHelper.instance!!
+    private lateinit var db: WMDatabase
+    private lateinit var notification: ReadableMap
+    private lateinit var threads: ArrayList<ReadableMap>
+    private lateinit var users: ReadableArray
+    private lateinit var teamId: String
+    private lateinit var channelId: String
+
+    @Setup(Level.Trial)
+    fun loadPayloads() {
+        notification = Payloads.map("notification.json")
+        users = Payloads.array("users.json")
+        val threadsArray = Payloads.array("threads.json")
+        threads = ArrayList((0 until threadsArray.size()).mapNotNull { threadsArray.getMap(it) })
+        teamId = notification.getMap("team")!!.getString("id")!!
+        channelId = notification.getMap("channel")!!.getString("id")!!
+
+        db = Payloads.openServerDatabase()
+        if (database == "existing") {
+            dbHelper.saveToDatabase(db, notification, teamId, channelId, false)
+        }
+    }
+
+    @Setup(Level.Invocation)
+    fun resetDatabase() {
+        if (database == "empty") {
+            Payloads.clear(db)
+        }
+        seedFragmentedChunks()
+    }
+
+    @TearDown(Level.Trial)
+    fun closeDatabase() {
+        db.close()
+    }
+
+    @Benchmark
+    fun handleThreads() {
+        db.transaction {
+            handleThreads(db, threads, teamId)
+        }
+    }
+
+    @Benchmark
+    fun handleUsers() {
+        db.transaction {
+            handleUsers(db, users)
+        }
+    }
+
+    @Benchmark
+    fun handlePostsInChannel() {
+        db.transaction {
+            handlePostsInChannel(db, channelId, FRAGMENT_SPAN * 3.5, FRAGMENT_SPAN * (FRAGMENTS - 3.5), false)
+        }
+    }
+
+    @Benchmark
+    fun saveToDatabase() {
+        dbHelper.saveToDatabase(db, notification, teamId, channelId, false)
+    }
+
+    /**
+     * Replaces the PostsInChannel rows of the channel with a fragmented history, the kind of
+     * chunk list handlePostsInChannel has to merge after many notifications.
+     */
+    private fun seedFragmentedChunks() {
+        db.transaction {
+            db.execute("DELETE FROM PostsInChannel WHERE channel_id = ?", arrayOf(channelId))
+            for (i in 0 until FRAGMENTS) {
+                val earliest = i * FRAGMENT_SPAN
+                db.execute(
+                        "INSERT INTO PostsInChannel (id, channel_id, earliest, latest, _changed, _status) VALUES (?, ?, ?, ?, '', 'created')",
+                        arrayOf(RandomId.generate(), channelId, earliest, earliest + FRAGMENT_SPAN * 0.6)
+                )
+            }
+        }
+    }
+
+    companion object {
+        private const val FRAGMENTS = 40
+        private const val FRAGMENT_SPAN = 60_000.0
+    }
+}
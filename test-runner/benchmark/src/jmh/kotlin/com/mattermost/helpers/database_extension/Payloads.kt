@@ -0,0 +1,149 @@
+package com.mattermost.helpers.database_extension
+
+import com.facebook.react.bridge.ReadableArray
+import com.facebook.react.bridge.ReadableMap
+import com.mattermost.helpers.ReadableArrayUtils
+import com.mattermost.helpers.ReadableMapUtils
+import com.nozbe.watermelondb.WMDatabase
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+
+/**
+ * Loads the payload fixtures and the server schema from the benchmark resources.
+ *
+ * The payloads under payloads/ follow the shape of the server responses stored by the push
+ * notification code: a channel page of posts with reactions, files, custom emojis and replies,
+ * the threads and users fetched for it, and the full data handed to saveToDatabase. They are
+ * generated, recorded responses with the same file names are used instead when the directory
+ * holding them is passed to the benchmark JVM, `-jvmArgsAppend -Dpayloads.dir=<path>` when running
+ * the benchmark jar.
+ */
+internal object Payloads {
+    private const val PAYLOADS_DIR = "payloads.dir"
+    private val ID = Regex("[a-z0-9]{26}")
+    private val EMOJIS = arrayOf("+1", "heart", "smile", "tada", "eyes", "white_check_mark", "rocket", "joy")
+
+    private fun copyId(id: String, copy: Int) = id.dropLast(3) + copy.toString().padStart(3, '0')
+
+    private fun payload(name: String): String {
+        val dir = System.getProperty(PAYLOADS_DIR) ?: return resource("payloads/$name")
+        val file = File(dir, name)
+        if (!file.isFile) {
+            throw IllegalStateException("Missing recorded payload ${file.path}")
+        }
+        return file.readText()
+    }
+
+    private fun resource(name: String): String {
+        val stream = Payloads::class.java.classLoader.getResourceAsStream(name)
+                ?: throw IllegalStateException("Missing benchmark resource $name")
+        return stream.bufferedReader().use { it.readText() }
+    }
+
+    fun map(name: String): ReadableMap {
+        return ReadableMapUtils.toWritableMap(ReadableMapUtils.toMap(JSONObject(payload(name))))
+    }
+
+    /**
+     * A channel page of [count] posts built from posts.json. Past its 60 posts the page is repeated
+     * with new post and file ids and older timestamps, so every post is distinct and the page stays
+     * ordered from newest to oldest.
+     */
+    fun posts(count: Int): ReadableMap {
+        return ReadableMapUtils.toWritableMap(ReadableMapUtils.toMap(postsJson(count)))
+    }
+
+    fun postsJson(count: Int): JSONObject {
+        val page = JSONObject(payload("posts.json"))
+        val order = page.getJSONArray("order")
+        val posts = page.getJSONObject("posts")
+
+        val ids = HashSet<String>()
+        var newest = Long.MIN_VALUE
+        var oldest = Long.MAX_VALUE
+        for (i in 0 until order.length()) {
+            val post = posts.getJSONObject(order.getString(i))
+            ids.add(post.getString("id"))
+            post.optJSONObject("metadata")?.optJSONArray("files")?.let { files ->
+                for (f in 0 until files.length()) {
+                    ids.add(files.getJSONObject(f).getString("id"))
+                }
+            }
+            newest = maxOf(newest, post.getLong("create_at"))
+            oldest = minOf(oldest, post.getLong("create_at"))
+        }
+        val span = newest - oldest + 1000
+
+        val pagePosts = JSONObject()
+        val pageOrder = JSONArray()
+        for (i in 0 until count) {
+            val copy = i / order.length()
+            var text = posts.getJSONObject(order.getString(i % order.length())).toString()
+            if (copy > 0) {
+                text = ID.replace(text) { if (it.value in ids) copyId(it.value, copy) else it.value }
+            }
+            val post = JSONObject(text)
+            post.put("create_at", post.getLong("create_at") - copy * span)
+            post.put("update_at", post.getLong("update_at") - copy * span)
+            pagePosts.put(post.getString("id"), post)
+            pageOrder.put(post.getString("id"))
+        }
+        page.put("posts", pagePosts)
+        page.put("order", pageOrder)
+
+        return page
+    }
+
+    /**
+     * The page of posts.json with [reactionsPerPost] reactions on every post, given by the users of
+     * users.json in turn with a different emoji each round, the way a busy channel is reacted to.
+     */
+    fun reactionsJson(reactionsPerPost: Int): JSONObject {
+        val page = JSONObject(payload("posts.json"))
+        val order = page.getJSONArray("order")
+        val posts = page.getJSONObject("posts")
+        val users = JSONArray(payload("users.json"))
+
+        for (i in 0 until order.length()) {
+            val post = posts.getJSONObject(order.getString(i))
+            val reactions = JSONArray()
+            for (r in 0 until reactionsPerPost) {
+                reactions.put(JSONObject()
+                        .put("create_at", post.getLong("create_at") + r * 1000L)
+                        .put("emoji_name", EMOJIS[(r / users.length()) % EMOJIS.size])
+                        .put("post_id", post.getString("id"))
+                        .put("user_id", users.getJSONObject(r % users.length()).getString("id")))
+            }
+            val metadata = post.optJSONObject("metadata") ?: JSONObject().also { post.put("metadata", it) }
+            metadata.put("reactions", reactions)
+        }
+
+        return page
+    }
+
+    fun array(name: String): ReadableArray {
+        return ReadableArrayUtils.toWritableArray(ReadableArrayUtils.toArray(JSONArray(payload(name))))
+    }
+
+    fun openServerDatabase(): WMDatabase {
+        val db = WMDatabase.buildDatabase(":memory:", null, 0)
+        db.unsafeExecuteStatements(resource("server_schema.sql"))
+        return db
+    }
+
+    /**
+     * Removes every row so each invocation writes into an empty database.
+     */
+    fun clear(db: WMDatabase) {
+        val tables = ArrayList<String>()
+        db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'").use { cursor ->
+            while (cursor.moveToNext()) {
+                cursor.getString(0)?.let { tables.add(it) }
+            }
+        }
+        db.transaction {
+            tables.forEach { db.execute("DELETE FROM \"$it\"") }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.mattermost.helpers.database_extension
+
+import com.facebook.react.bridge.ReadableMap
+import com.mattermost.helpers.DatabaseHelper
+import com.nozbe.watermelondb.WMDatabase
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of handlePosts for pages of `posts` posts, with the same `database` modes as
+ * [NotificationWriteBenchmark]: written into empty tables, or over the same posts already stored.
+ * handlePosts starts from the map handed over by the bridge, handlePostsFromJson decodes the JSON
+ * text of the page the way the write queue does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class PostsWriteBenchmark {
+    @Param("empty", "existing")
+    lateinit var database: String
+
+    @Param("60", "200", "1000")
+    var posts: Int = 0
+
+    private val dbHelper = DatabaseHelper.instance!!
+    private lateinit var db: WMDatabase
+    private lateinit var page: ReadableMap
+    private lateinit var pageJson: String
+    private lateinit var channelId: String
+
+    @Setup(Level.Trial)
+    fun loadPayloads() {
+        page = Payloads.posts(posts)
+        pageJson = Payloads.postsJson(posts).toString()
+        channelId = Payloads.map("notification.json").getMap("channel")!!.getString("id")!!
+
+        db = Payloads.openServerDatabase()
+        if (database == "existing") {
+            handlePosts()
+        }
+    }
+
+    @Setup(Level.Invocation)
+    fun resetDatabase() {
+        if (database == "empty") {
+            Payloads.clear(db)
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun closeDatabase() {
+        db.close()
+    }
+
+    @Benchmark
+    fun handlePosts() {
+        db.transaction {
+            dbHelper.handlePosts(db, page, channelId, false)
+        }
+    }
+
+    @Benchmark
+    fun handlePostsFromJson() {
+        db.transaction {
+            dbHelper.handlePosts(db, decodePostsPage(pageJson), channelId, false)
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.mattermost.helpers.database_extension
+
+import com.mattermost.helpers.RandomId
+import com.nozbe.watermelondb.WMDatabase
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of writing the reactions of a 60 post page with `reactions` reactions on every post.
+ * multiRowInsert goes through insertReactions, perRowInsert is the INSERT per reaction it replaced.
+ * Both write into an empty Reaction table inside one transaction, as handlePosts does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class ReactionsWriteBenchmark {
+    @Param("5", "50", "200")
+    var reactions: Int = 0
+
+    private lateinit var db: WMDatabase
+    private lateinit var page: List<List<ReactionRecord>>
+
+    @Setup(Level.Trial)
+    fun loadPayloads() {
+        page = decodePostsPage(Payloads.reactionsJson(reactions).toString()).posts.map { it.reactions }
+        db = Payloads.openServerDatabase()
+    }
+
+    @Setup(Level.Invocation)
+    fun resetDatabase() {
+        db.execute("DELETE FROM Reaction")
+    }
+
+    @TearDown(Level.Trial)
+    fun closeDatabase() {
+        db.close()
+    }
+
+    @Benchmark
+    fun multiRowInsert() {
+        db.transaction {
+            page.forEach { insertReactions(db, it) }
+        }
+    }
+
+    @Benchmark
+    fun perRowInsert() {
+        db.transaction {
+            page.forEach { post ->
+                post.forEach { reaction ->
+                    db.execute(
+                            """
+                            INSERT INTO Reaction 
+                            (id, create_at, emoji_name, post_id, user_id, _changed, _status) 
+                            VALUES (?, ?, ?, ?, ?, '', 'created')
+                            """.trimIndent(),
+                            arrayOf(RandomId.generate(), reaction.createAt, reaction.emojiName, reaction.postId, reaction.userId)
+                    )
+                }
+            }
+        }
+    }
+}
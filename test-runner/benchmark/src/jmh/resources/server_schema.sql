@@ -0,0 +1,165 @@
+-- Server database schema as created by WatermelonDB from app/database/schema/server (version 20).
+-- Regenerate it when the tables written by the native notification code change.
+
+create table "Category" ("id" primary key, "_changed", "_status", "collapsed", "display_name", "muted", "sort_order", "sorting", "team_id", "type");
+create index "Category_team_id" on "Category" ("team_id");
+create index "Category__status" on "Category" ("_status");
+
+create table "CategoryChannel" ("id" primary key, "_changed", "_status", "category_id", "channel_id", "sort_order");
+create index "CategoryChannel_category_id" on "CategoryChannel" ("category_id");
+create index "CategoryChannel_channel_id" on "CategoryChannel" ("channel_id");
+create index "CategoryChannel__status" on "CategoryChannel" ("_status");
+
+create table "Channel" ("id" primary key, "_changed", "_status", "create_at", "creator_id", "delete_at", "display_name", "is_group_constrained", "name", "shared", "team_id", "type", "update_at", "banner_info", "abac_policy_enforced", "autotranslation");
+create index "Channel_creator_id" on "Channel" ("creator_id");
+create index "Channel_name" on "Channel" ("name");
+create index "Channel_team_id" on "Channel" ("team_id");
+create index "Channel__status" on "Channel" ("_status");
+
+create table "ChannelBookmark" ("id" primary key, "_changed", "_status", "create_at", "update_at", "delete_at", "channel_id", "owner_id", "file_id", "display_name", "sort_order", "link_url", "image_url", "emoji", "type", "original_id", "parent_id");
+create index "ChannelBookmark_channel_id" on "ChannelBookmark" ("channel_id");
+create index "ChannelBookmark__status" on "ChannelBookmark" ("_status");
+
+create table "ChannelInfo" ("id" primary key, "_changed", "_status", "guest_count", "header", "member_count", "pinned_post_count", "files_count", "purpose");
+create index "ChannelInfo__status" on "ChannelInfo" ("_status");
+
+create table "ChannelMembership" ("id" primary key, "_changed", "_status", "channel_id", "user_id", "scheme_admin");
+create index "ChannelMembership_channel_id" on "ChannelMembership" ("channel_id");
+create index "ChannelMembership_user_id" on "ChannelMembership" ("user_id");
+create index "ChannelMembership__status" on "ChannelMembership" ("_status");
+
+create table "Config" ("id" primary key, "_changed", "_status", "value");
+create index "Config__status" on "Config" ("_status");
+
+create table "CustomEmoji" ("id" primary key, "_changed", "_status", "name");
+create index "CustomEmoji_name" on "CustomEmoji" ("name");
+create index "CustomEmoji__status" on "CustomEmoji" ("_status");
+
+create table "CustomProfileAttribute" ("id" primary key, "_changed", "_status", "field_id", "user_id", "value");
+create index "CustomProfileAttribute_field_id" on "CustomProfileAttribute" ("field_id");
+create index "CustomProfileAttribute_user_id" on "CustomProfileAttribute" ("user_id");
+create index "CustomProfileAttribute__status" on "CustomProfileAttribute" ("_status");
+
+create table "CustomProfileField" ("id" primary key, "_changed", "_status", "group_id", "name", "type", "target_id", "target_type", "create_at", "update_at", "delete_at", "attrs");
+create index "CustomProfileField__status" on "CustomProfileField" ("_status");
+
+create table "Draft" ("id" primary key, "_changed", "_status", "channel_id", "files", "message", "root_id", "metadata", "update_at", "type");
+create index "Draft_channel_id" on "Draft" ("channel_id");
+create index "Draft_root_id" on "Draft" ("root_id");
+create index "Draft__status" on "Draft" ("_status");
+
+create table "File" ("id" primary key, "_changed", "_status", "extension", "height", "image_thumbnail", "local_path", "mime_type", "name", "post_id", "size", "width", "is_blocked");
+create index "File_post_id" on "File" ("post_id");
+create index "File__status" on "File" ("_status");
+
+create table "Group" ("id" primary key, "_changed", "_status", "display_name", "name", "description", "source", "remote_id", "created_at", "updated_at", "deleted_at", "member_count");
+create index "Group_name" on "Group" ("name");
+create index "Group_remote_id" on "Group" ("remote_id");
+create index "Group__status" on "Group" ("_status");
+
+create table "GroupChannel" ("id" primary key, "_changed", "_status", "group_id", "channel_id", "created_at", "updated_at", "deleted_at");
+create index "GroupChannel_group_id" on "GroupChannel" ("group_id");
+create index "GroupChannel_channel_id" on "GroupChannel" ("channel_id");
+create index "GroupChannel__status" on "GroupChannel" ("_status");
+
+create table "GroupMembership" ("id" primary key, "_changed", "_status", "group_id", "user_id", "created_at", "updated_at", "deleted_at");
+create index "GroupMembership_group_id" on "GroupMembership" ("group_id");
+create index "GroupMembership_user_id" on "GroupMembership" ("user_id");
+create index "GroupMembership__status" on "GroupMembership" ("_status");
+
+create table "GroupTeam" ("id" primary key, "_changed", "_status", "group_id", "team_id", "created_at", "updated_at", "deleted_at");
+create index "GroupTeam_group_id" on "GroupTeam" ("group_id");
+create index "GroupTeam_team_id" on "GroupTeam" ("team_id");
+create index "GroupTeam__status" on "GroupTeam" ("_status");
+
+create table "MyChannel" ("id" primary key, "_changed", "_status", "is_unread", "last_post_at", "last_viewed_at", "manually_unread", "mentions_count", "message_count", "roles", "viewed_at", "last_fetched_at", "last_playbook_runs_fetch_at", "autotranslation_disabled");
+create index "MyChannel_last_fetched_at" on "MyChannel" ("last_fetched_at");
+create index "MyChannel__status" on "MyChannel" ("_status");
+
+create table "MyChannelSettings" ("id" primary key, "_changed", "_status", "notify_props");
+create index "MyChannelSettings__status" on "MyChannelSettings" ("_status");
+
+create table "MyTeam" ("id" primary key, "_changed", "_status", "roles");
+create index "MyTeam__status" on "MyTeam" ("_status");
+
+create table "Post" ("id" primary key, "_changed", "_status", "channel_id", "create_at", "delete_at", "edit_at", "is_pinned", "message", "message_source", "metadata", "original_id", "pending_post_id", "previous_post_id", "props", "root_id", "type", "update_at", "user_id");
+create index "Post_channel_id" on "Post" ("channel_id");
+create index "Post_pending_post_id" on "Post" ("pending_post_id");
+create index "Post_type" on "Post" ("type");
+create index "Post_user_id" on "Post" ("user_id");
+create index "Post__status" on "Post" ("_status");
+
+create table "PostsInChannel" ("id" primary key, "_changed", "_status", "channel_id", "earliest", "latest");
+create index "PostsInChannel_channel_id" on "PostsInChannel" ("channel_id");
+create index "PostsInChannel__status" on "PostsInChannel" ("_status");
+
+create table "PostsInThread" ("id" primary key, "_changed", "_status", "earliest", "latest", "root_id");
+create index "PostsInThread_root_id" on "PostsInThread" ("root_id");
+create index "PostsInThread__status" on "PostsInThread" ("_status");
+
+create table "Preference" ("id" primary key, "_changed", "_status", "category", "name", "user_id", "value");
+create index "Preference_category" on "Preference" ("category");
+create index "Preference_user_id" on "Preference" ("user_id");
+create index "Preference__status" on "Preference" ("_status");
+
+create table "PropertyField" ("id" primary key, "_changed", "_status", "group_id", "name", "type", "attrs", "object_type", "target_id", "target_type", "protected", "permission_field", "permission_values", "permission_options", "create_at", "update_at", "delete_at", "created_by", "updated_by");
+create index "PropertyField_target_id" on "PropertyField" ("target_id");
+create index "PropertyField_update_at" on "PropertyField" ("update_at");
+create index "PropertyField__status" on "PropertyField" ("_status");
+
+create table "PropertyValue" ("id" primary key, "_changed", "_status", "field_id", "target_id", "target_type", "group_id", "value", "create_at", "update_at", "delete_at", "created_by", "updated_by");
+create index "PropertyValue_field_id" on "PropertyValue" ("field_id");
+create index "PropertyValue_target_id" on "PropertyValue" ("target_id");
+create index "PropertyValue__status" on "PropertyValue" ("_status");
+
+create table "Reaction" ("id" primary key, "_changed", "_status", "create_at", "emoji_name", "post_id", "user_id");
+create index "Reaction_post_id" on "Reaction" ("post_id");
+create index "Reaction_user_id" on "Reaction" ("user_id");
+create index "Reaction__status" on "Reaction" ("_status");
+
+create table "Role" ("id" primary key, "_changed", "_status", "name", "permissions");
+create index "Role_name" on "Role" ("name");
+create index "Role__status" on "Role" ("_status");
+
+create table "ScheduledPost" ("id" primary key, "_changed", "_status", "channel_id", "files", "message", "root_id", "metadata", "create_at", "update_at", "scheduled_at", "processed_at", "error_code", "type");
+create index "ScheduledPost_channel_id" on "ScheduledPost" ("channel_id");
+create index "ScheduledPost_root_id" on "ScheduledPost" ("root_id");
+create index "ScheduledPost__status" on "ScheduledPost" ("_status");
+
+create table "System" ("id" primary key, "_changed", "_status", "value");
+create index "System__status" on "System" ("_status");
+
+create table "Team" ("id" primary key, "_changed", "_status", "allowed_domains", "description", "display_name", "is_allow_open_invite", "is_group_constrained", "last_team_icon_updated_at", "name", "type", "update_at", "invite_id");
+create index "Team__status" on "Team" ("_status");
+
+create table "TeamChannelHistory" ("id" primary key, "_changed", "_status", "channel_ids");
+create index "TeamChannelHistory__status" on "TeamChannelHistory" ("_status");
+
+create table "TeamMembership" ("id" primary key, "_changed", "_status", "team_id", "user_id", "scheme_admin");
+create index "TeamMembership_team_id" on "TeamMembership" ("team_id");
+create index "TeamMembership_user_id" on "TeamMembership" ("user_id");
+create index "TeamMembership__status" on "TeamMembership" ("_status");
+
+create table "TeamSearchHistory" ("id" primary key, "_changed", "_status", "created_at", "display_term", "team_id", "term");
+create index "TeamSearchHistory_team_id" on "TeamSearchHistory" ("team_id");
+create index "TeamSearchHistory__status" on "TeamSearchHistory" ("_status");
+
+create table "TeamThreadsSync" ("id" primary key, "_changed", "_status", "earliest", "latest");
+create index "TeamThreadsSync__status" on "TeamThreadsSync" ("_status");
+
+create table "Thread" ("id" primary key, "_changed", "_status", "is_following", "last_reply_at", "last_viewed_at", "reply_count", "unread_mentions", "unread_replies", "viewed_at", "last_fetched_at");
+create index "Thread_last_fetched_at" on "Thread" ("last_fetched_at");
+create index "Thread__status" on "Thread" ("_status");
+
+create table "ThreadsInTeam" ("id" primary key, "_changed", "_status", "team_id", "thread_id");
+create index "ThreadsInTeam_team_id" on "ThreadsInTeam" ("team_id");
+create index "ThreadsInTeam_thread_id" on "ThreadsInTeam" ("thread_id");
+create index "ThreadsInTeam__status" on "ThreadsInTeam" ("_status");
+
+create table "ThreadParticipant" ("id" primary key, "_changed", "_status", "thread_id", "user_id");
+create index "ThreadParticipant_thread_id" on "ThreadParticipant" ("thread_id");
+create index "ThreadParticipant_user_id" on "ThreadParticipant" ("user_id");
+create index "ThreadParticipant__status" on "ThreadParticipant" ("_status");
+
+create table "User" ("id" primary key, "_changed", "_status", "auth_service", "delete_at", "email", "first_name", "is_bot", "is_guest", "last_name", "last_picture_update", "locale", "nickname", "notify_props", "position", "props", "remote_id", "roles", "status", "timezone", "update_at", "username", "terms_of_service_id", "terms_of_service_create_at");
+create index "User__status" on "User" ("_status");
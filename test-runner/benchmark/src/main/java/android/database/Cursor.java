@@ -0,0 +1,33 @@
+package android.database;
+
+import java.io.Closeable;
+
+/**
+ * Stub of Android's Cursor for the JVM benchmarks.
+ * Only includes members used by the code under test. It is declared in Java, like the Android
+ * class, so Kotlin callers see the same platform types.
+ */
+public interface Cursor extends Closeable {
+    int FIELD_TYPE_NULL = 0;
+    int FIELD_TYPE_INTEGER = 1;
+    int FIELD_TYPE_FLOAT = 2;
+    int FIELD_TYPE_STRING = 3;
+    int FIELD_TYPE_BLOB = 4;
+
+    int getCount();
+    int getColumnCount();
+
+    boolean moveToFirst();
+    boolean moveToNext();
+    int getColumnIndex(String columnName);
+    String getColumnName(int columnIndex);
+    int getType(int columnIndex);
+    boolean isNull(int columnIndex);
+    String getString(int columnIndex);
+    double getDouble(int columnIndex);
+    int getInt(int columnIndex);
+    long getLong(int columnIndex);
+
+    @Override
+    void close();
+}
@@ -0,0 +1 @@
+../../../../../../../../android/app/src/main/java/com/mattermost/helpers/ReadableArrayUtils.java
\ No newline at end of file
@@ -0,0 +1 @@
+../../../../../../../../android/app/src/main/java/com/mattermost/helpers/ReadableMapUtils.java
\ No newline at end of file
@@ -0,0 +1,12 @@
+package android.content
+
+import java.io.File
+
+/**
+ * Stub of Android's Context for the JVM benchmarks.
+ * Only includes members used by the code under test.
+ */
+open class Context(val filesDir: File) {
+    open val applicationContext: Context
+        get() = this
+}
@@ -0,0 +1,11 @@
+package android.database.sqlite
+
+/**
+ * Stub of Android's SQLiteDatabase for the JVM benchmarks, only the open flags are used.
+ */
+class SQLiteDatabase private constructor() {
+    companion object {
+        const val OPEN_READWRITE = 0x00000000
+        const val CREATE_IF_NECESSARY = 0x10000000
+    }
+}
@@ -0,0 +1,15 @@
+package android.net
+
+import java.io.File
+
+/**
+ * Stub of Android's Uri for the JVM benchmarks.
+ */
+class Uri private constructor(private val value: String) {
+    override fun toString(): String = value
+
+    companion object {
+        @JvmStatic
+        fun fromFile(file: File): Uri = Uri("file://${file.absolutePath}")
+    }
+}
@@ -0,0 +1,12 @@
+package android.os
+
+/**
+ * Stub of Android's SystemClock for the JVM benchmarks.
+ */
+object SystemClock {
+    @JvmStatic
+    fun elapsedRealtime(): Long = System.nanoTime() / 1_000_000
+
+    @JvmStatic
+    fun elapsedRealtimeNanos(): Long = System.nanoTime()
+}
@@ -0,0 +1,12 @@
+package android.text
+
+/**
+ * Stub of Android's TextUtils for the JVM benchmarks.
+ */
+object TextUtils {
+    @JvmStatic
+    fun join(delimiter: CharSequence, tokens: Iterable<*>): String = tokens.joinToString(delimiter)
+
+    @JvmStatic
+    fun join(delimiter: CharSequence, tokens: Array<*>): String = tokens.joinToString(delimiter)
+}
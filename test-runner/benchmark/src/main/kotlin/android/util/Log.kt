@@ -0,0 +1,20 @@
+@file:Suppress("UNUSED_PARAMETER")
+
+package android.util
+
+/**
+ * Stub of Android's Log for the JVM benchmarks, messages are dropped so they do not skew results.
+ */
+object Log {
+    @JvmStatic
+    fun d(tag: String, msg: String): Int = 0
+
+    @JvmStatic
+    fun i(tag: String, msg: String): Int = 0
+
+    @JvmStatic
+    fun w(tag: String, msg: String): Int = 0
+
+    @JvmStatic
+    fun e(tag: String, msg: String): Int = 0
+}
@@ -0,0 +1,12 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's Arguments for the JVM benchmarks, creates Java only maps and arrays.
+ */
+object Arguments {
+    @JvmStatic
+    fun createMap(): WritableMap = JavaOnlyMap()
+
+    @JvmStatic
+    fun createArray(): WritableArray = JavaOnlyArray()
+}
@@ -0,0 +1,40 @@
+package com.facebook.react.bridge
+
+/**
+ * List backed implementation of [WritableArray] used in place of the native arrays on the JVM.
+ */
+class JavaOnlyArray : WritableArray {
+    private val values = ArrayList<Any?>()
+
+    override fun size() = values.size
+    override fun isNull(index: Int) = values[index] == null
+    override fun getBoolean(index: Int) = values[index] as Boolean
+    override fun getDouble(index: Int) = (values[index] as Number).toDouble()
+    override fun getInt(index: Int) = (values[index] as Number).toInt()
+    override fun getLong(index: Int) = (values[index] as Number).toLong()
+    override fun getString(index: Int) = values[index] as String?
+    override fun getArray(index: Int) = values[index] as ReadableArray?
+    override fun getMap(index: Int) = values[index] as ReadableMap?
+    override fun getType(index: Int) = JavaOnlyMap.typeOf(values[index])
+
+    override fun toArrayList(): ArrayList<Any?> {
+        val list = ArrayList<Any?>(values.size)
+        for (value in values) {
+            list.add(when (value) {
+                is ReadableMap -> value.toHashMap()
+                is ReadableArray -> value.toArrayList()
+                else -> value
+            })
+        }
+        return list
+    }
+
+    override fun pushNull() { values.add(null) }
+    override fun pushBoolean(value: Boolean) { values.add(value) }
+    override fun pushDouble(value: Double) { values.add(value) }
+    override fun pushInt(value: Int) { values.add(value.toDouble()) }
+    override fun pushLong(value: Long) { values.add(value.toDouble()) }
+    override fun pushString(value: String?) { values.add(value) }
+    override fun pushArray(array: ReadableArray?) { values.add(array) }
+    override fun pushMap(map: ReadableMap?) { values.add(map) }
+}
@@ -0,0 +1,86 @@
+package com.facebook.react.bridge
+
+/**
+ * Map backed implementation of [WritableMap] used in place of the native maps on the JVM.
+ *
+ * Numbers are stored as doubles like the bridge does. Like ReadableNativeMap, reading a missing key
+ * as a string, array or map returns null while reading it as any other type throws
+ * [NoSuchKeyException], so the code under test takes the same paths.
+ */
+class JavaOnlyMap : WritableMap {
+    private val values = LinkedHashMap<String, Any?>()
+
+    private fun value(name: String): Any? {
+        if (!values.containsKey(name)) {
+            throw NoSuchKeyException(name)
+        }
+        return values[name]
+    }
+
+    override fun hasKey(name: String) = values.containsKey(name)
+    override fun isNull(name: String) = values[name] == null
+    override fun getBoolean(name: String) = value(name) as Boolean
+    override fun getDouble(name: String) = (value(name) as Number).toDouble()
+    override fun getInt(name: String) = (value(name) as Number).toInt()
+    override fun getLong(name: String) = (value(name) as Number).toLong()
+    override fun getString(name: String) = values[name] as String?
+    override fun getArray(name: String) = values[name] as ReadableArray?
+    override fun getMap(name: String) = values[name] as ReadableMap?
+    override fun getType(name: String) = typeOf(value(name))
+
+    override fun keySetIterator(): ReadableMapKeySetIterator {
+        val keys = values.keys.iterator()
+        return object : ReadableMapKeySetIterator {
+            override fun hasNextKey() = keys.hasNext()
+            override fun nextKey() = keys.next()
+        }
+    }
+
+    override fun toHashMap(): HashMap<String, Any?> {
+        val map = HashMap<String, Any?>()
+        for ((key, value) in values) {
+            map[key] = when (value) {
+                is ReadableMap -> value.toHashMap()
+                is ReadableArray -> value.toArrayList()
+                else -> value
+            }
+        }
+        return map
+    }
+
+    override fun putNull(key: String) { values[key] = null }
+    override fun putBoolean(key: String, value: Boolean) { values[key] = value }
+    override fun putDouble(key: String, value: Double) { values[key] = value }
+    override fun putInt(key: String, value: Int) { values[key] = value.toDouble() }
+    override fun putLong(key: String, value: Long) { values[key] = value.toDouble() }
+    override fun putString(key: String, value: String?) { values[key] = value }
+    override fun putArray(key: String, value: ReadableArray?) { values[key] = value }
+    override fun putMap(key: String, value: ReadableMap?) { values[key] = value }
+
+    override fun merge(source: ReadableMap) {
+        val iterator = source.keySetIterator()
+        while (iterator.hasNextKey()) {
+            val key = iterator.nextKey()
+            values[key] = when (source.getType(key)) {
+                ReadableType.Null -> null
+                ReadableType.Boolean -> source.getBoolean(key)
+                ReadableType.Number -> source.getDouble(key)
+                ReadableType.String -> source.getString(key)
+                ReadableType.Map -> source.getMap(key)
+                ReadableType.Array -> source.getArray(key)
+            }
+        }
+    }
+
+    companion object {
+        internal fun typeOf(value: Any?): ReadableType = when (value) {
+            null -> ReadableType.Null
+            is Boolean -> ReadableType.Boolean
+            is Number -> ReadableType.Number
+            is String -> ReadableType.String
+            is ReadableMap -> ReadableType.Map
+            is ReadableArray -> ReadableType.Array
+            else -> throw IllegalArgumentException("Unsupported value ${value.javaClass}")
+        }
+    }
+}
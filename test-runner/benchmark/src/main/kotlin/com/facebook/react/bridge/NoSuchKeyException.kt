@@ -0,0 +1,6 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's NoSuchKeyException, thrown like the native maps do for missing keys.
+ */
+class NoSuchKeyException(msg: String) : RuntimeException(msg)
@@ -0,0 +1,19 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's ReadableArray interface for the JVM benchmarks.
+ * Only includes methods used by the code under test.
+ */
+interface ReadableArray {
+    fun size(): Int
+    fun isNull(index: Int): Boolean
+    fun getBoolean(index: Int): Boolean
+    fun getDouble(index: Int): Double
+    fun getInt(index: Int): Int
+    fun getLong(index: Int): Long
+    fun getString(index: Int): String?
+    fun getArray(index: Int): ReadableArray?
+    fun getMap(index: Int): ReadableMap?
+    fun getType(index: Int): ReadableType
+    fun toArrayList(): ArrayList<Any?>
+}
@@ -0,0 +1,20 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's ReadableMap interface for the JVM benchmarks.
+ * Only includes methods used by the code under test.
+ */
+interface ReadableMap {
+    fun hasKey(name: String): Boolean
+    fun isNull(name: String): Boolean
+    fun getBoolean(name: String): Boolean
+    fun getDouble(name: String): Double
+    fun getInt(name: String): Int
+    fun getLong(name: String): Long
+    fun getString(name: String): String?
+    fun getArray(name: String): ReadableArray?
+    fun getMap(name: String): ReadableMap?
+    fun getType(name: String): ReadableType
+    fun keySetIterator(): ReadableMapKeySetIterator
+    fun toHashMap(): HashMap<String, Any?>
+}
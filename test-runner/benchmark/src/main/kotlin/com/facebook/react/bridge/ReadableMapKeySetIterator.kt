@@ -0,0 +1,9 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's ReadableMapKeySetIterator for the JVM benchmarks.
+ */
+interface ReadableMapKeySetIterator {
+    fun hasNextKey(): Boolean
+    fun nextKey(): String
+}
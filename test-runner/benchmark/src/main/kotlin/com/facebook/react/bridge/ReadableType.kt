@@ -0,0 +1,13 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's ReadableType enum for the JVM benchmarks.
+ */
+enum class ReadableType {
+    Null,
+    Boolean,
+    Number,
+    String,
+    Map,
+    Array
+}
@@ -0,0 +1,15 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's WritableArray interface for the JVM benchmarks.
+ */
+interface WritableArray : ReadableArray {
+    fun pushNull()
+    fun pushBoolean(value: Boolean)
+    fun pushDouble(value: Double)
+    fun pushInt(value: Int)
+    fun pushLong(value: Long)
+    fun pushString(value: String?)
+    fun pushArray(array: ReadableArray?)
+    fun pushMap(map: ReadableMap?)
+}
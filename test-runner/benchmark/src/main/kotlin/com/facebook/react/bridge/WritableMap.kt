@@ -0,0 +1,16 @@
+package com.facebook.react.bridge
+
+/**
+ * Stub of React Native's WritableMap interface for the JVM benchmarks.
+ */
+interface WritableMap : ReadableMap {
+    fun putNull(key: String)
+    fun putBoolean(key: String, value: Boolean)
+    fun putDouble(key: String, value: Double)
+    fun putInt(key: String, value: Int)
+    fun putLong(key: String, value: Long)
+    fun putString(key: String, value: String?)
+    fun putArray(key: String, value: ReadableArray?)
+    fun putMap(key: String, value: ReadableMap?)
+    fun merge(source: ReadableMap)
+}
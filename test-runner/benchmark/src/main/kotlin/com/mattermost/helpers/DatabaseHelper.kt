@@ -0,0 +1 @@
+../../../../../../../../android/app/src/main/java/com/mattermost/helpers/DatabaseHelper.kt
\ No newline at end of file
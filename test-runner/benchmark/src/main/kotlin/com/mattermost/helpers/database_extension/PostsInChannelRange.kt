@@ -0,0 +1 @@
+../../../../../../../../../android/app/src/main/java/com/mattermost/helpers/database_extension/PostsInChannelRange.kt
\ No newline at end of file
@@ -0,0 +1 @@
+../../../../../../../../../libraries/@mattermost/rnutils/android/src/main/java/com/mattermost/rnutils/helpers/PushMetrics.kt
\ No newline at end of file
@@ -0,0 +1,20 @@
+@file:Suppress("UNUSED_PARAMETER")
+
+package com.mattermost.turbolog
+
+/**
+ * Stub of TurboLog for the JVM benchmarks, messages are dropped so they do not skew results.
+ */
+object TurboLog {
+    @JvmStatic
+    fun d(tag: String, message: String) {}
+
+    @JvmStatic
+    fun i(tag: String, message: String) {}
+
+    @JvmStatic
+    fun w(tag: String, message: String) {}
+
+    @JvmStatic
+    fun e(tag: String, message: String) {}
+}
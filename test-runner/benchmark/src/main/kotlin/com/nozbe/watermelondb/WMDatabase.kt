@@ -0,0 +1,168 @@
+package com.nozbe.watermelondb
+
+import android.content.Context
+import android.database.Cursor
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+
+/**
+ * JVM implementation of WatermelonDB's WMDatabase over the xerial SQLite JDBC driver.
+ *
+ * It mirrors what the Android class does with an SQLiteDatabase: statements are prepared once and
+ * kept in a small LRU cache, arguments are bound by type, booleans as 0 / 1, and transactions can
+ * be nested with only the outermost one committing.
+ */
+class WMDatabase private constructor(private val connection: Connection) {
+    private var transactionDepth = 0
+    private val statements = object : LinkedHashMap<String, PreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, PreparedStatement>): Boolean {
+            if (size > STATEMENT_CACHE_SIZE) {
+                eldest.value.close()
+                return true
+            }
+            return false
+        }
+    }
+
+    fun unsafeExecuteStatements(statements: String) {
+        val sql = statements.lineSequence().filterNot { it.trimStart().startsWith("--") }.joinToString("\n")
+        connection.createStatement().use { statement ->
+            sql.split(";").map { it.trim() }.filter { it.isNotEmpty() }.forEach { statement.executeUpdate(it) }
+        }
+    }
+
+    fun execute(query: String, args: Array<Any?> = emptyArray()) {
+        prepare(query, args).executeUpdate()
+    }
+
+    fun rawQuery(query: String, args: Array<Any?> = emptyArray()): Cursor {
+        prepare(query, args).executeQuery().use { resultSet ->
+            val meta = resultSet.metaData
+            val columns = Array(meta.columnCount) { meta.getColumnLabel(it + 1) }
+            val rows = ArrayList<Array<Any?>>()
+            while (resultSet.next()) {
+                rows.add(Array(columns.size) { resultSet.getObject(it + 1) })
+            }
+            return MaterializedCursor(columns, rows)
+        }
+    }
+
+    fun count(query: String, args: Array<Any?> = emptyArray()): Int {
+        rawQuery(query, args).use { cursor ->
+            return if (cursor.moveToFirst()) cursor.getInt(0) else 0
+        }
+    }
+
+    fun transaction(function: () -> Unit) {
+        val outermost = transactionDepth == 0
+        if (outermost) {
+            connection.autoCommit = false
+        }
+        transactionDepth++
+        try {
+            function()
+            if (outermost) {
+                connection.commit()
+            }
+        } catch (e: Throwable) {
+            if (outermost) {
+                connection.rollback()
+            }
+            throw e
+        } finally {
+            transactionDepth--
+            if (outermost) {
+                connection.autoCommit = true
+            }
+        }
+    }
+
+    fun close() {
+        statements.values.forEach { it.close() }
+        statements.clear()
+        connection.close()
+    }
+
+    private fun prepare(query: String, args: Array<Any?>): PreparedStatement {
+        val statement = statements.getOrPut(query) { connection.prepareStatement(query) }
+        statement.clearParameters()
+        args.forEachIndexed { i, arg ->
+            val index = i + 1
+            when (arg) {
+                null -> statement.setNull(index, java.sql.Types.NULL)
+                is Boolean -> statement.setLong(index, if (arg) 1 else 0)
+                is Double -> statement.setDouble(index, arg)
+                is Float -> statement.setDouble(index, arg.toDouble())
+                is Number -> statement.setLong(index, arg.toLong())
+                is ByteArray -> statement.setBytes(index, arg)
+                else -> statement.setString(index, arg.toString())
+            }
+        }
+        return statement
+    }
+
+    private class MaterializedCursor(private val columns: Array<String>, private val rows: List<Array<Any?>>) : Cursor {
+        private var position = -1
+
+        override fun getCount() = rows.size
+        override fun getColumnCount() = columns.size
+
+        override fun moveToFirst(): Boolean {
+            position = 0
+            return rows.isNotEmpty()
+        }
+
+        override fun moveToNext(): Boolean {
+            if (position < rows.size) {
+                position++
+            }
+            return position < rows.size
+        }
+
+        override fun getColumnIndex(columnName: String) = columns.indexOf(columnName)
+        override fun getColumnName(columnIndex: Int) = columns[columnIndex]
+
+        override fun getType(columnIndex: Int) = when (value(columnIndex)) {
+            null -> Cursor.FIELD_TYPE_NULL
+            is Double, is Float -> Cursor.FIELD_TYPE_FLOAT
+            is Number -> Cursor.FIELD_TYPE_INTEGER
+            is ByteArray -> Cursor.FIELD_TYPE_BLOB
+            else -> Cursor.FIELD_TYPE_STRING
+        }
+
+        override fun isNull(columnIndex: Int) = value(columnIndex) == null
+        override fun getString(columnIndex: Int): String? = value(columnIndex)?.toString()
+        override fun getDouble(columnIndex: Int) = number(columnIndex).toDouble()
+        override fun getInt(columnIndex: Int) = number(columnIndex).toInt()
+        override fun getLong(columnIndex: Int) = number(columnIndex).toLong()
+
+        override fun close() {}
+
+        private fun value(columnIndex: Int) = rows[position][columnIndex]
+
+        private fun number(columnIndex: Int): Number = when (val value = value(columnIndex)) {
+            null -> 0
+            is Number -> value
+            else -> value.toString().toDoubleOrNull() ?: 0
+        }
+    }
+
+    companion object {
+        private const val STATEMENT_CACHE_SIZE = 25
+
+        /**
+         * Opens the database at [name], a file path, a file:// url or ":memory:". [context] and
+         * [openFlags] are part of the Android signature, the JDBC driver creates the file as needed.
+         */
+        @Suppress("UNUSED_PARAMETER")
+        @JvmStatic
+        fun buildDatabase(name: String, context: Context?, openFlags: Int): WMDatabase {
+            val path = name.removePrefix("file://")
+            return WMDatabase(DriverManager.getConnection("jdbc:sqlite:$path"))
+        }
+
+        @JvmStatic
+        fun getInstance(name: String, context: Context?): WMDatabase = buildDatabase(name, context, 0)
+    }
+}
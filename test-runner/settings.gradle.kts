@@ -1 +1,2 @@
 rootProject.name = "mattermost-mobile-test-runner"
+include("benchmark")
@@ -0,0 +1 @@
+../../../../../../../android/app/src/main/java/com/mattermost/helpers/JSONObjectKeys.kt
\ No newline at end of file
@@ -0,0 +1 @@
+../../../../../../../android/app/src/main/java/com/mattermost/helpers/NotificationDataMerge.kt
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.mattermost.helpers
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class CoalescerTest {
+    @Test
+    fun `a lone request starts without waiting for the window`() = runBlocking {
+        val coalescer = Coalescer<Int>(windowMs = 60_000)
+        val result = withTimeout(5_000) { coalescer.run("key") { 1 } }
+        assertEquals(1, result)
+    }
+
+    @Test
+    fun `requests arriving while the work runs share a single follow-up`() = runBlocking {
+        val coalescer = Coalescer<Int>(windowMs = 0)
+        val executions = AtomicInteger()
+        val leaderStarted = CompletableDeferred<Unit>()
+        val releaseLeader = CompletableDeferred<Unit>()
+
+        val leader = async {
+            coalescer.run("key") {
+                leaderStarted.complete(Unit)
+                releaseLeader.await()
+                executions.incrementAndGet()
+            }
+        }
+        leaderStarted.await()
+
+        val followers = (0 until 3).map { async(start = CoroutineStart.UNDISPATCHED) { coalescer.run("key") { executions.incrementAndGet() } } }
+        releaseLeader.complete(Unit)
+
+        assertEquals(1, leader.await())
+        assertEquals(listOf(2, 2, 2), followers.map { it.await() })
+        assertEquals(2, executions.get())
+    }
+
+    @Test
+    fun `unrelated keys do not wait for each other`() = runBlocking {
+        val coalescer = Coalescer<String>(windowMs = 0)
+        val release = CompletableDeferred<Unit>()
+        val blocked = async { coalescer.run("one") { release.await(); "one" } }
+
+        assertEquals("two", withTimeout(5_000) { coalescer.run("two") { "two" } })
+        release.complete(Unit)
+        assertEquals("one", blocked.await())
+    }
+
+    @Test
+    fun `a failure is delivered to the callers that joined it`() = runBlocking {
+        val coalescer = Coalescer<Int>(windowMs = 0)
+        try {
+            coalescer.run("key") { throw IllegalStateException("boom") }
+            fail("expected the failure to be rethrown")
+        } catch (e: IllegalStateException) {
+            assertEquals("boom", e.message)
+        }
+        assertEquals(3, coalescer.run("key") { 3 })
+    }
+}
@@ -0,0 +1,123 @@
+package com.mattermost.helpers
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Tests for [mergeNotificationData], used by the native write queue to fold the payloads of a
+ * notification burst for the same channel into a single write.
+ */
+class NotificationDataMergeTest {
+
+    private fun post(id: String, createAt: Double, message: String = id): JSONObject {
+        return JSONObject().put("id", id).put("create_at", createAt).put("message", message)
+    }
+
+    private fun postsData(vararg posts: JSONObject, prevPostId: String = ""): JSONObject {
+        val map = JSONObject()
+        posts.forEach { map.put(it.getString("id"), it) }
+        val order = posts.sortedByDescending { it.getDouble("create_at") }.map { it.getString("id") }
+        return JSONObject().put("posts", map).put("order", JSONArray(order)).put("prev_post_id", prevPostId)
+    }
+
+    private fun order(data: JSONObject): List<String> {
+        val order = data.getJSONObject("posts").getJSONArray("order")
+        return (0 until order.length()).map { order.getString(it) }
+    }
+
+    @Test
+    fun `later payload wins for posts with the same id`() {
+        val pending = JSONObject().put("posts", postsData(post("a", 1.0), post("b", 2.0, "original")))
+        val next = JSONObject().put("posts", postsData(post("b", 2.0, "edited"), post("c", 3.0)))
+
+        mergeNotificationData(pending, next)
+
+        val posts = pending.getJSONObject("posts").getJSONObject("posts")
+        assertEquals(setOf("a", "b", "c"), posts.keys().asSequence().toSet())
+        assertEquals("edited", posts.getJSONObject("b").getString("message"))
+        assertEquals(listOf("c", "b", "a"), order(pending))
+    }
+
+    @Test
+    fun `previous post id comes from the payload reaching further back`() {
+        val pending = JSONObject().put("posts", postsData(post("a", 1.0), post("b", 2.0), prevPostId = "before-a"))
+        val next = JSONObject().put("posts", postsData(post("b", 2.0), post("c", 3.0), prevPostId = "a"))
+
+        mergeNotificationData(pending, next)
+        assertEquals("before-a", pending.getJSONObject("posts").getString("prev_post_id"))
+
+        val older = JSONObject().put("posts", postsData(post("z", 0.5), prevPostId = "before-z"))
+        mergeNotificationData(pending, older)
+        assertEquals("before-z", pending.getJSONObject("posts").getString("prev_post_id"))
+        assertEquals(listOf("c", "b", "a", "z"), order(pending))
+    }
+
+    @Test
+    fun `users threads and category channels are merged by id`() {
+        val pending = JSONObject()
+                .put("users", JSONArray().put(JSONObject().put("id", "u1").put("username", "old")).put(JSONObject().put("id", "u2")))
+                .put("threads", JSONArray().put(JSONObject().put("id", "t1").put("reply_count", 1)))
+                .put("categoryChannels", JSONArray().put(JSONObject().put("id", "cc1")))
+        val next = JSONObject()
+                .put("users", JSONArray().put(JSONObject().put("id", "u1").put("username", "new")).put(JSONObject().put("id", "u3")))
+                .put("threads", JSONArray().put(JSONObject().put("id", "t1").put("reply_count", 2)))
+                .put("categoryChannels", JSONArray().put(JSONObject().put("id", "cc1")))
+
+        mergeNotificationData(pending, next)
+
+        val users = pending.getJSONArray("users")
+        assertEquals(3, users.length())
+        assertEquals("new", users.getJSONObject(0).getString("username"))
+        assertEquals(listOf("u1", "u2", "u3"), (0 until users.length()).map { users.getJSONObject(it).getString("id") })
+        assertEquals(1, pending.getJSONArray("threads").length())
+        assertEquals(2, pending.getJSONArray("threads").getJSONObject(0).getInt("reply_count"))
+        assertEquals(1, pending.getJSONArray("categoryChannels").length())
+    }
+
+    @Test
+    fun `other entries are replaced by the latest payload`() {
+        val pending = JSONObject()
+                .put("channel", JSONObject().put("id", "c1").put("display_name", "Old"))
+                .put("myChannel", JSONObject().put("id", "c1").put("msg_count", 1))
+        val next = JSONObject()
+                .put("myChannel", JSONObject().put("id", "c1").put("msg_count", 5))
+                .put("team", JSONObject().put("id", "t1"))
+
+        mergeNotificationData(pending, next)
+
+        assertEquals("Old", pending.getJSONObject("channel").getString("display_name"))
+        assertEquals(5, pending.getJSONObject("myChannel").getInt("msg_count"))
+        assertEquals("t1", pending.getJSONObject("team").getString("id"))
+    }
+
+    @Test
+    fun `entries only present in the new payload are added`() {
+        val pending = JSONObject().put("channel", JSONObject().put("id", "c1"))
+        val next = JSONObject().put("posts", postsData(post("a", 1.0))).put("users", JSONArray().put(JSONObject().put("id", "u1")))
+
+        mergeNotificationData(pending, next)
+
+        assertEquals(listOf("a"), order(pending))
+        assertEquals(1, pending.getJSONArray("users").length())
+    }
+
+    @Test
+    fun `channel is only left unchanged when neither payload changed it`() {
+        val unchanged = { JSONObject().put("channel", JSONObject().put("id", "c1")).put("channelUnchanged", true) }
+        val changed = { JSONObject().put("channel", JSONObject().put("id", "c1").put("header", "new")) }
+
+        val both = unchanged()
+        mergeNotificationData(both, unchanged())
+        assertTrue(both.optBoolean("channelUnchanged"))
+
+        val thenChanged = unchanged()
+        mergeNotificationData(thenChanged, changed())
+        assertFalse(thenChanged.has("channelUnchanged"))
+
+        val changedFirst = changed()
+        mergeNotificationData(changedFirst, unchanged())
+        assertFalse(changedFirst.has("channelUnchanged"))
+    }
+}
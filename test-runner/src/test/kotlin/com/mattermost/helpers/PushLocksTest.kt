@@ -0,0 +1,192 @@
+package com.mattermost.helpers
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.yield
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+
+/**
+ * Tests for the locks taken by PushNotificationDataRunnable.start. Every push is held inside its
+ * lock until the test releases it, so what may run at the same time is checked without timing.
+ * The stress test runs on virtual time, so its throughput comparison does not depend on the machine.
+ */
+class PushLocksTest {
+    private val serverUrl = "https://one.example.com"
+
+    private class Push(val name: String) {
+        val release = CompletableDeferred<Unit>()
+    }
+
+    private class Recorder {
+        val entered: MutableList<String> = Collections.synchronizedList(mutableListOf())
+    }
+
+    private fun CoroutineScope.launchInChannel(locks: PushLocks, recorder: Recorder, channelId: String, push: Push) = launch {
+        locks.withChannelLock(serverUrl, channelId) {
+            recorder.entered.add(push.name)
+            push.release.await()
+        }
+    }
+
+    private suspend fun settle() {
+        repeat(10) { yield() }
+    }
+
+    @Test
+    fun `pushes for the same channel run one at a time in arrival order`() = runBlocking {
+        val locks = PushLocks()
+        val recorder = Recorder()
+        val pushes = listOf(Push("root"), Push("reply"), Push("other thread"))
+        val jobs = pushes.map { launchInChannel(locks, recorder, "channel-a", it) }
+
+        for ((index, push) in pushes.withIndex()) {
+            settle()
+            assertEquals(pushes.take(index + 1).map { it.name }, recorder.entered.toList())
+            push.release.complete(Unit)
+        }
+        jobs.forEach { it.join() }
+    }
+
+    @Test
+    fun `pushes for other channels are not blocked`() = runBlocking {
+        // With the production stripes two channels can share a mutex, the second channel is one
+        // that does not, the stress test below covers the channels that do
+        val locks = PushLocks()
+        val stripe = locks.channelLocks.get(PushLocks.channelKey(serverUrl, "channel-a"))
+        val other = generateSequence(0) { it + 1 }.map { "channel-$it" }
+            .first { locks.channelLocks.get(PushLocks.channelKey(serverUrl, it)) !== stripe }
+
+        val recorder = Recorder()
+        val first = Push("channel-a")
+        val second = Push(other)
+        val jobs = listOf(
+            launchInChannel(locks, recorder, "channel-a", first),
+            launchInChannel(locks, recorder, other, second)
+        )
+
+        settle()
+        assertEquals(listOf("channel-a", other), recorder.entered.toList())
+        first.release.complete(Unit)
+        second.release.complete(Unit)
+        jobs.forEach { it.join() }
+    }
+
+    @Test
+    fun `writes to the same server are exclusive and keep their order`() = runBlocking {
+        val locks = PushLocks()
+        val recorder = Recorder()
+        val pushes = listOf(Push("channel-a"), Push("channel-b"))
+        val jobs = pushes.map { push ->
+            launch {
+                locks.withChannelLock(serverUrl, push.name) {
+                    locks.withServerLock(serverUrl) {
+                        recorder.entered.add(push.name)
+                        push.release.await()
+                    }
+                }
+            }
+        }
+
+        settle()
+        assertEquals(listOf("channel-a"), recorder.entered.toList())
+        pushes[0].release.complete(Unit)
+        settle()
+        assertEquals(listOf("channel-a", "channel-b"), recorder.entered.toList())
+        pushes[1].release.complete(Unit)
+        jobs.forEach { it.join() }
+    }
+
+    @Test
+    fun `same key always maps to the same mutex`() {
+        val locks = StripedMutex(4)
+        assertSame(locks.get("https://one.example.com"), locks.get("https://one.example.com"))
+    }
+
+    private class SimulatedPush(val serverUrl: String, val channelId: String, val sequence: Int)
+
+    /**
+     * Pushes for [SERVERS] servers of [CHANNELS_PER_SERVER] channels each, [PUSHES_PER_CHANNEL] per
+     * channel, arriving interleaved across servers and channels as a burst does.
+     */
+    private fun burst(): List<SimulatedPush> {
+        val pushes = ArrayList<SimulatedPush>()
+        for (sequence in 0 until PUSHES_PER_CHANNEL) {
+            for (channel in 0 until CHANNELS_PER_SERVER) {
+                for (server in 0 until SERVERS) {
+                    pushes.add(SimulatedPush("https://server$server.example.com", "channel-$channel", sequence))
+                }
+            }
+        }
+        return pushes
+    }
+
+    // Virtual time taken by the burst when every push runs through [process]
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private suspend fun TestScope.elapsed(pushes: List<SimulatedPush>, process: suspend (SimulatedPush) -> Unit): Long {
+        val start = testScheduler.currentTime
+        pushes.map { launch { process(it) } }.forEach { it.join() }
+        return testScheduler.currentTime - start
+    }
+
+    @Test
+    fun `interleaved pushes across servers - stay ordered and outrun the global lock`() = runTest {
+        val pushes = burst()
+
+        // The single mutex every push went through before, around both the fetch and the write
+        val globalLock = Mutex()
+        val globalElapsed = elapsed(pushes) {
+            globalLock.withLock {
+                delay(FETCH_MS)
+                delay(WRITE_MS)
+            }
+        }
+
+        val locks = PushLocks()
+        val writing = HashMap<String, Int>()
+        val processed = HashMap<String, MutableList<Int>>()
+        val lockedElapsed = elapsed(pushes) { push ->
+            locks.withChannelLock(push.serverUrl, push.channelId) {
+                delay(FETCH_MS)
+                locks.withServerLock(push.serverUrl) {
+                    writing[push.serverUrl] = (writing[push.serverUrl] ?: 0) + 1
+                    assertEquals("two writes to ${push.serverUrl} at once", 1, writing[push.serverUrl])
+                    processed.getOrPut(PushLocks.channelKey(push.serverUrl, push.channelId)) { mutableListOf() }.add(push.sequence)
+                    delay(WRITE_MS)
+                    writing[push.serverUrl] = writing[push.serverUrl]!! - 1
+                }
+            }
+        }
+
+        assertEquals(pushes.size, processed.values.sumOf { it.size })
+        processed.forEach { (key, sequences) -> assertEquals("pushes of $key out of order", sequences.sorted(), sequences) }
+
+        val keys = pushes.map { PushLocks.channelKey(it.serverUrl, it.channelId) }.distinct()
+        val stripes = keys.map { locks.channelLocks.get(it) }.distinct().size
+        val speedup = globalElapsed.toDouble() / lockedElapsed
+        println("${pushes.size} pushes over ${keys.size} channels in $stripes stripes: global lock ${globalElapsed}ms, push locks ${lockedElapsed}ms, ${"%.1f".format(speedup)}x")
+
+        assertEquals(pushes.size * (FETCH_MS + WRITE_MS), globalElapsed)
+        // Channels hashed into the same stripe wait for each other as they all did behind the
+        // global lock, with 16 stripes for 24 channels the burst still runs several times faster
+        assertTrue("push locks ${lockedElapsed}ms against ${globalElapsed}ms for the global lock", speedup >= MIN_SPEEDUP)
+    }
+
+    companion object {
+        private const val SERVERS = 4
+        private const val CHANNELS_PER_SERVER = 6
+        private const val PUSHES_PER_CHANNEL = 3
+        private const val FETCH_MS = 100L
+        private const val WRITE_MS = 5L
+        private const val MIN_SPEEDUP = 4.0
+    }
+}
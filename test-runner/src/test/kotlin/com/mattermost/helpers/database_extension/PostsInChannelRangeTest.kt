@@ -0,0 +1,176 @@
+package com.mattermost.helpers.database_extension
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Tests for [mergeChunkRanges] and [mergeSinceRange], the interval merging used to maintain the
+ * PostsInChannel chunks.
+ */
+class PostsInChannelRangeTest {
+
+    private fun merge(chunks: List<Pair<Double, Double>>, earliest: Double, latest: Double): ChunkMerge {
+        return mergeChunkRanges(
+                chunks.map { it.first }.toDoubleArray(),
+                chunks.map { it.second }.toDoubleArray(),
+                earliest,
+                latest
+        )
+    }
+
+    @Test
+    fun `no existing chunks - creates a new chunk`() {
+        val result = merge(emptyList(), 10.0, 20.0)
+        assertEquals(-1, result.keep)
+        assertEquals(10.0, result.earliest, 0.0)
+        assertEquals(20.0, result.latest, 0.0)
+        assertEquals(0, result.remove.size)
+    }
+
+    @Test
+    fun `disjoint first page - creates a new chunk and keeps the others`() {
+        // a page=0 request does not continue any stored chunk, the gap before it is kept
+        val result = merge(listOf(0.0 to 5.0, 30.0 to 40.0), 10.0, 20.0)
+        assertEquals(-1, result.keep)
+        assertEquals(0, result.remove.size)
+    }
+
+    private fun mergeSince(chunks: List<Pair<Double, Double>>, earliest: Double, latest: Double): ChunkMerge {
+        return mergeSinceRange(
+                chunks.map { it.first }.toDoubleArray(),
+                chunks.map { it.second }.toDoubleArray(),
+                earliest,
+                latest
+        )
+    }
+
+    @Test
+    fun `since page newer than the newest chunk - extends the newest chunk`() {
+        val result = mergeSince(listOf(0.0 to 5.0, 30.0 to 40.0), 45.0, 60.0)
+        assertEquals(1, result.keep)
+        assertEquals(30.0, result.earliest, 0.0)
+        assertEquals(60.0, result.latest, 0.0)
+        assertEquals(0, result.remove.size)
+    }
+
+    @Test
+    fun `since page inside the newest chunk - keeps the chunk untouched`() {
+        val result = mergeSince(listOf(30.0 to 40.0, 0.0 to 5.0), 35.0, 40.0)
+        assertEquals(0, result.keep)
+        assertEquals(30.0, result.earliest, 0.0)
+        assertEquals(40.0, result.latest, 0.0)
+        assertEquals(0, result.remove.size)
+    }
+
+    @Test
+    fun `since page reaching back over older chunks - absorbs them into the newest chunk`() {
+        val result = mergeSince(listOf(0.0 to 5.0, 10.0 to 20.0, 30.0 to 40.0), 15.0, 50.0)
+        assertEquals(2, result.keep)
+        assertEquals(10.0, result.earliest, 0.0)
+        assertEquals(50.0, result.latest, 0.0)
+        assertArrayEquals(intArrayOf(1), result.remove)
+    }
+
+    @Test
+    fun `since page without chunks - creates a new chunk`() {
+        val result = mergeSince(emptyList(), 10.0, 20.0)
+        assertEquals(-1, result.keep)
+        assertEquals(10.0, result.earliest, 0.0)
+        assertEquals(20.0, result.latest, 0.0)
+    }
+
+    @Test
+    fun `range inside a chunk - keeps the chunk untouched`() {
+        val result = merge(listOf(0.0 to 100.0), 10.0, 20.0)
+        assertEquals(0, result.keep)
+        assertEquals(0.0, result.earliest, 0.0)
+        assertEquals(100.0, result.latest, 0.0)
+        assertEquals(0, result.remove.size)
+    }
+
+    @Test
+    fun `range extending a chunk - grows the chunk`() {
+        val result = merge(listOf(0.0 to 15.0), 10.0, 20.0)
+        assertEquals(0, result.keep)
+        assertEquals(0.0, result.earliest, 0.0)
+        assertEquals(20.0, result.latest, 0.0)
+    }
+
+    @Test
+    fun `touching ranges - are merged`() {
+        val result = merge(listOf(0.0 to 10.0, 20.0 to 30.0), 10.0, 20.0)
+        assertEquals(1, result.keep)
+        assertEquals(0.0, result.earliest, 0.0)
+        assertEquals(30.0, result.latest, 0.0)
+        assertArrayEquals(intArrayOf(0), result.remove)
+    }
+
+    @Test
+    fun `range spanning many fragments - merges all of them into one chunk`() {
+        val chunks = listOf(
+                50.0 to 60.0,
+                0.0 to 5.0,
+                10.0 to 12.0,
+                14.0 to 18.0,
+                25.0 to 40.0,
+                100.0 to 110.0,
+        )
+        val result = merge(chunks, 3.0, 55.0)
+        assertEquals(0, result.keep)
+        assertEquals(0.0, result.earliest, 0.0)
+        assertEquals(60.0, result.latest, 0.0)
+        assertArrayEquals(intArrayOf(1, 2, 3, 4), result.remove)
+    }
+
+    @Test
+    fun `chunks overlapping only an absorbed chunk - are merged transitively`() {
+        // [5, 15] only overlaps the new range through [12, 25], and [0, 6] only through [5, 15]
+        val chunks = listOf(0.0 to 6.0, 5.0 to 15.0, 12.0 to 25.0, 70.0 to 80.0)
+        val result = merge(chunks, 20.0, 30.0)
+        assertEquals(2, result.keep)
+        assertEquals(0.0, result.earliest, 0.0)
+        assertEquals(30.0, result.latest, 0.0)
+        assertArrayEquals(intArrayOf(0, 1), result.remove)
+    }
+
+    @Test
+    fun `keeps the chunk with the highest latest`() {
+        val chunks = listOf(10.0 to 20.0, 15.0 to 50.0, 0.0 to 12.0)
+        val result = merge(chunks, 11.0, 16.0)
+        assertEquals(1, result.keep)
+        assertArrayEquals(intArrayOf(0, 2), result.remove)
+    }
+
+    @Test
+    fun `repeated merges over a fragmented history - converge to disjoint chunks`() {
+        val earliest = ArrayList<Double>()
+        val latest = ArrayList<Double>()
+        val ranges = listOf(
+                0.0 to 10.0, 20.0 to 30.0, 40.0 to 50.0, 60.0 to 70.0,
+                25.0 to 45.0, 5.0 to 22.0, 65.0 to 90.0, 100.0 to 110.0, 48.0 to 61.0,
+        )
+
+        for ((e, l) in ranges) {
+            val result = mergeChunkRanges(earliest.toDoubleArray(), latest.toDoubleArray(), e, l)
+            if (result.keep < 0) {
+                earliest.add(result.earliest)
+                latest.add(result.latest)
+            } else {
+                earliest[result.keep] = result.earliest
+                latest[result.keep] = result.latest
+            }
+            for (i in result.remove.sortedDescending()) {
+                earliest.removeAt(i)
+                latest.removeAt(i)
+            }
+
+            val sorted = earliest.indices.sortedBy { earliest[it] }
+            for (j in 1 until sorted.size) {
+                assertTrue("chunks overlap after merging [$e, $l]", latest[sorted[j - 1]] < earliest[sorted[j]])
+            }
+        }
+
+        assertEquals(listOf(0.0, 100.0), earliest.sorted())
+        assertEquals(listOf(90.0, 110.0), latest.sorted())
+    }
+}
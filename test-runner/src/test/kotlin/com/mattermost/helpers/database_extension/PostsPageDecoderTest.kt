@@ -0,0 +1,143 @@
+package com.mattermost.helpers.database_extension
+
+import org.json.JSONObject
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Tests for [decodePostsPage], the decoder turning a posts response into the rows handlePosts writes,
+ * and for [mergePostsPages] used by the write queue to fold the pages of a burst.
+ */
+class PostsPageDecoderTest {
+
+    private val response = """
+        {
+          "order": ["p2", "p1"],
+          "posts": {
+            "p1": {
+              "id": "p1", "channel_id": "c1", "user_id": "u1", "create_at": 100, "update_at": 150,
+              "message": "first \"quoted\" line\nsecond é", "is_pinned": true,
+              "props": {"attachments": [{"text": "a, b}"}], "from_bot": "true"},
+              "metadata": {
+                "embeds": [{"type": "opengraph", "url": "https://example.com/?a=[1]"}],
+                "reactions": [{"user_id": "u2", "post_id": "p1", "emoji_name": "smile", "create_at": 120}],
+                "files": [{"id": "f1", "post_id": "p1", "name": "a.png", "extension": "png", "mime_type": "image/png", "size": 10}],
+                "priority": {"priority": "urgent"}
+              }
+            },
+            "p2": {
+              "id": "p2", "channel_id": "c1", "user_id": "u1", "create_at": 200, "root_id": "p1",
+              "prev_post_id": "p1", "props": null, "metadata": {}
+            },
+            "p3": {"id": "p3", "channel_id": "c1", "create_at": 300}
+          },
+          "next_post_id": "",
+          "prev_post_id": "p0",
+          "has_next": false
+        }
+    """.trimIndent()
+
+    @Test
+    fun `decodes the columns of every post`() {
+        val page = decodePostsPage(response)
+        assertEquals(listOf("p2", "p1"), page.order)
+        assertEquals("p0", page.prevPostId)
+
+        val post = page.posts.first { it.id == "p1" }
+        assertEquals("c1", post.channelId)
+        assertEquals("u1", post.userId)
+        assertEquals(100.0, post.createAt, 0.0)
+        assertEquals(150.0, post.updateAt, 0.0)
+        assertEquals(0.0, post.deleteAt, 0.0)
+        assertTrue(post.isPinned)
+        assertEquals("first \"quoted\" line\nsecond é", post.message)
+        assertEquals("", post.rootId)
+        assertNull(post.prevPostId)
+
+        val reply = page.posts.first { it.id == "p2" }
+        assertEquals("p1", reply.rootId)
+        assertEquals("p1", reply.prevPostId)
+        assertEquals("", reply.props)
+        assertEquals("{}", reply.metadata)
+    }
+
+    @Test
+    fun `keeps props and metadata as the raw json of the response`() {
+        val post = decodePostsPage(response).posts.first { it.id == "p1" }
+        assertEquals("""{"attachments": [{"text": "a, b}"}], "from_bot": "true"}""", post.props)
+
+        val metadata = JSONObject(post.metadata)
+        assertEquals(setOf("embeds", "priority"), metadata.keys().asSequence().toSet())
+        assertEquals("https://example.com/?a=[1]", metadata.getJSONArray("embeds").getJSONObject(0).getString("url"))
+    }
+
+    @Test
+    fun `decodes reactions and files into their own records`() {
+        val post = decodePostsPage(response).posts.first { it.id == "p1" }
+        assertEquals(listOf("smile"), post.reactions.map { it.emojiName })
+        assertEquals(120.0, post.reactions[0].createAt, 0.0)
+        assertEquals(listOf("f1"), post.files.map { it.id })
+        assertEquals("image/png", post.files[0].mimeType)
+        assertEquals(0, post.files[0].width)
+        assertTrue(post.emojis.isEmpty())
+    }
+
+    @Test
+    fun `leaves out the posts missing a required column`() {
+        val page = decodePostsPage(response)
+        assertEquals(setOf("p1", "p2"), page.posts.map { it.id }.toSet())
+    }
+
+    @Test
+    fun `decodes the serialized form of a parsed response`() {
+        val page = decodePostsPage(JSONObject(response).toString())
+        val post = page.posts.first { it.id == "p1" }
+        assertEquals(JSONObject(response).getJSONObject("posts").getJSONObject("p1").getJSONObject("props").toString(), post.props)
+        assertEquals(2, page.posts.size)
+    }
+
+    @Test
+    fun `reads whether the page was requested since the newest post`() {
+        assertFalse(decodePostsPage(response).since)
+        assertTrue(decodePostsPage(JSONObject(response).put(POSTS_SINCE_KEY, true).toString()).since)
+    }
+
+    @Test
+    fun `marks the response text as requested since the newest post`() {
+        val marked = markPostsSince(response)
+        assertTrue(decodePostsPage(marked).since)
+        assertEquals(decodePostsPage(response).posts.map { it.metadata }, decodePostsPage(marked).posts.map { it.metadata })
+        assertTrue(JSONObject(markPostsSince(" { } ")).getBoolean(POSTS_SINCE_KEY))
+    }
+
+    private fun page(vararg posts: Pair<String, Int>, prevPostId: String? = null, since: Boolean = false): PostsPage {
+        val json = JSONObject()
+        posts.forEach { (id, createAt) -> json.put(id, JSONObject().put("id", id).put("channel_id", "c1").put("user_id", "u1").put("create_at", createAt).put("message", "$id-$createAt")) }
+        val order = posts.sortedByDescending { it.second }.map { it.first }
+        val text = JSONObject().put("order", org.json.JSONArray(order)).put("posts", json).put("prev_post_id", prevPostId ?: JSONObject.NULL).put(POSTS_SINCE_KEY, since)
+        return decodePostsPage(text.toString())
+    }
+
+    @Test
+    fun `merged pages take the later post and the union of both orders`() {
+        val merged = mergePostsPages(page("a" to 1, "b" to 2), page("b" to 2, "c" to 3))
+        assertEquals(listOf("c", "b", "a"), merged.order)
+        assertEquals(3, merged.posts.size)
+    }
+
+    @Test
+    fun `merged pages keep the previous post id of the page reaching further back`() {
+        val merged = mergePostsPages(page("a" to 1, "b" to 2, prevPostId = "before-a"), page("b" to 2, "c" to 3, prevPostId = "a"))
+        assertEquals("before-a", merged.prevPostId)
+
+        val older = mergePostsPages(merged, page("z" to 0, prevPostId = "before-z"))
+        assertEquals("before-z", older.prevPostId)
+        assertEquals(listOf("c", "b", "a", "z"), older.order)
+    }
+
+    @Test
+    fun `merged pages continue the newest chunk only when every page does`() {
+        assertTrue(mergePostsPages(page("a" to 1, since = true), page("b" to 2, since = true)).since)
+        assertFalse(mergePostsPages(page("a" to 1), page("b" to 2, since = true)).since)
+    }
+}
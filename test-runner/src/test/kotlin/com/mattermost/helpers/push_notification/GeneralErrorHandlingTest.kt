@@ -188,4 +188,25 @@ class GeneralErrorHandlingTest {
         val msg = formatErrorMessage(response)
         assertEquals("Unexpected response: null", msg)
     }
+
+    @Test
+    fun `raw body with an AppError - formats status code and message`() {
+        val msg = formatErrorMessage(401, """{"id":"api.context.session_expired.app_error","message":"Invalid or expired session","status_code":401}""")
+        assertEquals("Unexpected code 401 Invalid or expired session", msg)
+    }
+
+    @Test
+    fun `raw body that is not JSON - includes the truncated body`() {
+        val html = "<html><body>" + "Bad Gateway ".repeat(50) + "</body></html>"
+
+        val msg = formatErrorMessage(502, html)
+        assertTrue(msg.startsWith("Unexpected code 502 <html><body>Bad Gateway"))
+        assertTrue(msg.length < html.length)
+    }
+
+    @Test
+    fun `raw body that is JSON without a message - includes the body`() {
+        assertEquals("Unexpected code 500 [1,2]", formatErrorMessage(500, "[1,2]"))
+        assertEquals("Unexpected code 503", formatErrorMessage(503, ""))
+    }
 }